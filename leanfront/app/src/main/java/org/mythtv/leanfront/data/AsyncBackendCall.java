@@ -19,12 +19,12 @@
 
 package org.mythtv.leanfront.data;
 
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Looper;
 import android.util.Log;
 import android.view.View;
 
@@ -44,17 +44,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.TimeZone;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AsyncBackendCall implements Runnable {
 
@@ -76,6 +79,7 @@ public class AsyncBackendCall implements Runnable {
     private int [] mTasks;
     private Integer [] inTasks;
     private long mFileLength = -1;
+    private GrowingFileTracker mFileTracker;
     private long mRecordId = -1;
     private long mRecordedId = -1;
     private String mStringResult = null;
@@ -88,7 +92,39 @@ public class AsyncBackendCall implements Runnable {
     private String mStringParameter;
     private ObjectAdapter rowAdapter;
     private CommBreakTable commBreakTable;
-    private final static ExecutorService executor = Executors.newSingleThreadExecutor();
+    // The last cut list or comm break fetch got a response
+    private boolean mCommBreakFetched;
+    // Calls are queued by priority, lower values first, and in order of
+    // execute() within a priority. All tasks of one execute() run in
+    // sequence on one thread. Calls that change or read the state of a
+    // video (bookmarks, watched, recording group, deletion) also go
+    // through a lane for that video, so that they run one at a time in
+    // order of execute(), for example a refresh after a bookmark is set.
+    public static final int PRIORITY_INTERACTIVE = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_BULK = 2;
+    private static final int EXECUTOR_THREADS = 3;
+    // Longest time ACTION_FILELENGTH waits for the file to grow
+    private static final long FILE_LENGTH_WAIT = 5000;
+    private final static ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            EXECUTOR_THREADS, EXECUTOR_THREADS, 60, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>());
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+    private static final AtomicLong sequence = new AtomicLong();
+    // Calls waiting for an earlier call on the same video, by lane key.
+    // A key is present while a call in its lane is queued or running.
+    private static final HashMap<String, ArrayDeque<QueuedCall>> lanes = new HashMap<>();
+    // Statistics, key is action, value is count, total ms, max ms
+    private static final HashMap<Integer, long[]> actionStats = new HashMap<>();
+    private static long queueWaitCount;
+    private static long queueWaitTotal;
+    private static long queueWaitMax;
+    private QueuedCall mQueued;
+    // Overrides the priority of the tasks if set
+    private int mPriority = -1;
+    private final CountDownLatch mDone = new CountDownLatch(1);
     private int mChanid;
     private String callSign;
 
@@ -186,6 +222,10 @@ public class AsyncBackendCall implements Runnable {
         return mXmlResults;
     }
 
+    public Date getStartTime() {
+        return mStartTime;
+    }
+
     public void setStartTime(Date mStartTime) {
         this.mStartTime = mStartTime;
     }
@@ -198,6 +238,10 @@ public class AsyncBackendCall implements Runnable {
         this.mEndTime = mEndTime;
     }
 
+    public int getId() {
+        return mId;
+    }
+
     public void setId(int id) {
         this.mId = id;
     }
@@ -228,6 +272,9 @@ public class AsyncBackendCall implements Runnable {
 
     public static int getMythTvVersion() {
         BackendCache bCache = BackendCache.getInstance();
+        // The UI thread cannot wait and uses the value found so far
+        if (Looper.myLooper() != Looper.getMainLooper())
+            bCache.awaitBackendInfo();
         return bCache.mythTvVersion;
     }
 
@@ -235,6 +282,10 @@ public class AsyncBackendCall implements Runnable {
         this.mValue = mValue;
     }
 
+    public void setFileTracker(GrowingFileTracker fileTracker) {
+        this.mFileTracker = fileTracker;
+    }
+
     public void setCommBreakTable(CommBreakTable commBreakTable) {
         this.commBreakTable = commBreakTable;
     }
@@ -255,13 +306,217 @@ public class AsyncBackendCall implements Runnable {
         this.callSign = callSign;
     }
 
+    public boolean isCommBreakFetched() {
+        return mCommBreakFetched;
+    }
+
+    public void setPriority(int priority) {
+        mPriority = priority;
+    }
+
     public void execute(Integer ... tasks) {
         inTasks = tasks;
-        executor.submit(this);
+        int priority = PRIORITY_BULK;
+        for (int task : tasks)
+            priority = Math.min(priority, getPriority(task));
+        if (mPriority >= 0)
+            priority = mPriority;
+        mQueued = new QueuedCall(this, priority, getLaneKey(tasks));
+        if (mQueued.lane != null) {
+            synchronized (lanes) {
+                ArrayDeque<QueuedCall> waiting = lanes.get(mQueued.lane);
+                if (waiting != null) {
+                    waiting.add(mQueued);
+                    return;
+                }
+                lanes.put(mQueued.lane, new ArrayDeque<>());
+            }
+        }
+        executor.execute(mQueued);
+    }
+
+    // Key of the lane for a call that uses the state of its video, or null
+    private String getLaneKey(Integer[] tasks) {
+        if (mVideo == null)
+            return null;
+        boolean stateful = false;
+        for (int task : tasks) {
+            switch (task) {
+                case Video.ACTION_REFRESH:
+                case Video.ACTION_GET_RECORDED:
+                case Video.ACTION_SET_BOOKMARK:
+                case Video.ACTION_REMOVE_BOOKMARK:
+                case Video.ACTION_SET_LASTPLAYPOS:
+                case Video.ACTION_REMOVE_LASTPLAYPOS:
+                case Video.ACTION_SET_WATCHED:
+                case Video.ACTION_UPDATE_RECGROUP:
+                case Video.ACTION_DELETE:
+                case Video.ACTION_DELETE_AND_RERECORD:
+                case Video.ACTION_UNDELETE:
+                case Video.ACTION_ALLOW_RERECORD:
+                case Video.ACTION_REMOVE_RECENT:
+                case Video.ACTION_STOP_RECORDING:
+                    stateful = true;
+                    break;
+            }
+        }
+        if (!stateful)
+            return null;
+        if (mVideo.videoUrl != null)
+            return mVideo.videoUrl;
+        if (mVideo.recordedid != null)
+            return mVideo.rectype + ":" + mVideo.recordedid;
+        return null;
+    }
+
+    // Start the next call waiting in a lane, or close the lane
+    private static void nextInLane(String lane) {
+        QueuedCall next;
+        synchronized (lanes) {
+            ArrayDeque<QueuedCall> waiting = lanes.get(lane);
+            next = waiting == null ? null : waiting.poll();
+            if (next == null) {
+                lanes.remove(lane);
+                return;
+            }
+        }
+        executor.execute(next);
+    }
+
+    private static int getPriority(int task) {
+        switch (task) {
+            case Video.ACTION_REFRESH:
+            case Video.ACTION_SET_BOOKMARK:
+            case Video.ACTION_REMOVE_BOOKMARK:
+            case Video.ACTION_SET_LASTPLAYPOS:
+            case Video.ACTION_REMOVE_LASTPLAYPOS:
+            case Video.ACTION_FILELENGTH:
+            case Video.ACTION_LIVETV:
+            case Video.ACTION_GET_RECORDED:
+            case Video.ACTION_SEEK_BYTES:
+            case Video.ACTION_SEEK_DURATION:
+            case Video.ACTION_COMMBREAK_LOAD:
+            case Video.ACTION_CUTLIST_LOAD:
+                return PRIORITY_INTERACTIVE;
+            case Video.ACTION_BACKEND_INFO:
+            case Video.ACTION_BACKEND_INFO_HTML:
+            case Video.ACTION_DVR_WSDL:
+            case Video.ACTION_GUIDE:
+            case Video.ACTION_CHAN_GROUPS:
+            case Video.ACTION_SEARCHGUIDE:
+            case Video.ACTION_WAIT_RECORDING:
+            case Video.ACTION_GETUPCOMINGLIST:
+            case Video.ACTION_GETRECORDSCHEDULELIST:
+            case Video.ACTION_GETRECRULEFILTERLIST:
+                return PRIORITY_BULK;
+            default:
+                return PRIORITY_NORMAL;
+        }
+    }
+
+    /**
+     * Wait until this call has completed. If it is still queued it is run
+     * at once on the calling thread, so that pool threads waiting on it
+     * cannot leave it stuck in the queue.
+     */
+    public void await(long timeoutMs) {
+        QueuedCall queued = mQueued;
+        if (queued != null && executor.remove(queued))
+            queued.run();
+        try {
+            mDone.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public static int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    private static synchronized void recordLatency(int task, long ms) {
+        long[] stats = actionStats.get(task);
+        if (stats == null) {
+            stats = new long[3];
+            actionStats.put(task, stats);
+        }
+        stats[0]++;
+        stats[1] += ms;
+        stats[2] = Math.max(stats[2], ms);
+    }
+
+    private static synchronized void recordQueueWait(long ms) {
+        queueWaitCount++;
+        queueWaitTotal += ms;
+        queueWaitMax = Math.max(queueWaitMax, ms);
+    }
+
+    /**
+     * @return Queue depth, queue wait and per action latency as text
+     */
+    public static synchronized String getStats() {
+        StringBuilder ret = new StringBuilder();
+        ret.append("Queue depth ").append(getQueueDepth())
+                .append(", active ").append(getActiveCount())
+                .append(", queue wait count ").append(queueWaitCount)
+                .append(" avg ms ").append(queueWaitCount == 0 ? 0 : queueWaitTotal / queueWaitCount)
+                .append(" max ms ").append(queueWaitMax);
+        for (Map.Entry<Integer, long[]> entry : new TreeMap<>(actionStats).entrySet()) {
+            long[] stats = entry.getValue();
+            ret.append("\nAction ").append(entry.getKey())
+                    .append(" count ").append(stats[0])
+                    .append(" avg ms ").append(stats[1] / stats[0])
+                    .append(" max ms ").append(stats[2]);
+        }
+        return ret.toString();
+    }
+
+    private static class QueuedCall implements Runnable, Comparable<QueuedCall> {
+        private final AsyncBackendCall call;
+        private final int priority;
+        private final String lane;
+        private final long seq = sequence.getAndIncrement();
+        private final long queueTime = System.currentTimeMillis();
+
+        QueuedCall(AsyncBackendCall call, int priority, String lane) {
+            this.call = call;
+            this.priority = priority;
+            this.lane = lane;
+        }
+
+        @Override
+        public void run() {
+            recordQueueWait(System.currentTimeMillis() - queueTime);
+            try {
+                call.run();
+            } finally {
+                if (lane != null)
+                    nextInLane(lane);
+            }
+        }
+
+        @Override
+        public int compareTo(QueuedCall other) {
+            if (priority != other.priority)
+                return Integer.compare(priority, other.priority);
+            return Long.compare(seq, other.seq);
+        }
     }
 
     @Override
     public void run() {
+        try {
+            runCall();
+        } finally {
+            mDone.countDown();
+        }
+    }
+
+    private void runCall() {
         if (!XmlNode.isSetupDone())
             return;
         try {
@@ -291,7 +546,6 @@ public class AsyncBackendCall implements Runnable {
         }
     }
 
-    @SuppressLint("SimpleDateFormat")
     private void runTasks() {
         BackendCache bCache = BackendCache.getInstance();
         mTasks = new int[inTasks.length];
@@ -331,6 +585,7 @@ public class AsyncBackendCall implements Runnable {
             boolean allowRerecord = false;
             XmlNode xmlResult = null;
             String paramValue = null;
+            long taskStart = System.currentTimeMillis();
             switch (task) {
                 case Video.ACTION_REFRESH:
                     mBookmark = 0;
@@ -386,6 +641,7 @@ public class AsyncBackendCall implements Runnable {
                         // This is actually last play pos but stored as pref_bookmark
                         // for backward compatibility
                         String pref = Settings.getString("pref_bookmark");
+                        bCache.awaitBackendInfo();
                         // If no local bookmark was found look for one on MythTV
                         if (mLastPlay <= 0 && ("mythtv".equals(pref) || "auto".equals(pref))
                                 && bCache.supportLastPlayPos) {
@@ -490,6 +746,7 @@ public class AsyncBackendCall implements Runnable {
                     try {
                         found = false;
                         String method;
+                        bCache.awaitBackendInfo();
                         if (bCache.supportLastPlayPos)
                             method = "SetLastPlayPos";
                         else
@@ -521,8 +778,9 @@ public class AsyncBackendCall implements Runnable {
                             break;
 
                         // Create a new map of values, where column names are the keys
+                        long lastUsed = System.currentTimeMillis();
                         ContentValues values = new ContentValues();
-                        values.put(VideoContract.StatusEntry.COLUMN_LAST_USED, System.currentTimeMillis());
+                        values.put(VideoContract.StatusEntry.COLUMN_LAST_USED, lastUsed);
                         values.put(VideoContract.StatusEntry.COLUMN_BOOKMARK, localBkmark);
                         values.put(VideoContract.StatusEntry.COLUMN_SHOW_RECENT, 1);
 
@@ -544,6 +802,7 @@ public class AsyncBackendCall implements Runnable {
                                     null, values);
                         }
                         VideoDbHelper.releaseDatabase();
+                        RecentsIndex.getInstance().noteUsed(mVideo.videoUrlPath, lastUsed);
                     } catch (IOException | XmlPullParserException e) {
                         e.printStackTrace();
                     }
@@ -586,6 +845,7 @@ public class AsyncBackendCall implements Runnable {
                                             + "&AutoExpire=" + mStringParameter);
                             type = VideoContract.VideoEntry.RECTYPE_RECORDING;
                             xmlResult = XmlNode.fetch(urlString, "POST");
+                            ResponseCache.getInstance().invalidate("/Dvr/GetRecGroupList");
                             if (context != null)
                                 MainFragment.startFetch(type, mVideo.recordedid, null, false);
                         }
@@ -614,6 +874,7 @@ public class AsyncBackendCall implements Runnable {
                             selectionArgs);
 
                     VideoDbHelper.releaseDatabase();
+                    RecentsIndex.getInstance().noteHidden(mVideo.videoUrlPath);
 
                     if (context != null)
                         MainFragment.startFetch(mVideo.rectype, mVideo.recordedid, null, false);
@@ -623,51 +884,11 @@ public class AsyncBackendCall implements Runnable {
                     break;
                 }
                 case Video.ACTION_FILELENGTH:
-                    // mValue is prior file length to be checked against
-                    // Try 10 times until file length increases.
-                    urlString = mVideo.videoUrl;
-                    mFileLength = -1;
-                    for (int counter = 0 ; counter < 5 ; counter++) {
-                        try {
-                            // pause 1 second between attempts
-                            Thread.sleep(1000);
-                        } catch (InterruptedException ignored) {
-                        }
-                        try {
-                            URL url = new URL(urlString);
-                            urlConnection = (HttpURLConnection) url.openConnection();
-                            urlConnection.addRequestProperty("Cache-Control", "no-cache");
-                            urlConnection.addRequestProperty("Accept-Encoding", "identity");
-                            urlConnection.setConnectTimeout(1000);
-                            urlConnection.setReadTimeout(1000);
-                            urlConnection.setRequestMethod("HEAD");
-                            Log.i(TAG, CLASS + " URL: " + urlString);
-                            urlConnection.connect();
-                            try {
-                                Log.d(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
-                                        + " " + urlConnection.getResponseMessage());
-                            } catch(Exception ignored) {
-                                // Sometimes there is a ProtocolException in the urlConnection.getResponseCode
-                                // Ignore the error so that we can continue
-                            }
-                            String strContentLeng = urlConnection.getHeaderField("Content-Length");
-                            if (strContentLeng != null)
-                                mFileLength = Long.parseLong(strContentLeng);
-                            if (mFileLength > mValue)
-                                break;
-                        } catch (Exception e) {
-                            try {
-                                Log.i(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
-                                        + " " + urlConnection.getResponseMessage());
-                            } catch (IOException ioException) {
-                                ioException.printStackTrace();
-                            }
-                            Log.e(TAG, CLASS + " Exception getting file length.",e);
-                        } finally {
-                            if (urlConnection != null)
-                                urlConnection.disconnect();
-                        }
-                    }
+                    // mValue is prior file length to be checked against.
+                    // Wait until file length increases.
+                    if (mFileTracker == null)
+                        mFileTracker = new GrowingFileTracker(mVideo.videoUrl);
+                    mFileLength = mFileTracker.awaitLength(mValue, FILE_LENGTH_WAIT);
                     break;
                 case Video.ACTION_LIVETV:
                     // Find the program in the guide from the supplied time (mStartTime) and channel
@@ -678,8 +899,6 @@ public class AsyncBackendCall implements Runnable {
                     // save recordid. Caller gets it with getRecordId()
                     mVideo = null;
                     try {
-                        SimpleDateFormat sdfUTC = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                        sdfUTC.setTimeZone(TimeZone.getTimeZone("UTC"));
                         // mStartTime is null means start now
                         boolean startNow = false;
                         if (mStartTime == null) {
@@ -691,8 +910,8 @@ public class AsyncBackendCall implements Runnable {
                         Date endRange = new Date(mStartTime.getTime()+5*60*1000);
                         urlString = XmlNode.mythApiUrl(null,
                                 "/Guide/GetProgramList?ChanId=" + mChanid
-                                + "&StartTime=" + URLEncoder.encode(sdfUTC.format(mStartTime), "UTF-8")
-                                + "&EndTime=" + URLEncoder.encode(sdfUTC.format(endRange), "UTF-8"));
+                                + "&StartTime=" + URLEncoder.encode(DateCodec.formatUtcSpaced(mStartTime.getTime()), "UTF-8")
+                                + "&EndTime=" + URLEncoder.encode(DateCodec.formatUtcSpaced(endRange.getTime()), "UTF-8"));
                         xmlResult = XmlNode.fetch(urlString, null);
                         XmlNode programs = xmlResult.getNode("Programs");
                         XmlNode program = programs.getNode("Program");
@@ -852,18 +1071,17 @@ public class AsyncBackendCall implements Runnable {
                             break;
                         }
                         VideoDbBuilder builder = new VideoDbBuilder(context);
-                        List<ContentValues> contentValuesList = new ArrayList<>();
-                        builder.buildMedia(xmlResult, 0, ixFound, contentValuesList);
-                        ContentValues[] downloadedVideoContentValues =
-                                contentValuesList.toArray(new ContentValues[0]);
-                        context.getContentResolver().bulkInsert(VideoContract.VideoEntry.CONTENT_URI,
-                                downloadedVideoContentValues);
-
-                        // Get recording from DB
+                        List<VideoRow> rowList = new ArrayList<>();
+                        builder.buildMedia(xmlResult, 0, ixFound, rowList);
                         VideoDbHelper dbh = VideoDbHelper.getInstance(context);
-                        SQLiteDatabase db = dbh.getReadableDatabase();
+                        SQLiteDatabase db = dbh.getWritableDatabase();
                         if (db == null)
                             break;
+                        VideoInserter.insertAll(db, rowList);
+                        ChangeCoalescer.getInstance().noteProviderChange(
+                                VideoContract.VideoEntry.CONTENT_URI);
+
+                        // Get recording from DB
 
                         // Filter results
                         String selection = VideoContract.VideoEntry.COLUMN_RECORDEDID + " = " + mRecordedId
@@ -918,6 +1136,7 @@ public class AsyncBackendCall implements Runnable {
                         urlString = XmlNode.mythApiUrl(null,
                                 "/Dvr/RemoveRecordSchedule?RecordId=" + mRecordId);
                         xmlResult = XmlNode.fetch(urlString, "POST");
+                        GuideStore.getInstance().invalidate();
                         String result = xmlResult.getString();
                         if ("true".equals(result))
                             Log.i(TAG, CLASS + " Record Rule Removed. recordId:" + mRecordId);
@@ -948,13 +1167,12 @@ public class AsyncBackendCall implements Runnable {
                         }
                         String dateStr = xmlResult.getAttribute("ISODate");
                         if (dateStr != null) {
-                            SimpleDateFormat dbFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'Z");
-                            try {
-                                Date backendTime = dbFormat.parse(dateStr + "+0000");
-                                bCache.mTimeAdjustment = backendTime.getTime() - System.currentTimeMillis();
+                            long backendTime = DateCodec.parseUtc(dateStr);
+                            if (backendTime == DateCodec.INVALID)
+                                Log.e(TAG, CLASS + " Invalid backend time " + dateStr + " " + urlString);
+                            else {
+                                bCache.mTimeAdjustment = backendTime - System.currentTimeMillis();
                                 Log.i(TAG, CLASS + " Time difference " + bCache.mTimeAdjustment + " milliseconds");
-                            } catch (ParseException e) {
-                                Log.e(TAG, CLASS + " Exception getting backend time " + urlString, e);
                             }
                         }
                     }
@@ -989,13 +1207,10 @@ public class AsyncBackendCall implements Runnable {
                     try {
                         urlString = XmlNode.mythApiUrl(null,
                                 "/Status/GetStatusHTML");
-                        URL url = new URL(urlString);
-                        urlConnection = (HttpURLConnection) url.openConnection();
-                        urlConnection.addRequestProperty("Cache-Control", "no-cache");
-                        urlConnection.setConnectTimeout(5000);
+                        urlConnection = BackendHttpClient.open(urlString, null);
                         urlConnection.setReadTimeout(30000);
                         Log.i(TAG, CLASS + " URL: " + urlString);
-                        is = urlConnection.getInputStream();
+                        is = BackendHttpClient.getInputStream(urlConnection);
                         Log.i(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
                                 + " " + urlConnection.getResponseMessage());
                         InputStreamReader reader = new InputStreamReader(is);
@@ -1020,28 +1235,14 @@ public class AsyncBackendCall implements Runnable {
                         }
                         Log.e(TAG, CLASS + " Exception getting backend status. " + urlString, e);
                     } finally {
-                        if (urlConnection != null)
-                            urlConnection.disconnect();
-                        if (is != null) {
-                            try {
-                                is.close();
-                            } catch (IOException e) {
-                                Log.e(TAG, CLASS + " Exception on URL: " + urlString, e);
-                            }
-                        }
+                        BackendHttpClient.release(urlConnection, is);
                     }
 
                     break;
 
                 case Video.ACTION_GUIDE:
                     try {
-                        SimpleDateFormat sdfUTC = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-                        sdfUTC.setTimeZone(TimeZone.getTimeZone("UTC"));
-                        urlString = XmlNode.mythApiUrl(null,
-                                "/Guide/GetProgramGuide?ChannelGroupId=" + mId
-                                        + "&StartTime="
-                                        + URLEncoder.encode(sdfUTC.format(mStartTime), "UTF-8")
-                                        + "&EndTime=" + URLEncoder.encode(sdfUTC.format(mEndTime), "UTF-8") );
+                        urlString = GuideStore.getGuideUrl(mId, mStartTime, mEndTime);
                         xmlResult = XmlNode.fetch(urlString, null);
                     } catch (Exception e) {
                         Log.e(TAG, CLASS + " Exception Getting Guide.", e);
@@ -1060,11 +1261,9 @@ public class AsyncBackendCall implements Runnable {
 
                 case Video.ACTION_GETPROGRAMDETAILS:
                     try {
-                        SimpleDateFormat sdfUTC = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-                        sdfUTC.setTimeZone(TimeZone.getTimeZone("UTC"));
                         urlString = XmlNode.mythApiUrl(null,
                                 "/Guide/GetProgramDetails?ChanId=" + mId
-                                        + "&StartTime=" + URLEncoder.encode(sdfUTC.format(mStartTime), "UTF-8"));
+                                        + "&StartTime=" + URLEncoder.encode(DateCodec.formatUtc(mStartTime.getTime()), "UTF-8"));
                         xmlResult = XmlNode.fetch(urlString, null);
                     } catch (Exception e) {
                         Log.e(TAG, CLASS + " Exception Getting Program Details.", e);
@@ -1090,8 +1289,6 @@ public class AsyncBackendCall implements Runnable {
 
                 case Video.ACTION_ADD_OR_UPDATERECRULE:
                     try {
-                        SimpleDateFormat sdfUTC = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                        sdfUTC.setTimeZone(TimeZone.getTimeZone("UTC"));
                         String baseURL;
                         if (mRecordRule.recordId == 0)
                             baseURL = "/Dvr/AddRecordSchedule?";
@@ -1105,8 +1302,8 @@ public class AsyncBackendCall implements Runnable {
                                 .append("&Subtitle=").append(URLEncoder.encode(nvl(mRecordRule.subtitle), "UTF-8"))
                                 .append("&Description=").append(URLEncoder.encode(nvl(mRecordRule.description), "UTF-8"))
                                 .append("&Category=").append(URLEncoder.encode(nvl(mRecordRule.category), "UTF-8"))
-                                .append("&StartTime=").append(URLEncoder.encode(sdfUTC.format(mRecordRule.startTime), "UTF-8"))
-                                .append("&EndTime=").append(URLEncoder.encode(sdfUTC.format(mRecordRule.endTime), "UTF-8"))
+                                .append("&StartTime=").append(URLEncoder.encode(DateCodec.formatUtcSpaced(mRecordRule.startTime.getTime()), "UTF-8"))
+                                .append("&EndTime=").append(URLEncoder.encode(DateCodec.formatUtcSpaced(mRecordRule.endTime.getTime()), "UTF-8"))
                                 .append("&SeriesId=").append(nvl(mRecordRule.seriesId))
                                 .append("&ProgramId=").append(nvl(mRecordRule.programId))
                                 .append("&ChanId=").append(mRecordRule.chanId)
@@ -1145,8 +1342,12 @@ public class AsyncBackendCall implements Runnable {
                                 .append("&AutoUserJob4=").append(mRecordRule.autoUserJob4)
                                 .append("&Transcoder=").append(mRecordRule.transcoder);
                         if (mRecordRule.lastRecorded != null)
-                            urlBuilder.append("&LastRecorded=").append(URLEncoder.encode(sdfUTC.format(mRecordRule.lastRecorded), "UTF-8"));
+                            urlBuilder.append("&LastRecorded=").append(URLEncoder.encode(DateCodec.formatUtcSpaced(mRecordRule.lastRecorded.getTime()), "UTF-8"));
                         xmlResult = XmlNode.fetch(urlBuilder.toString(), "POST");
+                        // The rule may add a new recording group
+                        ResponseCache.getInstance().invalidate("/Dvr/GetRecGroupList");
+                        // Recording status in the guide may have changed
+                        GuideStore.getInstance().invalidate();
                         String result = xmlResult.getString();
                         if (mRecordRule.recordId == 0) { // if a new rule is being created
                             Log.i(TAG, CLASS + " Recording scheduled, RecordId:" + result);
@@ -1161,9 +1362,15 @@ public class AsyncBackendCall implements Runnable {
 
                 case Video.ACTION_SEARCHGUIDE:
                     try {
+                        // mStartTime is set when earlier programs were found locally
+                        String startParm = "";
+                        if (mStartTime != null)
+                            startParm = "&StartTime=" + URLEncoder.encode(
+                                    DateCodec.formatUtc(mStartTime.getTime()), "UTF-8");
                         urlString = XmlNode.mythApiUrl(null,
                                 "/Guide/GetProgramList?Sort=starttime&count=500&TitleFilter="
-                                        + URLEncoder.encode(mStringParameter, "UTF-8"));
+                                        + URLEncoder.encode(mStringParameter, "UTF-8")
+                                        + startParm);
                         xmlResult = XmlNode.fetch(urlString, null);
                     } catch (Exception e) {
                         Log.e(TAG, CLASS + " Exception Getting Guide.", e);
@@ -1176,6 +1383,7 @@ public class AsyncBackendCall implements Runnable {
                             String url = XmlNode.mythApiUrl(null,
                                     "/Dvr/RemoveRecordSchedule?RecordId=" + mRecordRule.recordId);
                             xmlResult = XmlNode.fetch(url, "POST");
+                            GuideStore.getInstance().invalidate();
                         }
                     } catch (Exception e) {
                         Log.e(TAG, CLASS + " Exception removing Record Schedule.", e);
@@ -1249,13 +1457,15 @@ public class AsyncBackendCall implements Runnable {
                         xmlResult = XmlNode.fetch(urlString, null);
                     } catch (IOException | XmlPullParserException e) {
                         Log.w(TAG, CLASS + " " + e);
+                        mCommBreakFetched = false;
                         e.printStackTrace();
                         break;
                     }
                     if (commBreakTable != null)
                         commBreakTable.load(xmlResult);
+                    mCommBreakFetched = xmlResult != null;
                     if (commBreakTable.entries.length > 0) {
-                        commBreakTable.offSetType = CommBreakTable.OFFSET_DURATION;
+                        commBreakTable.setOffsetType(CommBreakTable.OFFSET_DURATION);
                         break;
                     }
                     // If Duration failed, try Frame. This could happen if there is no
@@ -1267,12 +1477,14 @@ public class AsyncBackendCall implements Runnable {
                         xmlResult = XmlNode.fetch(urlString, null);
                     } catch (IOException | XmlPullParserException e) {
                         Log.w(TAG, CLASS + " " + e);
+                        mCommBreakFetched = false;
                         break;
                     }
                     if (commBreakTable != null)
                         commBreakTable.load(xmlResult);
+                    mCommBreakFetched = xmlResult != null;
                     if (commBreakTable.entries.length > 0)
-                        commBreakTable.offSetType = CommBreakTable.OFFSET_FRAME;
+                        commBreakTable.setOffsetType(CommBreakTable.OFFSET_FRAME);
                     break;
 
                 case Video.ACTION_CUTLIST_LOAD:
@@ -1291,12 +1503,14 @@ public class AsyncBackendCall implements Runnable {
                         xmlResult = XmlNode.fetch(urlString, null);
                     } catch (IOException | XmlPullParserException e) {
                         Log.w(TAG, CLASS + " " + e);
+                        mCommBreakFetched = false;
                         break;
                     }
                     if (commBreakTable != null)
                         commBreakTable.load(xmlResult);
+                    mCommBreakFetched = xmlResult != null;
                     if (commBreakTable.entries.length > 0) {
-                        commBreakTable.offSetType = CommBreakTable.OFFSET_DURATION;
+                        commBreakTable.setOffsetType(CommBreakTable.OFFSET_DURATION);
                         break;
                     }
                     // If Duration failed, try Frame. This could happen if there is no
@@ -1308,10 +1522,14 @@ public class AsyncBackendCall implements Runnable {
                         xmlResult = XmlNode.fetch(urlString, null);
                     } catch (IOException | XmlPullParserException e) {
                         Log.w(TAG, CLASS + " " + e);
+                        mCommBreakFetched = false;
                         break;
                     }
+                    if (commBreakTable != null)
+                        commBreakTable.load(xmlResult);
+                    mCommBreakFetched = xmlResult != null;
                     if (commBreakTable.entries.length > 0)
-                        commBreakTable.offSetType = CommBreakTable.OFFSET_FRAME;
+                        commBreakTable.setOffsetType(CommBreakTable.OFFSET_FRAME);
                     break;
 
                 default:
@@ -1349,6 +1567,7 @@ public class AsyncBackendCall implements Runnable {
                         Log.e(TAG, CLASS + " Exception In " + method, e);
                     }
             }
+            recordLatency(task, System.currentTimeMillis() - taskStart);
             mXmlResults.add(xmlResult);
         }
     }
@@ -38,7 +38,6 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -142,22 +141,14 @@ public class AsyncRemoteCall implements Runnable {
 
         public int fetch(String requestMethod) {
             int ret = 0;
-            URL url = null;
             HttpURLConnection urlConnection = null;
             String urlString = getUrlString();
             InputStream is = null;
             try {
-                url = new URL(urlString);
-                urlConnection = (HttpURLConnection) url.openConnection();
-                urlConnection.setRequestProperty("Cache-Control", "no-cache");
-                urlConnection.setConnectTimeout(5000);
-                // 5 minutes - should never be this long.
-                urlConnection.setReadTimeout(300000);
-                if (requestMethod != null)
-                    urlConnection.setRequestMethod(requestMethod);
+                urlConnection = BackendHttpClient.open(urlString, requestMethod);
                 setupConnection(urlConnection);
                 Log.d(TAG, CLASS + " URL: " + urlString);
-                is = urlConnection.getInputStream();
+                is = BackendHttpClient.getInputStream(urlConnection);
                 parseStream(is);
             } catch(FileNotFoundException e) {
                 Log.e(TAG, CLASS + " Exception accessing: " + urlString, e);
@@ -173,15 +164,8 @@ public class AsyncRemoteCall implements Runnable {
                     } catch (IOException e) {
                         Log.e(TAG, CLASS + " Exception getting response code: " + urlString, e);
                     }
-                    urlConnection.disconnect();
-                }
-                if (is != null) {
-                    try {
-                        is.close();
-                    } catch (IOException e) {
-                        Log.e(TAG, CLASS + " Exception closing stream: " + urlString, e);
-                    }
                 }
+                BackendHttpClient.release(urlConnection, is);
             }
             return ret;
         }
@@ -361,14 +345,10 @@ public class AsyncRemoteCall implements Runnable {
             String urlString = BASEURL + "login";
             bearerToken = null;
             try {
-                URL url = new URL(urlString);
-                urlConnection = (HttpURLConnection) url.openConnection();
-                urlConnection.setRequestProperty("Cache-Control", "no-cache");
+                urlConnection = BackendHttpClient.open(urlString, "POST");
                 urlConnection.setRequestProperty("Content-Type", "application/json");
                 urlConnection.setRequestProperty("Accept", "application/json");
-                urlConnection.setConnectTimeout(5000);
                 urlConnection.setReadTimeout(5000);
-                urlConnection.setRequestMethod("POST");
                 urlConnection.setDoOutput(true);
                 Log.d(TAG, CLASS + " URL: " + urlString);
                 os = urlConnection.getOutputStream();
@@ -376,7 +356,7 @@ public class AsyncRemoteCall implements Runnable {
                 byte[] input = jsonInputString.getBytes(StandardCharsets.UTF_8);
                 os.write(input, 0, input.length);
                 os.close();
-                is = urlConnection.getInputStream();
+                is = BackendHttpClient.getInputStream(urlConnection);
                 parseLogin(is);
             } catch(FileNotFoundException e) {
                 Log.e(TAG, CLASS + " Exception accessing: " + urlString, e);
@@ -392,15 +372,8 @@ public class AsyncRemoteCall implements Runnable {
                     } catch (IOException e) {
                         Log.e(TAG, CLASS + " Exception getting response code: " + urlString, e);
                     }
-                    urlConnection.disconnect();
-                }
-                if (is != null) {
-                    try {
-                        is.close();
-                    } catch (IOException e) {
-                        Log.e(TAG, CLASS + " Exception closing stream: " + urlString, e);
-                    }
                 }
+                BackendHttpClient.release(urlConnection, is);
             }
             return ret;
         }
@@ -3,28 +3,34 @@ package org.mythtv.leanfront.data;
 import org.mythtv.leanfront.model.Settings;
 import org.mythtv.leanfront.model.Video;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 // Singleton class to cache frequently used backend data
 public class BackendCache implements AsyncBackendCall.OnBackendCallListener {
     private static BackendCache singleton;
     // Values from settings
-    public String sBackendIP;
-    public String sMainPort;
+    public volatile String sBackendIP;
+    public volatile String sMainPort;
+
+    // Values below are set on backend call threads and read on the UI thread
 
     // Values from wsdl
-    public boolean canUpdateRecGroup;
+    public volatile boolean canUpdateRecGroup;
 
     // Value from AsyncBackendCall
-    public long mTimeAdjustment = 0;
-    public int mythTvVersion = 0;
+    public volatile long mTimeAdjustment = 0;
+    public volatile int mythTvVersion = 0;
     // This flag will be set true during refresh if it is found that we are on a
     // backend that supports the LastPlayPos APIs (V32 or later).
-    public boolean supportLastPlayPos;
+    public volatile boolean supportLastPlayPos;
 
     // Values from XmlNode
-    public HashMap<String, String> sHostMap;
-    public boolean isConnected;
+    // Written by backend calls on several threads
+    public volatile ConcurrentHashMap<String, String> sHostMap;
+    public volatile boolean isConnected;
+
+    private static final long BACKEND_INFO_WAIT_MS = 10000;
+    private volatile AsyncBackendCall infoCall;
 
 
     private BackendCache() {
@@ -34,18 +40,31 @@ public class BackendCache implements AsyncBackendCall.OnBackendCallListener {
     private void init() {
         sBackendIP = Settings.getString("pref_backend");
         sMainPort = Settings.getString("pref_http_port");
-        sHostMap = new HashMap<>();
+        sHostMap = new ConcurrentHashMap<>();
         AsyncBackendCall call = new AsyncBackendCall(null, this);
+        // Run ahead of calls made after this one, as it did when calls
+        // ran one at a time. The UI reads the results without waiting.
+        call.setPriority(AsyncBackendCall.PRIORITY_INTERACTIVE);
         call.execute(Video.ACTION_DVR_WSDL, Video.ACTION_BACKEND_INFO);
+        infoCall = call;
+    }
+
+    // Backend info may still be running on another thread. Tasks that
+    // depend on mythTvVersion or supportLastPlayPos call this first.
+    public void awaitBackendInfo() {
+        AsyncBackendCall call = infoCall;
+        if (call != null)
+            call.await(BACKEND_INFO_WAIT_MS);
     }
 
-    public static BackendCache getInstance() {
+    public static synchronized BackendCache getInstance() {
         if (singleton == null)
             singleton = new BackendCache();
         return singleton;
     }
 
-    public static void flush() {
+    public static synchronized void flush() {
+        ResponseCache.getInstance().clear();
         if (singleton != null)
             singleton.init();
     }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.util.Log;
+
+import org.mythtv.leanfront.model.Settings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Shared HTTP client for backend and metadata requests.
+ *
+ * HttpURLConnection keeps a per-host pool of idle keep-alive connections.
+ * A connection only goes back to the pool if its response body has been
+ * read to the end and closed without calling disconnect(), so callers
+ * must use release() instead of disconnect().
+ */
+public class BackendHttpClient {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "BackendHttpClient";
+    // Idle connections kept per host
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    // How long an idle connection is kept open, milliseconds
+    private static final int KEEP_ALIVE_MS = 5 * 60 * 1000;
+    // Limit on draining an unread response so the connection can be reused
+    private static final int MAX_DRAIN = 64 * 1024;
+
+    static {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+        System.setProperty("http.keepAliveDuration", String.valueOf(KEEP_ALIVE_MS));
+    }
+
+    private BackendHttpClient() {
+    }
+
+    /**
+     * @return Connect timeout in milliseconds from settings
+     */
+    public static int getConnectTimeout() {
+        return Math.max(1, Settings.getInt("pref_http_connect_timeout")) * 1000;
+    }
+
+    /**
+     * @return Read timeout in milliseconds from settings
+     */
+    public static int getReadTimeout() {
+        return Math.max(1, Settings.getInt("pref_http_read_timeout")) * 1000;
+    }
+
+    /**
+     * Open a connection with the common request settings. The request is
+     * not sent until the caller connects or asks for the response.
+     * Callers may override the timeouts on the returned connection.
+     *
+     * @param urlString     URL
+     * @param requestMethod GET, POST, HEAD, null for GET
+     */
+    public static HttpURLConnection open(String urlString, String requestMethod)
+            throws IOException {
+        URL url = new URL(urlString);
+        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+        con.setRequestProperty("Cache-Control", "no-cache");
+        con.setRequestProperty("Accept-Encoding", "gzip");
+        con.setConnectTimeout(getConnectTimeout());
+        con.setReadTimeout(getReadTimeout());
+        if (requestMethod != null)
+            con.setRequestMethod(requestMethod);
+        return con;
+    }
+
+    /**
+     * Get the response body, uncompressing it if the server sent it gzipped.
+     */
+    public static InputStream getInputStream(HttpURLConnection con) throws IOException {
+        InputStream is = con.getInputStream();
+        if ("gzip".equalsIgnoreCase(con.getContentEncoding()))
+            is = new GZIPInputStream(is);
+        return is;
+    }
+
+    /**
+     * Finish with a connection, leaving the socket in the pool for reuse
+     * where possible. Any unread body, or the error body of a failed
+     * request, is read and discarded. Safe to call with nulls.
+     *
+     * @param con Connection from open()
+     * @param is  Stream from getInputStream(), or null if it was not obtained
+     */
+    public static void release(HttpURLConnection con, InputStream is) {
+        if (con == null)
+            return;
+        try {
+            if (is == null)
+                is = con.getErrorStream();
+            if (is != null) {
+                byte[] buffer = new byte[4096];
+                int total = 0;
+                int leng;
+                while (total < MAX_DRAIN
+                        && (leng = is.read(buffer)) != -1)
+                    total += leng;
+                is.close();
+                // Too much left over, not worth reading to keep the connection.
+                if (total >= MAX_DRAIN)
+                    con.disconnect();
+            }
+        } catch (IOException e) {
+            Log.i(TAG, CLASS + " Connection discarded: " + con.getURL() + " " + e);
+            con.disconnect();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.mythtv.leanfront.MyApplication;
+import org.mythtv.leanfront.ui.MainFragment;
+
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * Collects changes to the video table and passes them on together.
+ *
+ * A batch operation such as marking a whole row watched runs a fetch for
+ * each video, and each fetch used to reload the main screen. Changes are
+ * now held until there have been none for QUIET_TIME, or for at most
+ * MAX_DELAY after the first one, then the main screen is told once which
+ * rectypes and recording groups were touched. Content resolver
+ * notifications from VideoProvider are batched the same way.
+ */
+public class ChangeCoalescer {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "ChangeCoalescer";
+
+    private static final long QUIET_TIME = 500;
+    private static final long MAX_DELAY = 2000;
+
+    private static ChangeCoalescer singleton;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mFlush = this::flush;
+    // These are guarded by this
+    private Changes mChanges;
+    private final HashSet<Uri> mUris = new HashSet<>();
+    private long mFirstChange;
+
+    public static class Changes {
+        private boolean allRectypes;
+        private final HashSet<Integer> rectypes = new HashSet<>();
+        private boolean allRecGroups;
+        private final HashSet<String> recGroups = new HashSet<>();
+        public boolean isProgressBar;
+        public int count;
+
+        public boolean affects(int rectype) {
+            return allRectypes || rectypes.contains(rectype);
+        }
+
+        public boolean affectsRecGroup(String recGroup) {
+            return allRecGroups || recGroups.contains(recGroup);
+        }
+
+        @Override
+        public String toString() {
+            return count + " changes, rectypes " + (allRectypes ? "all" : rectypes)
+                    + ", recgroups " + (allRecGroups ? "all" : recGroups);
+        }
+    }
+
+    public static synchronized ChangeCoalescer getInstance() {
+        if (singleton == null)
+            singleton = new ChangeCoalescer();
+        return singleton;
+    }
+
+    /**
+     * Record a change to the video table.
+     *
+     * @param rectype   Rectype changed, or -1 for all
+     * @param recGroups Recording groups changed, or null if not known
+     */
+    public synchronized void noteChange(int rectype, Collection<String> recGroups,
+                                        boolean isProgressBar) {
+        if (mChanges == null)
+            mChanges = new Changes();
+        if (rectype == -1)
+            mChanges.allRectypes = true;
+        else
+            mChanges.rectypes.add(rectype);
+        if (recGroups == null)
+            mChanges.allRecGroups = true;
+        else
+            mChanges.recGroups.addAll(recGroups);
+        mChanges.isProgressBar |= isProgressBar;
+        mChanges.count++;
+        schedule();
+    }
+
+    public synchronized void noteProviderChange(Uri uri) {
+        mUris.add(uri);
+        schedule();
+    }
+
+    private void schedule() {
+        long now = SystemClock.uptimeMillis();
+        if (mFirstChange == 0)
+            mFirstChange = now;
+        long delay = Math.max(0, Math.min(QUIET_TIME, mFirstChange + MAX_DELAY - now));
+        mHandler.removeCallbacks(mFlush);
+        mHandler.postDelayed(mFlush, delay);
+    }
+
+    // Runs on the UI thread
+    private void flush() {
+        Changes changes;
+        Uri[] uris;
+        synchronized (this) {
+            changes = mChanges;
+            mChanges = null;
+            uris = mUris.toArray(new Uri[0]);
+            mUris.clear();
+            mFirstChange = 0;
+        }
+        for (Uri uri : uris)
+            MyApplication.getAppContext().getContentResolver().notifyChange(uri, null);
+        if (changes == null)
+            return;
+        Log.i(TAG, CLASS + " " + changes);
+        MainFragment main = MainFragment.getActiveFragment();
+        if (main != null)
+            main.onDataChanged(changes);
+    }
+}
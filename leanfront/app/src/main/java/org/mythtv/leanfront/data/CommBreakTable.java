@@ -4,13 +4,23 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import java.util.Arrays;
+
+/**
+ * Commercial breaks or cuts of a recording, as a list of start and end
+ * marks in order. Lookups by time use arrays of the marks and breaks in
+ * milliseconds, which are built when first needed after the table, the
+ * offset type or the frame rate changes.
+ */
 public class CommBreakTable {
     public Entry[] entries = new Entry[0];
-    public int offSetType = 0;
+    private int offSetType = 0;
     public static final int OFFSET_FRAME = 1;
     public static final int OFFSET_DURATION = 2;
     // default to 1 to prevent a zero division if not set.
-    public long frameratex1000 = 1;
+    private long frameratex1000 = 1;
+    // null until needed
+    private volatile Index mIndex;
 
     private static final String TAG = "lfe";
     private static final String CLASS = "CommBreakTable";
@@ -21,6 +31,28 @@ public class CommBreakTable {
 
     public synchronized void clear(int count) {
         entries = new Entry[count];
+        mIndex = null;
+    }
+
+    // A separate table with the same entries, offset type and frame rate
+    public synchronized CommBreakTable copy() {
+        CommBreakTable table = new CommBreakTable();
+        table.entries = Arrays.copyOf(entries, entries.length);
+        table.offSetType = offSetType;
+        table.frameratex1000 = frameratex1000;
+        return table;
+    }
+
+    public synchronized void setOffsetType(int offSetType) {
+        this.offSetType = offSetType;
+        mIndex = null;
+    }
+
+    public synchronized void setFrameRatex1000(long frameratex1000) {
+        if (this.frameratex1000 == frameratex1000)
+            return;
+        this.frameratex1000 = frameratex1000;
+        mIndex = null;
     }
 
     public synchronized void load(XmlNode data) {
@@ -93,12 +125,126 @@ public class CommBreakTable {
             entries[ix++] = new Entry(Integer.MAX_VALUE - 10000000, MARK_CUT_START);
     }
 
-    public long getOffsetMs(Entry entry) {
+    private long getOffsetMs(Entry entry) {
         if (offSetType == OFFSET_DURATION)
             return entry.offset;
         return entry.offset * 1000000 / frameratex1000;
     }
 
+    private Index getIndex() {
+        Index index = mIndex;
+        if (index != null)
+            return index;
+        synchronized (this) {
+            if (mIndex == null)
+                mIndex = new Index();
+            return mIndex;
+        }
+    }
+
+    /**
+     * Index of the last mark before a time, or -1 if there is none.
+     */
+    public int markBefore(long timeMs) {
+        Index index = getIndex();
+        return lowerBound(index.markMs, index.markMs.length, timeMs) - 1;
+    }
+
+    /**
+     * Index of the first mark after a time, or -1 if there is none.
+     */
+    public int markAfter(long timeMs) {
+        Index index = getIndex();
+        int ix = lowerBound(index.markMs, index.markMs.length, timeMs + 1);
+        return ix < index.markMs.length ? ix : -1;
+    }
+
+    public long getMarkMs(int ix) {
+        return getIndex().markMs[ix];
+    }
+
+    public int getMark(int ix) {
+        return getIndex().marks[ix];
+    }
+
+    /**
+     * Index of the first break that ends at or after a time, or -1 if
+     * there is none. The time is inside the break if it is not before
+     * getBreakStartMs of the result.
+     */
+    public int nextBreak(long timeMs) {
+        Index index = getIndex();
+        int ix = lowerBound(index.breakEndMs, index.breakCount, timeMs);
+        return ix < index.breakCount ? ix : -1;
+    }
+
+    public int getBreakCount() {
+        return getIndex().breakCount;
+    }
+
+    public long getBreakStartMs(int ix) {
+        return getIndex().breakStartMs[ix];
+    }
+
+    public long getBreakEndMs(int ix) {
+        return getIndex().breakEndMs[ix];
+    }
+
+    // First index with values[ix] >= value. values must be in order.
+    private static int lowerBound(long[] values, int count, long value) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < value)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    // Marks and breaks in milliseconds. Never changed once built.
+    private class Index {
+        final long[] markMs;
+        final int[] marks;
+        final long[] breakStartMs;
+        final long[] breakEndMs;
+        final int breakCount;
+
+        // Called with the table locked
+        Index() {
+            int count = 0;
+            while (count < entries.length && entries[count] != null)
+                count++;
+            markMs = new long[count];
+            marks = new int[count];
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            int breaks = 0;
+            boolean haveStart = false;
+            long startMs = 0;
+            for (int ix = 0; ix < count; ix++) {
+                markMs[ix] = getOffsetMs(entries[ix]);
+                marks[ix] = entries[ix].mark;
+                if (marks[ix] == MARK_CUT_START) {
+                    haveStart = true;
+                    startMs = markMs[ix];
+                }
+                else if (haveStart) {
+                    // An end with no new start after the prior end pairs
+                    // with the same start again.
+                    starts[breaks] = startMs;
+                    ends[breaks] = markMs[ix];
+                    breaks++;
+                }
+            }
+            breakStartMs = Arrays.copyOf(starts, breaks);
+            breakEndMs = Arrays.copyOf(ends, breaks);
+            breakCount = breaks;
+        }
+    }
+
     public static class Entry implements Comparable<Entry> {
 
         private final long offset;
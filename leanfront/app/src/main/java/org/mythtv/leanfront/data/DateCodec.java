@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Conversion of MythTV timestamps such as 2018-05-23T00:00:00Z to and
+ * from epoch milliseconds. The fields are converted arithmetically, so
+ * nothing is allocated when parsing and there is no shared state, unlike
+ * SimpleDateFormat. All methods may be used from any thread.
+ */
+public final class DateCodec {
+
+    // Returned when a timestamp cannot be parsed
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private DateCodec() {
+    }
+
+    /**
+     * Parse a UTC timestamp yyyy-MM-ddTHH:mm:ss with optional fraction
+     * of a second and optional trailing Z. A space is also accepted
+     * between date and time.
+     *
+     * @return Epoch milliseconds, or INVALID
+     */
+    public static long parseUtc(String value) {
+        if (value == null || value.length() < 19)
+            return INVALID;
+        char sep = value.charAt(10);
+        if (value.charAt(4) != '-' || value.charAt(7) != '-'
+                || (sep != 'T' && sep != ' ')
+                || value.charAt(13) != ':' || value.charAt(16) != ':')
+            return INVALID;
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 2);
+        int day = digits(value, 8, 2);
+        int hour = digits(value, 11, 2);
+        int minute = digits(value, 14, 2);
+        int second = digits(value, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 60)
+            return INVALID;
+        int pos = 19;
+        int length = value.length();
+        int millis = 0;
+        if (pos < length && value.charAt(pos) == '.') {
+            int scale = 100;
+            for (pos++; pos < length; pos++) {
+                int digit = value.charAt(pos) - '0';
+                if (digit < 0 || digit > 9)
+                    break;
+                millis += digit * scale;
+                scale /= 10;
+            }
+        }
+        if (pos < length && value.charAt(pos) == 'Z')
+            pos++;
+        if (pos != length)
+            return INVALID;
+        long secs = daysFromCivil(year, month, day) * 86400L
+                + hour * 3600 + minute * 60 + second;
+        return secs * 1000 + millis;
+    }
+
+    /**
+     * Parse a UTC timestamp as for parseUtc.
+     *
+     * @return The time, or null if value is null or invalid
+     */
+    public static Date toDate(String value) {
+        long millis = parseUtc(value);
+        if (millis == INVALID)
+            return null;
+        return new Date(millis);
+    }
+
+    /**
+     * Parse a date yyyy-MM-dd. Anything after the date is ignored.
+     *
+     * @return Epoch milliseconds of midnight UTC on the date, or INVALID
+     */
+    public static long parseDate(String value) {
+        if (value == null || value.length() < 10
+                || value.charAt(4) != '-' || value.charAt(7) != '-')
+            return INVALID;
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 2);
+        int day = digits(value, 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31)
+            return INVALID;
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+    }
+
+    /**
+     * Parse a date yyyy-MM-dd as for parseDate.
+     *
+     * @return Epoch milliseconds of midnight in the default time zone
+     * on the date, or INVALID
+     */
+    public static long parseLocalDate(String value) {
+        long utc = parseDate(value);
+        if (utc == INVALID)
+            return INVALID;
+        TimeZone tz = TimeZone.getDefault();
+        // The offset at midnight local time, allowing for a change in
+        // offset between midnight UTC and midnight local
+        return utc - tz.getOffset(utc - tz.getOffset(utc));
+    }
+
+    /**
+     * Format a time as UTC yyyy-MM-ddTHH:mm:ssZ, as used in the
+     * services API.
+     */
+    public static String formatUtc(long millis) {
+        char[] buf = new char[20];
+        putDateTime(buf, millis, 'T');
+        buf[19] = 'Z';
+        return new String(buf);
+    }
+
+    /**
+     * Format a time as UTC yyyy-MM-dd HH:mm:ss.
+     */
+    public static String formatUtcSpaced(long millis) {
+        char[] buf = new char[19];
+        putDateTime(buf, millis, ' ');
+        return new String(buf);
+    }
+
+    /**
+     * Format the date part of a time as yyyy-MM-dd. The fields are those
+     * of UTC, add the time zone offset first for a local date.
+     */
+    public static String formatDate(long millis) {
+        char[] buf = new char[10];
+        putDate(buf, floorDiv(millis, MILLIS_PER_DAY));
+        return new String(buf);
+    }
+
+    /**
+     * Format the time of day in the default time zone as HH:mm:ss.SSS.
+     */
+    public static String formatLocalTime(long millis) {
+        millis += TimeZone.getDefault().getOffset(millis);
+        int ms = (int) (millis - floorDiv(millis, MILLIS_PER_DAY) * MILLIS_PER_DAY);
+        char[] buf = new char[12];
+        putTime(buf, 0, ms / 1000);
+        buf[8] = '.';
+        put(buf, 9, ms % 1000, 3);
+        return new String(buf);
+    }
+
+    private static long floorDiv(long value, long divisor) {
+        long result = value / divisor;
+        if (value % divisor < 0)
+            result--;
+        return result;
+    }
+
+    // yyyy-MM-dd at the start of buf
+    private static void putDate(char[] buf, long days) {
+        int[] ymd = civilFromDays(days);
+        put(buf, 0, ymd[0], 4);
+        buf[4] = '-';
+        put(buf, 5, ymd[1], 2);
+        buf[7] = '-';
+        put(buf, 8, ymd[2], 2);
+    }
+
+    // HH:mm:ss at pos
+    private static void putTime(char[] buf, int pos, int secs) {
+        put(buf, pos, secs / 3600, 2);
+        buf[pos + 2] = ':';
+        put(buf, pos + 3, secs / 60 % 60, 2);
+        buf[pos + 5] = ':';
+        put(buf, pos + 6, secs % 60, 2);
+    }
+
+    // yyyy-MM-dd?HH:mm:ss with separator at position 10
+    private static void putDateTime(char[] buf, long millis, char separator) {
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        putDate(buf, days);
+        buf[10] = separator;
+        putTime(buf, 11, (int) ((millis - days * MILLIS_PER_DAY) / 1000));
+    }
+
+    // Value of count decimal digits at pos, -1 if any is not a digit
+    private static int digits(String value, int pos, int count) {
+        int result = 0;
+        for (int ix = pos; ix < pos + count; ix++) {
+            int digit = value.charAt(ix) - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    private static void put(char[] buf, int pos, int value, int count) {
+        for (int ix = pos + count - 1; ix >= pos; ix--) {
+            buf[ix] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    // Days since 1970-01-01 of a proleptic Gregorian date
+    static long daysFromCivil(int year, int month, int day) {
+        if (month <= 2)
+            year--;
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    // {year, month, day} of a number of days since 1970-01-01
+    static int[] civilFromDays(long days) {
+        days += 719468;
+        long era = (days >= 0 ? days : days - 146096) / 146097;
+        int dayOfEra = (int) (days - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+                - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (yearOfEra + era * 400);
+        if (month <= 2)
+            year++;
+        return new int[] {year, month, day};
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates the time spent in each stage of a refresh, summed over
+ * all the pages and threads that take part.
+ * Download is the time until the response starts, parse is the time
+ * reading and parsing the XML excluding build, build is the time making
+ * VideoRow objects from the parsed records, insert is the database time.
+ */
+public class FetchTimings {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "FetchTimings";
+
+    public final AtomicLong download = new AtomicLong();
+    public final AtomicLong parse = new AtomicLong();
+    // Build is timed per record, so it is kept in nanoseconds
+    public final AtomicLong buildNanos = new AtomicLong();
+    public final AtomicLong insert = new AtomicLong();
+    public final AtomicLong pages = new AtomicLong();
+    public final AtomicLong records = new AtomicLong();
+    private final long startTime = System.currentTimeMillis();
+
+    public void log() {
+        Log.i(TAG, CLASS + " Refresh of " + records.get() + " records in "
+                + pages.get() + " pages took " + (System.currentTimeMillis() - startTime)
+                + " ms. Stage totals ms: download " + download.get()
+                + ", parse " + (parse.get() - buildNanos.get() / 1000000)
+                + ", build " + buildNanos.get() / 1000000
+                + ", insert " + insert.get()
+                + ". Build per record us " + (records.get() > 0
+                        ? buildNanos.get() / 1000 / records.get() : 0));
+    }
+}
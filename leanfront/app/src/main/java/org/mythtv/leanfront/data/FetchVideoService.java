@@ -24,22 +24,28 @@
 
 package org.mythtv.leanfront.data;
 
-import android.app.Activity;
 import android.app.IntentService;
-import android.content.ContentValues;
 import android.content.Intent;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import org.mythtv.leanfront.model.Settings;
-import org.mythtv.leanfront.ui.AsyncMainLoader;
 import org.mythtv.leanfront.ui.MainFragment;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.mythtv.leanfront.data.XmlNode.mythApiUrl;
@@ -55,6 +61,9 @@ public class FetchVideoService extends IntentService {
     public static final String RECGROUP = "RecGroup";
     public static final String ISPROGRESSBAR = "IsProgressBar";
     public ReentrantLock fullRunLock = new ReentrantLock();
+    private static final int PAGESIZE = 5000;
+    // Maximum number of pages downloaded at the same time
+    private static final int FETCH_THREADS = 3;
     /**
      * Creates an IntentService with a default name for the worker thread.
      */
@@ -74,120 +83,261 @@ public class FetchVideoService extends IntentService {
             if (!fullRunLock.tryLock())
                 return;
         }
+        // Recording groups of rows deleted or inserted, for a partial refresh
+        Set<String> recGroups = Collections.synchronizedSet(new HashSet<>());
+        ExecutorService fetchPool = Executors.newFixedThreadPool(FETCH_THREADS);
+        // All database writes are done in sequence on this thread
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        // Database writes, so that their errors are reported
+        List<Future<Integer>> writes = Collections.synchronizedList(new ArrayList<>());
         try {
             if (recType != VideoContract.VideoEntry.RECTYPE_RECORDING)
                 recGroup = null;
+            FetchTimings timings = new FetchTimings();
             VideoDbBuilder builder = new VideoDbBuilder(getApplicationContext());
+            int maxLoad = Settings.getInt("pref_max_vids");
+
+            // A refresh of a whole rectype (or all of them) is applied as a delta
+            // against the existing rows instead of deleting and reloading.
+            boolean isDelta = (recordedId == null && recGroup == null);
+            List<VideoRow> deltaList = new ArrayList<>();
+            if (!isDelta) {
+                final int fRecType = recType;
+                final String fRecordedId = recordedId;
+                final String fRecGroup = recGroup;
+                writes.add(writer.submit(() -> {
+                    deleteForRefresh(fRecType, fRecordedId, fRecGroup, recGroups);
+                    return 0;
+                }));
+            }
 
             // recordings are 0, videos are 1, channels are 2
-            int [] start = {0,0,0};
-            int [] maxAvailable = {1000000,1000000,1000000};
-            int maxLoad = Settings.getInt("pref_max_vids");
-            int actual = 0;
-            int pagesize = 5000;
-
-            boolean firstLoop  = true;
-            while (start[0] < maxAvailable[0] || start[1] < maxAvailable[1]) {
-                if (actual >= maxLoad)
-                    break;
-                if (maxLoad - actual < pagesize)
-                    pagesize = maxLoad - actual;
-                String[] urls = new String[3];
-                if (recType == -1) {
-                    // MythTV recording list URL: http://andromeda:6544/Dvr/GetRecordedList
-                    // MythTV video list URL: http://andromeda:6544/Video/GetVideoList
-                    urls[0] = mythApiUrl(null,
-                            "/Dvr/GetRecordedList?IncCast=false&Descending=true&Count=" + pagesize + "&StartIndex=" + start[0]);
-                    urls[1] = mythApiUrl(null,
-                            "/Video/GetVideoList?Descending=true&Count=" + pagesize + "&StartIndex=" + start[1]);
-                    if (firstLoop)
-                        urls[2] = mythApiUrl(null, "/Channel/GetChannelInfoList?OnlyVisible=true");
-                } else if (recType == VideoContract.VideoEntry.RECTYPE_RECORDING) {
-                    maxAvailable[1]  = 0;  // Prevent looping for videos
-                    if (recordedId != null)
-                        urls[0] = mythApiUrl(null, "/Dvr/GetRecorded?RecordedId=" + recordedId);
-                    else if (recGroup != null) {
-                        urls[0] = mythApiUrl(null,
-                                "/Dvr/GetRecordedList?IncCast=false&Descending=true&Count=" + pagesize + "&StartIndex=" + start[0]
-                                        + "RecGroup=" + URLEncoder.encode(recGroup, "UTF-8"));
-                        if ("LiveTV".equals(recGroup) && start[0] ==  0)
-                            urls[2] = mythApiUrl(null, "/Channel/GetChannelInfoList?OnlyVisible=true");
-                    } else
-                        urls[0] = mythApiUrl(null,
-                                "/Dvr/GetRecordedList?IncCast=false&Descending=true&Count=" + pagesize + "&StartIndex=" + start[0]);
-                } else if (recType == VideoContract.VideoEntry.RECTYPE_VIDEO) {
-                    maxAvailable[0]  = 0;  // Prevent looping for recordings
-                    if (recordedId != null)
-                        urls[1] = mythApiUrl(null, "/Video/GetVideo?Id=" + recordedId);
-                    else
-                        urls[1] = mythApiUrl(null,
-                                "/Video/GetVideoList?Descending=true&Count=" + pagesize + "&StartIndex=" + start[1]);
+            String[] listUrls = new String[3];
+            String[] singleUrls = new String[3];
+            if (recordedId != null) {
+                if (recType == VideoContract.VideoEntry.RECTYPE_RECORDING)
+                    singleUrls[0] = mythApiUrl(null, "/Dvr/GetRecorded?RecordedId=" + recordedId);
+                else if (recType == VideoContract.VideoEntry.RECTYPE_VIDEO)
+                    singleUrls[1] = mythApiUrl(null, "/Video/GetVideo?Id=" + recordedId);
+            } else {
+                // MythTV recording list URL: http://andromeda:6544/Dvr/GetRecordedList
+                // MythTV video list URL: http://andromeda:6544/Video/GetVideoList
+                if (recType == -1 || recType == VideoContract.VideoEntry.RECTYPE_RECORDING) {
+                    listUrls[0] = mythApiUrl(null,
+                            "/Dvr/GetRecordedList?IncCast=false&Descending=true");
+                    if (recGroup != null)
+                        listUrls[0] = listUrls[0] + "&RecGroup=" + URLEncoder.encode(recGroup, "UTF-8");
                 }
-                List<ContentValues> contentValuesList = new ArrayList<>();
-                for (int i = 0; i < urls.length; i++) {
-                    String url = urls[i];
-                    if (url != null && start[i] < maxAvailable[i]) {
-                        // This call expects recordings to be 0, videos to be 1, channels to be 2
-                        maxAvailable[i] = builder.fetch(url, i, contentValuesList);
-                        start[i] += pagesize;
-                    }
+                if (recType == -1 || recType == VideoContract.VideoEntry.RECTYPE_VIDEO)
+                    listUrls[1] = mythApiUrl(null, "/Video/GetVideoList?Descending=true");
+                if (recType == -1 || "LiveTV".equals(recGroup))
+                    singleUrls[2] = mythApiUrl(null, "/Channel/GetChannelInfoList?OnlyVisible=true");
+            }
+
+            // First pages of each list, plus the single requests, all at once
+            int pagesize = Math.max(1, Math.min(PAGESIZE, maxLoad));
+            ArrayList<Future<Integer>> pages = new ArrayList<>();
+            ArrayList<Future<Integer>> firstPages = new ArrayList<>();
+            for (int phase = 0; phase < 3; phase++) {
+                Future<Integer> firstPage = null;
+                if (listUrls[phase] != null) {
+                    firstPage = submitPage(fetchPool, writer, builder, timings, phase,
+                            pageUrl(listUrls[phase], pagesize, 0), isDelta, deltaList, recGroups,
+                            writes);
+                    pages.add(firstPage);
                 }
-                ContentValues[] downloadedVideoContentValues =
-                        contentValuesList.toArray(new ContentValues[0]);
-                contentValuesList = null; // This is to free the storage used
-                if (firstLoop) {
-                    AsyncMainLoader.lock.lock();
-                    try {
-                        VideoDbHelper dbh = VideoDbHelper.getInstance(this);
-                        SQLiteDatabase db = dbh.getWritableDatabase();
-                        if (db == null)
-                            return;
-                        if (recType == -1)
-                            db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME); //delete all rows in a table
-                        else {
-                            if (recordedId == null && recGroup == null)
-                                db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
-                                        + " WHERE RECTYPE = '" + recType + "'");
-                            else if (recordedId != null)
-                                db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
-                                        + " WHERE RECORDEDID = '" + recordedId
-                                        + "' AND RECTYPE = '" + recType + "'");
-                            else if (recGroup != null) {
-                                db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
-                                        + " WHERE RECGROUP = '" + recGroup.replace("'", "''")
-                                        + "' AND RECTYPE = '" + recType + "'");
-                                if ("LiveTV".equals(recGroup))
-                                    db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
-                                            + " WHERE RECTYPE = '" + VideoContract.VideoEntry.RECTYPE_CHANNEL + "'");
-                            }
-                        }
-                        VideoDbHelper.releaseDatabase();
-                    } finally {
-                        AsyncMainLoader.lock.unlock();
-                    }
+                firstPages.add(firstPage);
+                if (singleUrls[phase] != null)
+                    pages.add(submitPage(fetchPool, writer, builder, timings, phase,
+                            singleUrls[phase], isDelta, deltaList, recGroups, writes));
+            }
+            // The first page of each list tells how many there are.
+            // Queue all the remaining pages, recordings first, up to the maximum.
+            int[] totalAvailable = new int[3];
+            int remaining = maxLoad;
+            for (int phase = 0; phase < 3; phase++) {
+                if (firstPages.get(phase) != null) {
+                    totalAvailable[phase] = waitFor(firstPages.get(phase));
+                    remaining -= Math.min(pagesize, totalAvailable[phase]);
+                }
+            }
+            for (int phase = 0; phase < 3; phase++) {
+                for (int start = pagesize; start < totalAvailable[phase] && remaining > 0;
+                     start += pagesize) {
+                    pages.add(submitPage(fetchPool, writer, builder, timings, phase,
+                            pageUrl(listUrls[phase], pagesize, start), isDelta, deltaList,
+                            recGroups, writes));
+                    remaining -= Math.min(pagesize, totalAvailable[phase] - start);
                 }
-                getApplicationContext().getContentResolver().bulkInsert(VideoContract.VideoEntry.CONTENT_URI,
-                        downloadedVideoContentValues);
-                actual += downloadedVideoContentValues.length;
-                Log.i(TAG, "Number of downloaded records: " + actual);
-
-                if (recordedId != null)
-                    break;
-                firstLoop = false;
             }
-        } catch (IOException | XmlPullParserException e) {
+            fetchPool.shutdown();
+            while (!fetchPool.awaitTermination(1, TimeUnit.MINUTES))
+                Log.i(TAG, "Waiting for downloads");
+            // Report any download error
+            for (Future<Integer> page : pages)
+                waitFor(page);
+            // All pages have been handed to the writer, so the list is complete
+            for (Future<Integer> write : writes)
+                waitFor(write);
+            if (isDelta) {
+                final int fRecType = recType;
+                waitFor(writer.submit(() -> {
+                    long insertStart = System.currentTimeMillis();
+                    applyDelta(fRecType, deltaList);
+                    timings.insert.addAndGet(System.currentTimeMillis() - insertStart);
+                    return 0;
+                }));
+            }
+            writer.shutdown();
+            while (!writer.awaitTermination(1, TimeUnit.MINUTES))
+                Log.i(TAG, "Waiting for database updates");
+            timings.log();
+        } catch (IOException | XmlPullParserException | InterruptedException e) {
             MainFragment.mFetchTime = 0;
             Log.e(TAG, "Error occurred in downloading videos", e);
         } finally {
+            fetchPool.shutdownNow();
+            writer.shutdownNow();
             if (recType == -1 || recordedId == null)
                 fullRunLock.unlock();
-            MainFragment main = MainFragment.getActiveFragment();
-            if (main != null) {
-                Activity activity = main.getActivity();
-                if (activity != null)
-                    activity.runOnUiThread(
-                        () -> main.fetchComplete(isProgressBar));
+            // The main screen is reloaded once for a burst of fetches
+            if (recGroup != null)
+                recGroups.add(recGroup);
+            boolean isPartial = recordedId != null || recGroup != null;
+            ChangeCoalescer.getInstance().noteChange(recType,
+                    isPartial ? recGroups : null, isProgressBar);
+        }
+    }
+
+    private static String pageUrl(String listUrl, int pagesize, int start) {
+        return listUrl + "&Count=" + pagesize + "&StartIndex=" + start;
+    }
+
+    /**
+     * Download and parse one page on the fetch pool, then hand the
+     * results to the writer thread. The write is added to writes.
+     *
+     * @return Future giving the TotalAvailable value of the list
+     */
+    private Future<Integer> submitPage(ExecutorService fetchPool, ExecutorService writer,
+                                       VideoDbBuilder builder, FetchTimings timings,
+                                       int phase, String url,
+                                       boolean isDelta, List<VideoRow> deltaList,
+                                       Set<String> recGroups,
+                                       List<Future<Integer>> writes) {
+        return fetchPool.submit(() -> {
+            List<VideoRow> rowList = new ArrayList<>();
+            // This call expects recordings to be 0, videos to be 1, channels to be 2
+            int totalAvailable = builder.fetch(url, phase, rowList, timings);
+            writes.add(writer.submit(() -> {
+                long insertStart = System.currentTimeMillis();
+                if (isDelta)
+                    deltaList.addAll(rowList);
+                else
+                    insertRows(rowList, recGroups);
+                timings.insert.addAndGet(System.currentTimeMillis() - insertStart);
+                Log.i(TAG, "Number of downloaded records: " + timings.records.get());
+                return 0;
+            }));
+            return totalAvailable;
+        });
+    }
+
+    private static int waitFor(Future<Integer> future)
+            throws IOException, XmlPullParserException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof XmlPullParserException)
+                throw (XmlPullParserException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    // Delete rows that are about to be reloaded, for a refresh that
+    // is not done as a delta.
+    private void deleteForRefresh(int recType, String recordedId, String recGroup,
+                                  Set<String> recGroups) {
+        VideoDbHelper dbh = VideoDbHelper.getInstance(this);
+        SQLiteDatabase db = dbh.getWritableDatabase();
+        if (db == null)
+            return;
+        try {
+            if (recordedId != null) {
+                // The recording may be moving to another group
+                try (Cursor csr = db.query(VideoContract.VideoEntry.TABLE_NAME,
+                        new String[]{VideoContract.VideoEntry.COLUMN_RECGROUP},
+                        VideoContract.VideoEntry.COLUMN_RECORDEDID + " = ? AND "
+                                + VideoContract.VideoEntry.COLUMN_RECTYPE + " = ?",
+                        new String[]{recordedId, String.valueOf(recType)},
+                        null, null, null)) {
+                    while (csr.moveToNext()) {
+                        if (!csr.isNull(0))
+                            recGroups.add(csr.getString(0));
+                    }
+                }
+                db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
+                        + " WHERE RECORDEDID = '" + recordedId
+                        + "' AND RECTYPE = '" + recType + "'");
+            }
+            else if (recGroup != null) {
+                db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
+                        + " WHERE RECGROUP = '" + recGroup.replace("'", "''")
+                        + "' AND RECTYPE = '" + recType + "'");
+                if ("LiveTV".equals(recGroup))
+                    db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
+                            + " WHERE RECTYPE = '" + VideoContract.VideoEntry.RECTYPE_CHANNEL + "'");
             }
+        } finally {
+            VideoDbHelper.releaseDatabase();
+        }
+    }
+
+    // Insert the rows of a page, for a refresh that is not done as a delta
+    private void insertRows(List<VideoRow> rowList, Set<String> recGroups) {
+        for (VideoRow row : rowList) {
+            String recGroup = row.getAsString(VideoContract.VideoEntry.COLUMN_RECGROUP);
+            if (recGroup != null)
+                recGroups.add(recGroup);
+        }
+        VideoDbHelper dbh = VideoDbHelper.getInstance(this);
+        SQLiteDatabase db = dbh.getWritableDatabase();
+        if (db == null)
+            return;
+        try {
+            VideoInserter.insertAll(db, rowList);
+        } finally {
+            VideoDbHelper.releaseDatabase();
+        }
+        ChangeCoalescer.getInstance().noteProviderChange(VideoContract.VideoEntry.CONTENT_URI);
+    }
+
+    // Apply downloaded rows to the database, changing only rows that were
+    // added, changed or removed on the backend.
+    private void applyDelta(int recType, List<VideoRow> deltaList) {
+        int[] rectypes;
+        if (recType == -1)
+            rectypes = new int[]{VideoContract.VideoEntry.RECTYPE_RECORDING,
+                    VideoContract.VideoEntry.RECTYPE_VIDEO,
+                    VideoContract.VideoEntry.RECTYPE_CHANNEL};
+        else
+            rectypes = new int[]{recType};
+        boolean changed;
+        // This is one transaction, so the main screen loader sees either
+        // the old or the new rows.
+        VideoDbHelper dbh = VideoDbHelper.getInstance(this);
+        SQLiteDatabase db = dbh.getWritableDatabase();
+        if (db == null)
+            return;
+        try {
+            changed = new VideoDbDelta(db, rectypes).apply(deltaList);
+        } finally {
+            VideoDbHelper.releaseDatabase();
         }
+        if (changed)
+            ChangeCoalescer.getInstance().noteProviderChange(VideoContract.VideoEntry.CONTENT_URI);
     }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.util.Log;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Tracks the length of a file that may still be growing, such as a
+ * recording in progress or LiveTV.
+ *
+ * Callers wait for the file to grow past a position. The length is polled
+ * with a HEAD request, starting with a short delay and doubling it while
+ * the file does not grow. Callers waiting at the same time share one poll,
+ * and lengths seen by the data source when it opens the file are used as
+ * well, so that the playback fragment and the data source do not each
+ * send their own requests.
+ */
+public class GrowingFileTracker {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "GrowingFileTracker";
+    private static final long MIN_DELAY = 250;
+    private static final long MAX_DELAY = 2000;
+
+    private final String mUrl;
+    private long mLength = -1;
+    // Time of the last length seen, 0 for never
+    private long mLengthTime;
+    private boolean mPolling;
+
+    public GrowingFileTracker(String url) {
+        mUrl = url;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * Most recent length seen, or -1 if not known.
+     */
+    public synchronized long getLength() {
+        return mLength;
+    }
+
+    /**
+     * Record a length found some other way, for example from opening
+     * the file.
+     */
+    public synchronized void noteLength(long length) {
+        if (length > mLength)
+            mLength = length;
+        mLengthTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Wait until the file is longer than a position. Do not call on the
+     * UI thread.
+     *
+     * @param position Return when the length is greater than this
+     * @param timeoutMs Longest time to wait
+     * @return The latest length, which is not greater than position if
+     * the wait timed out, or -1 if it could not be found.
+     */
+    public long awaitLength(long position, long timeoutMs) {
+        long startTime = System.currentTimeMillis();
+        long deadline = startTime + timeoutMs;
+        long delay = MIN_DELAY;
+        int polls = 0;
+        while (true) {
+            long length = poll();
+            polls++;
+            long now = System.currentTimeMillis();
+            if (length > position || now >= deadline) {
+                Log.i(TAG, CLASS + " Length " + length + " after "
+                        + (now - startTime) + " ms, " + polls + " polls");
+                return length;
+            }
+            try {
+                Thread.sleep(Math.min(delay, deadline - now));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return length;
+            }
+            delay = Math.min(delay * 2, MAX_DELAY);
+        }
+    }
+
+    /**
+     * Get the current length. If another thread is already asking the
+     * backend, or the length was seen very recently, that length is used.
+     *
+     * @return The length, or -1 if it could not be found.
+     */
+    public long poll() {
+        synchronized (this) {
+            long seenTime = mLengthTime;
+            while (mPolling) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return mLength;
+                }
+            }
+            if (mLengthTime != seenTime
+                    || System.currentTimeMillis() - mLengthTime < MIN_DELAY)
+                return mLength;
+            mPolling = true;
+        }
+        long length = -1;
+        try {
+            length = fetchLength();
+        } finally {
+            synchronized (this) {
+                mPolling = false;
+                if (length > -1) {
+                    noteLength(length);
+                    length = mLength;
+                }
+                notifyAll();
+            }
+        }
+        return length;
+    }
+
+    private long fetchLength() {
+        HttpURLConnection urlConnection = null;
+        try {
+            urlConnection = BackendHttpClient.open(mUrl, "HEAD");
+            urlConnection.setRequestProperty("Accept-Encoding", "identity");
+            urlConnection.setConnectTimeout(1000);
+            urlConnection.setReadTimeout(1000);
+            urlConnection.connect();
+            String strContentLeng = urlConnection.getHeaderField("Content-Length");
+            if (strContentLeng != null)
+                return Long.parseLong(strContentLeng);
+            Log.i(TAG, CLASS + " No length, response: " + urlConnection.getResponseCode()
+                    + " " + urlConnection.getResponseMessage());
+        } catch (Exception e) {
+            Log.e(TAG, CLASS + " Exception getting file length: " + mUrl, e);
+        } finally {
+            BackendHttpClient.release(urlConnection, null);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.mythtv.leanfront.model.GuideSlot;
+import org.mythtv.leanfront.model.Settings;
+import org.mythtv.leanfront.model.Video;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Program guide data by channel group, holding for each channel its
+ * programs over the time ranges that have been fetched. Each range keeps
+ * its own fetch time, and a new range replaces the parts of older ones
+ * that it overlaps. A window may be served from several adjacent ranges.
+ * Windows next to the one being viewed are
+ * prefetched so that paging left and right is served from memory.
+ *
+ * Ranges that have ended, that start beyond the horizon set in
+ * pref_guide_cache_hours, or that are older than TTL are evicted.
+ *
+ * Below the memory cache is GuideStore, the guide data kept in the
+ * database. Windows missing from memory are loaded from there if it has
+ * them, and everything fetched from the backend is saved there.
+ */
+public class GuideCache implements AsyncBackendCall.OnBackendCallListener {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "GuideCache";
+    // Recording status in the guide changes, so do not keep it too long
+    private static final long TTL = 10 * 60 * 1000;
+    // Longest program expected, for finding programs that start before a window
+    private static final long MAX_PROGRAM_LENGTH = 24 * 60 * 60 * 1000;
+
+    private static GuideCache singleton;
+    private final SparseArray<GroupData> mGroups = new SparseArray<>();
+
+    public static class Channel {
+        public final int chanId;
+        public final int chanNum;
+        public final String callSign;
+        public final String chanDetails;
+        // key is program start time
+        private final TreeMap<Long, GuideSlot.Program> programs = new TreeMap<>();
+
+        Channel(int chanId, int chanNum, String callSign, String chanDetails) {
+            this.chanId = chanId;
+            this.chanNum = chanNum;
+            this.callSign = callSign;
+            this.chanDetails = chanDetails;
+        }
+
+        private Channel(XmlNode chanNode) {
+            chanId = chanNode.getInt("ChanId", 0);
+            callSign = chanNode.getString("CallSign");
+            String chanNumStr = chanNode.getString("ChanNum");
+            chanDetails = chanNumStr
+                    + " " + chanNode.getString("ChannelName")
+                    + " " + callSign;
+            int num = -1;
+            if (chanNumStr != null) {
+                String[] chanNumSplit = chanNumStr.split("[^0123456789]");
+                if (chanNumSplit.length > 0 && chanNumSplit[0] != null
+                        && chanNumSplit[0].length() > 0)
+                    num = Integer.parseInt(chanNumSplit[0]);
+            }
+            chanNum = num;
+        }
+    }
+
+    /**
+     * A channel with its programs that overlap a time window
+     */
+    public static class ChannelWindow {
+        public final Channel channel;
+        public final List<GuideSlot.Program> programs;
+
+        ChannelWindow(Channel channel, List<GuideSlot.Program> programs) {
+            this.channel = channel;
+            this.programs = programs;
+        }
+    }
+
+    private static class Range {
+        long start;
+        long end;
+        long fetchTime;
+
+        Range(long start, long end, long fetchTime) {
+            this.start = start;
+            this.end = end;
+            this.fetchTime = fetchTime;
+        }
+    }
+
+    private static class GroupData {
+        // Channels in guide order
+        ArrayList<Channel> channels = new ArrayList<>();
+        HashMap<Integer, Channel> channelMap = new HashMap<>();
+        // Sorted, not overlapping
+        ArrayList<Range> ranges = new ArrayList<>();
+        // Start times of windows being prefetched
+        HashSet<Long> inFlight = new HashSet<>();
+    }
+
+    private GuideCache() {
+    }
+
+    public static synchronized GuideCache getInstance() {
+        if (singleton == null)
+            singleton = new GuideCache();
+        return singleton;
+    }
+
+    public synchronized void clear() {
+        mGroups.clear();
+    }
+
+    /**
+     * Get a window from memory, or else from GuideStore. This may read
+     * the database so must not be called on the UI thread.
+     *
+     * @return The channels and programs for the window, or null if
+     * it is not all in the cache.
+     */
+    public List<ChannelWindow> getWindow(int groupId, Date start, Date end) {
+        long startMs = start.getTime();
+        long endMs = end.getTime();
+        synchronized (this) {
+            GroupData group = mGroups.get(groupId);
+            if (group != null && isCovered(group, startMs, endMs))
+                return makeWindow(group, startMs, endMs);
+        }
+        List<ChannelWindow> stored = GuideStore.getInstance().getWindow(groupId, startMs, endMs);
+        if (stored == null)
+            return null;
+        return putWindow(groupId, startMs, endMs, stored);
+    }
+
+    /**
+     * Add a GetProgramGuide response to the cache and to GuideStore.
+     *
+     * @return The channels and programs of the response
+     */
+    public List<ChannelWindow> put(int groupId, Date start, Date end, XmlNode result) {
+        List<ChannelWindow> parsed = parse(result);
+        List<ChannelWindow> window = putWindow(groupId, start.getTime(), end.getTime(), parsed);
+        GuideStore.getInstance().save(groupId, start.getTime(), end.getTime(), parsed);
+        return window;
+    }
+
+    /**
+     * Parse a GetProgramGuide response.
+     */
+    static List<ChannelWindow> parse(XmlNode result) {
+        ArrayList<ChannelWindow> ret = new ArrayList<>();
+        XmlNode channelsNode = result.getNode("Channels");
+        XmlNode chanNode = channelsNode == null ? null : channelsNode.getNode("ChannelInfo");
+        for ( ; chanNode != null; chanNode = chanNode.getNextSibling()) {
+            ArrayList<GuideSlot.Program> programs = new ArrayList<>();
+            XmlNode programsNode = chanNode.getNode("Programs");
+            XmlNode programNode = programsNode == null ? null : programsNode.getNode("Program");
+            for ( ; programNode != null; programNode = programNode.getNextSibling()) {
+                GuideSlot.Program program = new GuideSlot.Program(programNode, chanNode);
+                if (program.startTime != null && program.endTime != null)
+                    programs.add(program);
+            }
+            ret.add(new ChannelWindow(new Channel(chanNode), programs));
+        }
+        return ret;
+    }
+
+    // Merge channels and programs for start to end into the group
+    private synchronized List<ChannelWindow> putWindow(int groupId, long startMs, long endMs,
+                                                       List<ChannelWindow> windows) {
+        long now = System.currentTimeMillis();
+        evict(now);
+        GroupData group = mGroups.get(groupId);
+        if (group == null) {
+            group = new GroupData();
+            mGroups.put(groupId, group);
+        }
+        ArrayList<Channel> channels = new ArrayList<>();
+        for (ChannelWindow window : windows) {
+            Channel channel = new Channel(window.channel.chanId, window.channel.chanNum,
+                    window.channel.callSign, window.channel.chanDetails);
+            Channel prior = group.channelMap.get(channel.chanId);
+            if (prior != null) {
+                channel.programs.putAll(prior.programs);
+                removeOverlapping(channel, startMs, endMs);
+            }
+            for (GuideSlot.Program program : window.programs)
+                channel.programs.put(program.startTime.getTime(), program);
+            channels.add(channel);
+        }
+        // The latest response decides the channels and their order.
+        group.channels = channels;
+        group.channelMap.clear();
+        for (Channel channel : channels)
+            group.channelMap.put(channel.chanId, channel);
+        addRange(group, new Range(startMs, endMs, now));
+        return makeWindow(group, startMs, endMs);
+    }
+
+    /**
+     * Fetch windows of the same size before and after the one given, if
+     * they are not already cached, in the background. This may read
+     * the database so must not be called on the UI thread.
+     */
+    public void prefetchAdjacent(int groupId, Date start, Date end) {
+        long size = end.getTime() - start.getTime();
+        prefetch(groupId, start.getTime() - size, size);
+        prefetch(groupId, end.getTime(), size);
+    }
+
+    private void prefetch(int groupId, long startMs, long size) {
+        long now = System.currentTimeMillis();
+        if (startMs + size <= now || startMs >= now + getHorizon())
+            return;
+        synchronized (this) {
+            if (mGroups.get(groupId) == null)
+                return;
+        }
+        // Found in memory or loaded from GuideStore
+        if (getWindow(groupId, new Date(startMs), new Date(startMs + size)) != null)
+            return;
+        synchronized (this) {
+            GroupData group = mGroups.get(groupId);
+            if (group == null || !group.inFlight.add(startMs))
+                return;
+        }
+        Log.i(TAG, CLASS + " Prefetch group " + groupId + " at " + new Date(startMs));
+        AsyncBackendCall call = new AsyncBackendCall(null, this);
+        call.setStartTime(new Date(startMs));
+        call.setEndTime(new Date(startMs + size));
+        call.setId(groupId);
+        call.execute(Video.ACTION_GUIDE);
+    }
+
+    // Prefetch results arrive on the backend call thread.
+    @Override
+    public void onPostExecute(AsyncBackendCall taskRunner) {
+        XmlNode result = taskRunner.getXmlResult();
+        Date start = taskRunner.getStartTime();
+        synchronized (this) {
+            GroupData group = mGroups.get(taskRunner.getId());
+            if (group != null)
+                group.inFlight.remove(start.getTime());
+        }
+        if (result != null)
+            put(taskRunner.getId(), start, taskRunner.getEndTime(), result);
+    }
+
+    private static long getHorizon() {
+        return Math.max(1, Settings.getInt("pref_guide_cache_hours")) * 60L * 60 * 1000;
+    }
+
+    // True if start to end is covered by ranges that are not expired
+    private static boolean isCovered(GroupData group, long start, long end) {
+        long now = System.currentTimeMillis();
+        long covered = start;
+        for (Range range : group.ranges) {
+            if (range.end <= covered)
+                continue;
+            if (range.start > covered || now - range.fetchTime >= TTL)
+                break;
+            covered = range.end;
+            if (covered >= end)
+                break;
+        }
+        return covered >= end;
+    }
+
+    private static List<ChannelWindow> makeWindow(GroupData group, long start, long end) {
+        ArrayList<ChannelWindow> ret = new ArrayList<>(group.channels.size());
+        for (Channel channel : group.channels) {
+            ArrayList<GuideSlot.Program> programs = new ArrayList<>();
+            for (GuideSlot.Program program :
+                    channel.programs.subMap(start - MAX_PROGRAM_LENGTH, end).values()) {
+                if (program.endTime.getTime() > start)
+                    programs.add(program);
+            }
+            ret.add(new ChannelWindow(channel, programs));
+        }
+        return ret;
+    }
+
+    // Remove programs replaced by a new response for start to end
+    private static void removeOverlapping(Channel channel, long start, long end) {
+        Iterator<GuideSlot.Program> it =
+                channel.programs.subMap(start - MAX_PROGRAM_LENGTH, end).values().iterator();
+        while (it.hasNext()) {
+            if (it.next().endTime.getTime() > start)
+                it.remove();
+        }
+    }
+
+    private static void addRange(GroupData group, Range newRange) {
+        // Keep the parts of older ranges outside the new one, with their
+        // own fetch times, so that a new fetch does not make them look
+        // fresher or the new one look older.
+        ArrayList<Range> merged = new ArrayList<>();
+        for (Range range : group.ranges) {
+            if (range.end <= newRange.start || range.start >= newRange.end)
+                merged.add(range);
+            else {
+                if (range.start < newRange.start)
+                    merged.add(new Range(range.start, newRange.start, range.fetchTime));
+                if (range.end > newRange.end)
+                    merged.add(new Range(newRange.end, range.end, range.fetchTime));
+            }
+        }
+        int ix = 0;
+        while (ix < merged.size() && merged.get(ix).start < newRange.start)
+            ix++;
+        merged.add(ix, newRange);
+        group.ranges = merged;
+    }
+
+    private void evict(long now) {
+        long horizonEnd = now + getHorizon();
+        for (int ix = mGroups.size() - 1; ix >= 0; ix--) {
+            GroupData group = mGroups.valueAt(ix);
+            Iterator<Range> it = group.ranges.iterator();
+            while (it.hasNext()) {
+                Range range = it.next();
+                if (range.end <= now || range.start >= horizonEnd
+                        || now - range.fetchTime >= TTL)
+                    it.remove();
+            }
+            if (group.ranges.isEmpty() && group.inFlight.isEmpty()) {
+                mGroups.removeAt(ix);
+                continue;
+            }
+            // Keep only programs that are in a remaining range
+            for (Channel channel : group.channels) {
+                Iterator<GuideSlot.Program> progIt = channel.programs.values().iterator();
+                while (progIt.hasNext()) {
+                    GuideSlot.Program program = progIt.next();
+                    boolean keep = false;
+                    for (Range range : group.ranges) {
+                        if (program.startTime.getTime() < range.end
+                                && program.endTime.getTime() > range.start) {
+                            keep = true;
+                            break;
+                        }
+                    }
+                    if (!keep)
+                        progIt.remove();
+                }
+            }
+        }
+    }
+}
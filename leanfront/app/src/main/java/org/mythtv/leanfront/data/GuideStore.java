@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.mythtv.leanfront.MyApplication;
+import org.mythtv.leanfront.data.VideoContract.GuideChannelEntry;
+import org.mythtv.leanfront.data.VideoContract.GuideRangeEntry;
+import org.mythtv.leanfront.data.VideoContract.ProgramEntry;
+import org.mythtv.leanfront.data.VideoContract.ProgramSearchEntry;
+import org.mythtv.leanfront.model.GuideSlot;
+import org.mythtv.leanfront.model.Settings;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Program guide data kept in the database, so that the guide grid and
+ * guide search are served locally.
+ *
+ * The program table holds programs by channel. For each channel group
+ * the guidechannel table holds its channels in guide order and the
+ * guiderange table the time ranges that have been stored, with when
+ * each was fetched.
+ *
+ * A background fill keeps the next pref_guide_days days of all channels
+ * stored. The backend has no way to ask for guide changes since a time,
+ * so only ranges that are missing or older than MAX_AGE are fetched.
+ * Schedule changes alter recording status, so they mark every range
+ * as needing to be fetched again.
+ */
+public class GuideStore {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "GuideStore";
+    // Group id that has all channels
+    public static final int ALL_CHANNELS = 0;
+    // Stored ranges older than this are fetched again
+    private static final long MAX_AGE = 6 * 60 * 60 * 1000;
+    // Search uses the store if the fill was done within this time
+    private static final long SEARCH_MAX_AGE = 24 * 60 * 60 * 1000;
+    // Size of each request made by the fill
+    private static final long FILL_WINDOW = 6 * 60 * 60 * 1000;
+    // Ended programs are kept this long so the guide can be paged back
+    private static final long KEEP_PAST = 24 * 60 * 60 * 1000;
+    // Longest program expected, for finding programs that start before a window
+    private static final long MAX_PROGRAM_LENGTH = 24 * 60 * 60 * 1000;
+    private static final long DAY = 24 * 60 * 60 * 1000;
+    public static final int MAX_SEARCH_RESULTS = 500;
+
+    private static GuideStore singleton;
+    private final ExecutorService mFiller = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean mFilling = new AtomicBoolean();
+
+    private GuideStore() {
+    }
+
+    public static synchronized GuideStore getInstance() {
+        if (singleton == null)
+            singleton = new GuideStore();
+        return singleton;
+    }
+
+    public static String getGuideUrl(int groupId, Date start, Date end)
+            throws IOException, XmlPullParserException {
+        return XmlNode.mythApiUrl(null,
+                "/Guide/GetProgramGuide?ChannelGroupId=" + groupId
+                        + "&StartTime=" + URLEncoder.encode(DateCodec.formatUtc(start.getTime()), "UTF-8")
+                        + "&EndTime=" + URLEncoder.encode(DateCodec.formatUtc(end.getTime()), "UTF-8"));
+    }
+
+    private static int getFillDays() {
+        return Math.max(1, Settings.getInt("pref_guide_days"));
+    }
+
+    /**
+     * @return The channels and programs for the window, or null if the
+     * store does not have all of it, or it is older than MAX_AGE.
+     */
+    List<GuideCache.ChannelWindow> getWindow(int groupId, long start, long end) {
+        SQLiteDatabase db = VideoDbHelper.getInstance(MyApplication.getAppContext())
+                .getReadableDatabase();
+        if (db == null)
+            return null;
+        try {
+            long fetched = getGroupFetchTime(db, groupId, start, end);
+            if (System.currentTimeMillis() - fetched >= MAX_AGE)
+                return null;
+            return load(db, groupId, start, end);
+        } catch (SQLException e) {
+            Log.e(TAG, CLASS + " Exception reading guide.", e);
+            return null;
+        } finally {
+            VideoDbHelper.releaseDatabase();
+        }
+    }
+
+    // A group can be covered by its own ranges, or by the ranges of all
+    // channels once its list of channels is known.
+    private static long getGroupFetchTime(SQLiteDatabase db, int groupId, long start, long end) {
+        long fetched = getFetchTime(db, groupId, start, end);
+        if (groupId != ALL_CHANNELS && System.currentTimeMillis() - fetched >= MAX_AGE) {
+            try (Cursor cursor = db.query(GuideChannelEntry.TABLE_NAME,
+                    new String[]{GuideChannelEntry._ID},
+                    GuideChannelEntry.COLUMN_GROUPID + " = ?",
+                    new String[]{String.valueOf(groupId)},
+                    null, null, null, "1")) {
+                if (cursor.moveToFirst())
+                    fetched = Math.max(fetched, getFetchTime(db, ALL_CHANNELS, start, end));
+            }
+        }
+        return fetched;
+    }
+
+    // Fetch time of the oldest of the stored ranges that together
+    // cover start to end, or 0 if they do not cover it.
+    private static long getFetchTime(SQLiteDatabase db, int groupId, long start, long end) {
+        long fetched = Long.MAX_VALUE;
+        long coveredTo = start;
+        try (Cursor cursor = db.query(GuideRangeEntry.TABLE_NAME,
+                new String[]{GuideRangeEntry.COLUMN_STARTTIME, GuideRangeEntry.COLUMN_ENDTIME,
+                        GuideRangeEntry.COLUMN_FETCHED},
+                GuideRangeEntry.COLUMN_GROUPID + " = ? AND "
+                        + GuideRangeEntry.COLUMN_ENDTIME + " > ? AND "
+                        + GuideRangeEntry.COLUMN_STARTTIME + " < ?",
+                new String[]{String.valueOf(groupId), String.valueOf(start), String.valueOf(end)},
+                null, null, GuideRangeEntry.COLUMN_STARTTIME)) {
+            while (cursor.moveToNext()) {
+                if (cursor.getLong(0) > coveredTo)
+                    break;
+                coveredTo = Math.max(coveredTo, cursor.getLong(1));
+                fetched = Math.min(fetched, cursor.getLong(2));
+                if (coveredTo >= end)
+                    return fetched;
+            }
+        }
+        return 0;
+    }
+
+    private static List<GuideCache.ChannelWindow> load(SQLiteDatabase db, int groupId,
+                                                       long start, long end) {
+        ArrayList<GuideCache.ChannelWindow> ret = new ArrayList<>();
+        try (Cursor cursor = db.query(GuideChannelEntry.TABLE_NAME,
+                new String[]{GuideChannelEntry.COLUMN_CHANID, GuideChannelEntry.COLUMN_CHANNUM,
+                        GuideChannelEntry.COLUMN_CALLSIGN, GuideChannelEntry.COLUMN_CHANDETAILS},
+                GuideChannelEntry.COLUMN_GROUPID + " = ?",
+                new String[]{String.valueOf(groupId)},
+                null, null, GuideChannelEntry.COLUMN_POSITION)) {
+            while (cursor.moveToNext()) {
+                GuideCache.Channel channel = new GuideCache.Channel(cursor.getInt(0),
+                        cursor.getInt(1), cursor.getString(2), cursor.getString(3));
+                ret.add(new GuideCache.ChannelWindow(channel, new ArrayList<>()));
+            }
+        }
+        if (ret.isEmpty())
+            return null;
+        // Programs come in channel position order, so each channel's
+        // programs follow one another.
+        String sql = "SELECT " + programColumns("p") + ", c." + GuideChannelEntry.COLUMN_POSITION
+                + " FROM " + GuideChannelEntry.TABLE_NAME + " c JOIN "
+                + ProgramEntry.TABLE_NAME + " p ON p." + ProgramEntry.COLUMN_CHANID
+                + " = c." + GuideChannelEntry.COLUMN_CHANID
+                + " WHERE c." + GuideChannelEntry.COLUMN_GROUPID + " = ?"
+                + " AND p." + ProgramEntry.COLUMN_STARTTIME + " > ?"
+                + " AND p." + ProgramEntry.COLUMN_STARTTIME + " < ?"
+                + " AND p." + ProgramEntry.COLUMN_ENDTIME + " > ?"
+                + " ORDER BY c." + GuideChannelEntry.COLUMN_POSITION
+                + ", p." + ProgramEntry.COLUMN_STARTTIME;
+        try (Cursor cursor = db.rawQuery(sql, new String[]{String.valueOf(groupId),
+                String.valueOf(start - MAX_PROGRAM_LENGTH), String.valueOf(end),
+                String.valueOf(start)})) {
+            while (cursor.moveToNext()) {
+                int position = cursor.getInt(8);
+                if (position >= 0 && position < ret.size())
+                    ret.get(position).programs.add(readProgram(cursor));
+            }
+        }
+        return ret;
+    }
+
+    private static String programColumns(String alias) {
+        return alias + "." + ProgramEntry.COLUMN_CHANID + ", "
+                + alias + "." + ProgramEntry.COLUMN_STARTTIME + ", "
+                + alias + "." + ProgramEntry.COLUMN_ENDTIME + ", "
+                + alias + "." + ProgramEntry.COLUMN_TITLE + ", "
+                + alias + "." + ProgramEntry.COLUMN_SUBTITLE + ", "
+                + alias + "." + ProgramEntry.COLUMN_SEASON + ", "
+                + alias + "." + ProgramEntry.COLUMN_EPISODE + ", "
+                + alias + "." + ProgramEntry.COLUMN_RECSTATUS;
+    }
+
+    // Read the columns of programColumns()
+    private static GuideSlot.Program readProgram(Cursor cursor) {
+        GuideSlot.Program program = new GuideSlot.Program();
+        program.chanId = cursor.getInt(0);
+        program.startTime = new Date(cursor.getLong(1));
+        program.endTime = new Date(cursor.getLong(2));
+        program.title = cursor.getString(3);
+        program.subTitle = cursor.getString(4);
+        program.season = cursor.getInt(5);
+        program.episode = cursor.getInt(6);
+        program.recordingStatus = cursor.getString(7);
+        return program;
+    }
+
+    /**
+     * Save the channels and programs of a group for start to end,
+     * replacing what was stored for that time.
+     */
+    void save(int groupId, long start, long end, List<GuideCache.ChannelWindow> windows) {
+        if (windows.isEmpty())
+            return;
+        SQLiteDatabase db = VideoDbHelper.getInstance(MyApplication.getAppContext())
+                .getWritableDatabase();
+        if (db == null)
+            return;
+        long startTime = System.currentTimeMillis();
+        int count = 0;
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            int position = 0;
+            db.delete(GuideChannelEntry.TABLE_NAME, GuideChannelEntry.COLUMN_GROUPID + " = ?",
+                    new String[]{String.valueOf(groupId)});
+            for (GuideCache.ChannelWindow window : windows) {
+                GuideCache.Channel channel = window.channel;
+                values.clear();
+                values.put(GuideChannelEntry.COLUMN_GROUPID, groupId);
+                values.put(GuideChannelEntry.COLUMN_POSITION, position++);
+                values.put(GuideChannelEntry.COLUMN_CHANID, channel.chanId);
+                values.put(GuideChannelEntry.COLUMN_CHANNUM, channel.chanNum);
+                values.put(GuideChannelEntry.COLUMN_CALLSIGN, channel.callSign);
+                values.put(GuideChannelEntry.COLUMN_CHANDETAILS, channel.chanDetails);
+                db.insert(GuideChannelEntry.TABLE_NAME, null, values);
+
+                db.delete(ProgramEntry.TABLE_NAME,
+                        ProgramEntry.COLUMN_CHANID + " = ? AND "
+                                + ProgramEntry.COLUMN_STARTTIME + " > ? AND "
+                                + ProgramEntry.COLUMN_STARTTIME + " < ? AND "
+                                + ProgramEntry.COLUMN_ENDTIME + " > ?",
+                        new String[]{String.valueOf(channel.chanId),
+                                String.valueOf(start - MAX_PROGRAM_LENGTH),
+                                String.valueOf(end), String.valueOf(start)});
+                for (GuideSlot.Program program : window.programs) {
+                    values.clear();
+                    values.put(ProgramEntry.COLUMN_CHANID, program.chanId);
+                    values.put(ProgramEntry.COLUMN_STARTTIME, program.startTime.getTime());
+                    values.put(ProgramEntry.COLUMN_ENDTIME, program.endTime.getTime());
+                    values.put(ProgramEntry.COLUMN_TITLE, program.title);
+                    values.put(ProgramEntry.COLUMN_SUBTITLE, program.subTitle);
+                    values.put(ProgramEntry.COLUMN_SEASON, program.season);
+                    values.put(ProgramEntry.COLUMN_EPISODE, program.episode);
+                    values.put(ProgramEntry.COLUMN_RECSTATUS, program.recordingStatus);
+                    db.insert(ProgramEntry.TABLE_NAME, null, values);
+                    ++count;
+                }
+            }
+            replaceRange(db, groupId, start, end, System.currentTimeMillis());
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            Log.e(TAG, CLASS + " Exception saving guide.", e);
+        } finally {
+            db.endTransaction();
+            VideoDbHelper.releaseDatabase();
+        }
+        Log.i(TAG, CLASS + " Saved group " + groupId + " " + windows.size() + " channels "
+                + count + " programs in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    // Ranges are not merged, because the parts of a range may have been
+    // fetched at different times. The new range replaces the parts of
+    // existing ranges it overlaps.
+    private static void replaceRange(SQLiteDatabase db, int groupId, long start, long end,
+                                     long fetched) {
+        ArrayList<long[]> overlapping = new ArrayList<>();
+        try (Cursor cursor = db.query(GuideRangeEntry.TABLE_NAME,
+                new String[]{GuideRangeEntry._ID, GuideRangeEntry.COLUMN_STARTTIME,
+                        GuideRangeEntry.COLUMN_ENDTIME, GuideRangeEntry.COLUMN_FETCHED},
+                GuideRangeEntry.COLUMN_GROUPID + " = ? AND "
+                        + GuideRangeEntry.COLUMN_ENDTIME + " > ? AND "
+                        + GuideRangeEntry.COLUMN_STARTTIME + " < ?",
+                new String[]{String.valueOf(groupId), String.valueOf(start), String.valueOf(end)},
+                null, null, null)) {
+            while (cursor.moveToNext())
+                overlapping.add(new long[]{cursor.getLong(0), cursor.getLong(1),
+                        cursor.getLong(2), cursor.getLong(3)});
+        }
+        for (long[] range : overlapping) {
+            db.delete(GuideRangeEntry.TABLE_NAME, GuideRangeEntry._ID + " = ?",
+                    new String[]{String.valueOf(range[0])});
+            if (range[1] < start)
+                insertRange(db, groupId, range[1], start, range[3]);
+            if (range[2] > end)
+                insertRange(db, groupId, end, range[2], range[3]);
+        }
+        insertRange(db, groupId, start, end, fetched);
+    }
+
+    private static void insertRange(SQLiteDatabase db, int groupId, long start, long end,
+                                    long fetched) {
+        ContentValues values = new ContentValues();
+        values.put(GuideRangeEntry.COLUMN_GROUPID, groupId);
+        values.put(GuideRangeEntry.COLUMN_STARTTIME, start);
+        values.put(GuideRangeEntry.COLUMN_ENDTIME, end);
+        values.put(GuideRangeEntry.COLUMN_FETCHED, fetched);
+        db.insert(GuideRangeEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Programs found by search of the store.
+     */
+    public static class SearchResult {
+        // Programs in start time order
+        public final List<GuideSlot> slots;
+        // Programs starting at or after this time are not in the store
+        public final long horizon;
+
+        SearchResult(List<GuideSlot> slots, long horizon) {
+            this.slots = slots;
+            this.horizon = horizon;
+        }
+    }
+
+    /**
+     * Search stored programs that have not ended by words at the start of
+     * the title.
+     *
+     * @return Search results up to the end of the stored guide days, or
+     * null if the store does not have them for all channels, in which case
+     * the backend must be searched. Programs starting after the horizon
+     * of the result must be searched on the backend.
+     */
+    public SearchResult search(String query) {
+        String match = VideoProvider.getMatchQuery(query);
+        if (match == null)
+            return null;
+        SQLiteDatabase db = VideoDbHelper.getInstance(MyApplication.getAppContext())
+                .getReadableDatabase();
+        if (db == null)
+            return null;
+        long startTime = System.currentTimeMillis();
+        try {
+            long now = System.currentTimeMillis();
+            // Allow for the time since the fill ran
+            long end = now + Math.max(FILL_WINDOW, getFillDays() * DAY - SEARCH_MAX_AGE);
+            if (now - getFetchTime(db, ALL_CHANNELS, now, end) >= SEARCH_MAX_AGE)
+                return null;
+            String sql = "SELECT " + programColumns("p")
+                    + ", c." + GuideChannelEntry.COLUMN_CALLSIGN
+                    + ", c." + GuideChannelEntry.COLUMN_CHANDETAILS
+                    // Matches from the full text index drive the query
+                    + " FROM " + ProgramSearchEntry.TABLE_NAME + " s JOIN "
+                    + ProgramEntry.TABLE_NAME + " p ON p." + ProgramEntry._ID
+                    + " = s." + ProgramSearchEntry.COLUMN_DOCID + " JOIN "
+                    + GuideChannelEntry.TABLE_NAME + " c ON c." + GuideChannelEntry.COLUMN_CHANID
+                    + " = p." + ProgramEntry.COLUMN_CHANID
+                    + " AND c." + GuideChannelEntry.COLUMN_GROUPID + " = " + ALL_CHANNELS
+                    + " WHERE " + ProgramSearchEntry.TABLE_NAME + " MATCH ?"
+                    + " AND p." + ProgramEntry.COLUMN_ENDTIME + " > ?"
+                    + " AND p." + ProgramEntry.COLUMN_STARTTIME + " < ?"
+                    + " ORDER BY p." + ProgramEntry.COLUMN_STARTTIME
+                    + " LIMIT " + MAX_SEARCH_RESULTS;
+            ArrayList<GuideSlot> ret = new ArrayList<>();
+            try (Cursor cursor = db.rawQuery(sql, new String[]{match,
+                    String.valueOf(now), String.valueOf(end)})) {
+                while (cursor.moveToNext()) {
+                    GuideSlot.Program program = readProgram(cursor);
+                    GuideSlot slot = new GuideSlot(program.chanId, -1,
+                            cursor.getString(8), cursor.getString(9));
+                    slot.cellType = GuideSlot.CELL_SEARCHRESULT;
+                    slot.timeSlot = program.startTime;
+                    slot.program = program;
+                    ret.add(slot);
+                }
+            }
+            Log.i(TAG, CLASS + " Search found " + ret.size() + " in "
+                    + (System.currentTimeMillis() - startTime) + " ms");
+            return new SearchResult(ret, end);
+        } catch (SQLException e) {
+            Log.e(TAG, CLASS + " Exception searching guide.", e);
+            return null;
+        } finally {
+            VideoDbHelper.releaseDatabase();
+        }
+    }
+
+    /**
+     * Mark all stored ranges as needing to be fetched again, for use
+     * after a schedule change.
+     */
+    public void invalidate() {
+        SQLiteDatabase db = VideoDbHelper.getInstance(MyApplication.getAppContext())
+                .getWritableDatabase();
+        if (db == null)
+            return;
+        try {
+            ContentValues values = new ContentValues();
+            values.put(GuideRangeEntry.COLUMN_FETCHED, 0);
+            db.update(GuideRangeEntry.TABLE_NAME, values, null, null);
+        } catch (SQLException e) {
+            Log.e(TAG, CLASS + " Exception invalidating guide.", e);
+        } finally {
+            VideoDbHelper.releaseDatabase();
+        }
+    }
+
+    /**
+     * Bring the store up to date in the background. Does nothing if
+     * a fill is already running.
+     */
+    public void startFill() {
+        if (!mFilling.compareAndSet(false, true))
+            return;
+        mFiller.execute(() -> {
+            try {
+                fill();
+            } finally {
+                mFilling.set(false);
+            }
+        });
+    }
+
+    private void fill() {
+        long startTime = System.currentTimeMillis();
+        removeOld(startTime);
+        long end = startTime + getFillDays() * DAY;
+        int fetches = 0;
+        for (long start = startTime / FILL_WINDOW * FILL_WINDOW; start < end;
+             start += FILL_WINDOW) {
+            if (System.currentTimeMillis() - getFetchTime(ALL_CHANNELS, start,
+                    start + FILL_WINDOW) < MAX_AGE)
+                continue;
+            XmlNode result;
+            try {
+                String urlString = getGuideUrl(ALL_CHANNELS, new Date(start),
+                        new Date(start + FILL_WINDOW));
+                if (urlString.length() == 0)
+                    break;
+                result = XmlNode.fetch(urlString, null);
+            } catch (Exception e) {
+                // Try again next time
+                Log.e(TAG, CLASS + " Exception filling guide.", e);
+                break;
+            }
+            save(ALL_CHANNELS, start, start + FILL_WINDOW, GuideCache.parse(result));
+            ++fetches;
+        }
+        Log.i(TAG, CLASS + " Fill fetched " + fetches + " windows in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    private long getFetchTime(int groupId, long start, long end) {
+        SQLiteDatabase db = VideoDbHelper.getInstance(MyApplication.getAppContext())
+                .getReadableDatabase();
+        if (db == null)
+            return 0;
+        try {
+            return getFetchTime(db, groupId, start, end);
+        } catch (SQLException e) {
+            Log.e(TAG, CLASS + " Exception reading guide ranges.", e);
+            return 0;
+        } finally {
+            VideoDbHelper.releaseDatabase();
+        }
+    }
+
+    private void removeOld(long now) {
+        SQLiteDatabase db = VideoDbHelper.getInstance(MyApplication.getAppContext())
+                .getWritableDatabase();
+        if (db == null)
+            return;
+        String cutoff = String.valueOf(now - KEEP_PAST);
+        db.beginTransaction();
+        try {
+            int count = db.delete(ProgramEntry.TABLE_NAME,
+                    ProgramEntry.COLUMN_ENDTIME + " < ?", new String[]{cutoff});
+            db.delete(GuideRangeEntry.TABLE_NAME,
+                    GuideRangeEntry.COLUMN_ENDTIME + " <= ?", new String[]{cutoff});
+            // Ranges must not claim programs that have been removed
+            ContentValues values = new ContentValues();
+            values.put(GuideRangeEntry.COLUMN_STARTTIME, now - KEEP_PAST);
+            db.update(GuideRangeEntry.TABLE_NAME, values,
+                    GuideRangeEntry.COLUMN_STARTTIME + " < ?", new String[]{cutoff});
+            db.setTransactionSuccessful();
+            Log.i(TAG, CLASS + " Removed " + count + " ended programs");
+        } catch (SQLException e) {
+            Log.e(TAG, CLASS + " Exception removing old guide data.", e);
+        } finally {
+            db.endTransaction();
+            VideoDbHelper.releaseDatabase();
+        }
+    }
+}
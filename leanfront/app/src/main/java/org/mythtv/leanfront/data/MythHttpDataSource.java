@@ -27,12 +27,17 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import androidx.annotation.OptIn;
+import androidx.media3.common.C;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.datasource.BaseDataSource;
 import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSourceException;
 import androidx.media3.datasource.DataSpec;
 import androidx.media3.datasource.DefaultHttpDataSource;
 import androidx.media3.datasource.HttpDataSource;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.CacheKeyFactory;
 
 import org.mythtv.leanfront.ui.playback.PlaybackFragment;
 
@@ -40,16 +45,25 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
-public class MythHttpDataSource extends BaseDataSource implements DataSource {
+@OptIn(markerClass = UnstableApi.class)
+public class MythHttpDataSource extends BaseDataSource
+        implements DataSource, CacheDataSource.EventListener {
 
     private DataSpec mDataSpec;
     private PlaybackFragment mPlaybackFragment;
     private HttpDataSource mHttpDataSource;
+    // Either mHttpDataSource or a cache reading from it
+    private DataSource mDataSource;
+    private Cache mCache;
+    private long mBytesRead;
+    private long mCachedBytes;
     private long mTotalLength;
     private long mCurrentPos;
     private long mOffsetBytes;
     private static final String TAG = "lfe";
     private static final String CLASS = "MythHttpDataSource";
+    // Longest wait at the end of a growing file before reporting EOF
+    private static final long GROWTH_WAIT = 5000;
 
 
     public MythHttpDataSource(String userAgent, PlaybackFragment playbackFragment){
@@ -60,7 +74,13 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
         mHttpDataSource = new DefaultHttpDataSource.Factory()
                 .setUserAgent(userAgent)
                 .setDefaultRequestProperties(defaultRequestProperties)
+                .setConnectTimeoutMs(BackendHttpClient.getConnectTimeout())
                 .createDataSource();
+        mCache = SegmentCache.getCache();
+        if (mCache == null)
+            mDataSource = mHttpDataSource;
+        else
+            mDataSource = SegmentCache.wrap(mCache, mHttpDataSource, this);
         mPlaybackFragment.setDataSource(this);
     }
 
@@ -75,35 +95,24 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
                 .setPosition(dataSpec.position + mOffsetBytes)
                 .setLength(dataSpec.length)
                 .setKey(dataSpec.key)
-                .setFlags(dataSpec.flags)
+                .setFlags(dataSpec.flags | DataSpec.FLAG_ALLOW_CACHE_FRAGMENTATION)
                 .build();
-        long leng = 0;
-        try {
-            leng = mHttpDataSource.open(mDataSpec);
-        } catch (HttpDataSource.InvalidResponseCodeException e) {
-            // Response code 416 = read past eof
-            if (e.responseCode == 416) {
-                leng = 0;
-                Log.i(TAG, CLASS + " End of file.");
-            }
-            else {
-                Log.e(TAG, CLASS + " Bad Http Response Code:" +e.responseCode
-                    + " " + e.responseMessage);
-                throw e;
-            }
-        }
-        mTotalLength = mDataSpec.position + leng;
+        long leng = openSource(mDataSpec);
+        mTotalLength = mDataSpec.position + Math.max(leng, 0);
         mCurrentPos = mDataSpec.position;
-        if (!mPlaybackFragment.isBounded())
+        if (!mPlaybackFragment.isBounded()) {
+            if (leng > 0)
+                mPlaybackFragment.getFileTracker().noteLength(mTotalLength);
             leng = -1;
+        }
         return leng;
     }
 
-    @OptIn(markerClass = UnstableApi.class) @Override
+    @Override
     public int read(@NonNull byte[] buffer, int offset, int readLength) throws IOException {
         if (readLength <= 0)
             return 0;
-        int leng = mHttpDataSource.read(buffer,offset,readLength);
+        int leng = mDataSource.read(buffer,offset,readLength);
         if (leng == -1) {
             leng = 0;
         }
@@ -118,44 +127,33 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
                     .setKey(mDataSpec.key)
                     .setFlags(mDataSpec.flags)
                     .build();
-            mHttpDataSource.close();
+            mDataSource.close();
 
             if (mPlaybackFragment.isSpeededUp()) {
                 Activity activity = mPlaybackFragment.getActivity();
                 if (activity != null)
                     activity.runOnUiThread(() -> mPlaybackFragment.resetSpeed());
             }
+            // Resume as soon as the file has grown
+            long fileLength = mPlaybackFragment.getFileTracker()
+                    .awaitLength(dataSpec2.position, GROWTH_WAIT);
             long leng2 = 0;
-            try {
-                try {
-                    Thread.sleep(5000);
-                } catch (InterruptedException e) {
-                    // Ignore this exception.
-                }
-                leng2 = mHttpDataSource.open(dataSpec2);
-            } catch (HttpDataSource.InvalidResponseCodeException e) {
-                // Response code 416 = read past eof
-                if (e.responseCode == 416) {
-                    leng2 = 0;
-                    Log.i(TAG, CLASS + " End of file.");
-                }
-                else {
-                    Log.e(TAG, CLASS + " Bad Http Response Code:" +e.responseCode
-                            + " " + e.responseMessage);
-                    throw e;
-                }
-            }
+            if (fileLength > dataSpec2.position)
+                leng2 = openSource(dataSpec2);
             long totalLength2 = dataSpec2.position + leng2;
             Log.d(TAG, CLASS + " Incremental data length:" + leng2);
-            if (totalLength2 > mTotalLength) {
-                mTotalLength = totalLength2;
-                leng = mHttpDataSource.read(buffer, offset, readLength);
+            // Length is unknown if the data there is already in the cache
+            if (leng2 == C.LENGTH_UNSET || totalLength2 > mTotalLength) {
+                mTotalLength = Math.max(totalLength2, mTotalLength);
+                leng = mDataSource.read(buffer, offset, readLength);
                 mCurrentPos = dataSpec2.position;
                 mDataSpec = dataSpec2;
             }
         }
-        if (leng > 0)
+        if (leng > 0) {
             mCurrentPos += leng;
+            mBytesRead += leng;
+        }
         else
             leng = -1;
         return leng;
@@ -169,7 +167,64 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
 
     @Override
     public void close() throws IOException {
-        mHttpDataSource.close();
+        mDataSource.close();
+        if (mCache != null && mBytesRead > 0)
+            Log.i(TAG, CLASS + " Read " + mBytesRead + " bytes, "
+                    + mCachedBytes + " from cache.");
+        mBytesRead = 0;
+        mCachedBytes = 0;
+    }
+
+    @Override
+    public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+        mCachedBytes += cachedBytesRead;
+    }
+
+    @Override
+    public void onCacheIgnored(int reason) {
+        Log.i(TAG, CLASS + " Cache not used, reason " + reason);
+    }
+
+    // Open the data source, returning 0 at end of file.
+    private long openSource(DataSpec dataSpec) throws IOException {
+        if (mCache != null) {
+            String key = CacheKeyFactory.DEFAULT.buildCacheKey(dataSpec);
+            GrowingFileTracker tracker = mPlaybackFragment.getFileTracker();
+            if (mPlaybackFragment.isBounded()) {
+                long fileLength = mPlaybackFragment.getKnownFileLength();
+                if (fileLength < 0 && tracker != null)
+                    fileLength = tracker.poll();
+                SegmentCache.checkReplaced(mCache, key, fileLength, false);
+                // Lets the cache give the length when the start is cached
+                if (fileLength > SegmentCache.getLength(mCache, key))
+                    SegmentCache.setLength(mCache, key, fileLength);
+            }
+            else {
+                if (tracker != null)
+                    SegmentCache.checkReplaced(mCache, key, tracker.getLength(), true);
+                // The file is growing, the backend must be asked where it ends
+                SegmentCache.setLength(mCache, key, C.LENGTH_UNSET);
+            }
+        }
+        try {
+            return mDataSource.open(dataSpec);
+        } catch (HttpDataSource.InvalidResponseCodeException e) {
+            // Response code 416 = read past eof
+            if (e.responseCode == 416) {
+                Log.i(TAG, CLASS + " End of file.");
+                return 0;
+            }
+            Log.e(TAG, CLASS + " Bad Http Response Code:" +e.responseCode
+                    + " " + e.responseMessage);
+            throw e;
+        } catch (DataSourceException e) {
+            // From the cache when reading past the length it has
+            if (DataSourceException.isCausedByPositionOutOfRange(e)) {
+                Log.i(TAG, CLASS + " End of file.");
+                return 0;
+            }
+            throw e;
+        }
     }
 
     public long getCurrentPos() {
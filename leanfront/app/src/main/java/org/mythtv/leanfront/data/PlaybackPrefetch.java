@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.util.Log;
+
+import org.mythtv.leanfront.model.Video;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Cut list or commercial breaks and file length of a recording, fetched
+ * when its details page opens so that playback can start with them
+ * instead of asking the backend again.
+ *
+ * Entries are kept in memory by video url. The tables are used for
+ * TABLE_TTL ms and the file length, which may still be growing, for
+ * LENGTH_TTL ms. Bookmarks are not kept here, the details page already
+ * passes them to playback.
+ */
+public class PlaybackPrefetch implements AsyncBackendCall.OnBackendCallListener {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "PlaybackPrefetch";
+    private static final long TABLE_TTL = 120000;
+    private static final long LENGTH_TTL = 15000;
+
+    private static final HashMap<String, PlaybackPrefetch> sEntries = new HashMap<>();
+
+    private final String mUrl;
+    private final long mStartTime;
+    private final CommBreakTable mCommBreakTable = new CommBreakTable();
+    // Times the results arrived, 0 until then
+    private volatile long mTablesTime;
+    private volatile long mLengthTime;
+    private volatile long mFileLength = -1;
+
+    private PlaybackPrefetch(String url) {
+        mUrl = url;
+        mStartTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Start fetching for a video, unless that has been done recently.
+     */
+    public static void start(Video video) {
+        if (video.videoUrl == null)
+            return;
+        PlaybackPrefetch entry;
+        synchronized (sEntries) {
+            removeExpired();
+            if (sEntries.containsKey(video.videoUrl))
+                return;
+            entry = new PlaybackPrefetch(video.videoUrl);
+            sEntries.put(video.videoUrl, entry);
+        }
+        // Playback requests come first if both are waiting
+        AsyncBackendCall call = new AsyncBackendCall(null, entry);
+        call.setVideo(video);
+        call.setCommBreakTable(entry.mCommBreakTable);
+        call.setPriority(AsyncBackendCall.PRIORITY_NORMAL);
+        call.execute(Video.ACTION_CUTLIST_LOAD, Video.ACTION_COMMBREAK_LOAD);
+        call = new AsyncBackendCall(null, entry);
+        call.setVideo(video);
+        call.setmValue(-1);
+        call.setPriority(AsyncBackendCall.PRIORITY_NORMAL);
+        call.execute(Video.ACTION_FILELENGTH);
+    }
+
+    /**
+     * The prefetched results for a video url, or null if there are none.
+     */
+    public static PlaybackPrefetch get(String url) {
+        if (url == null)
+            return null;
+        synchronized (sEntries) {
+            removeExpired();
+            return sEntries.get(url);
+        }
+    }
+
+    // Called with sEntries locked
+    private static void removeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<PlaybackPrefetch> it = sEntries.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().mStartTime > TABLE_TTL)
+                it.remove();
+        }
+    }
+
+    /**
+     * A copy of the loaded cut list or commercial breaks, which may be
+     * empty, or null if they are not loaded yet, could not be loaded or
+     * are too old. Playback changes the table, so each gets its own.
+     */
+    public CommBreakTable getCommBreakTable() {
+        long time = mTablesTime;
+        if (time == 0 || System.currentTimeMillis() - time > TABLE_TTL)
+            return null;
+        return mCommBreakTable.copy();
+    }
+
+    /**
+     * The file length, or -1 if it is not known yet or too old.
+     */
+    public long getFileLength() {
+        long time = mLengthTime;
+        if (time == 0 || System.currentTimeMillis() - time > LENGTH_TTL)
+            return -1;
+        return mFileLength;
+    }
+
+    // Runs on the backend call thread
+    @Override
+    public void onPostExecute(AsyncBackendCall taskRunner) {
+        int [] tasks = taskRunner.getTasks();
+        if (tasks == null || tasks.length == 0)
+            return;
+        switch (tasks[0]) {
+            case Video.ACTION_CUTLIST_LOAD:
+                // After a failure playback asks the backend itself, and the
+                // next details page for this video tries again.
+                if (!taskRunner.isCommBreakFetched()) {
+                    Log.i(TAG, CLASS + " Tables not fetched: " + mUrl);
+                    synchronized (sEntries) {
+                        if (sEntries.get(mUrl) == this)
+                            sEntries.remove(mUrl);
+                    }
+                    break;
+                }
+                mTablesTime = System.currentTimeMillis();
+                Log.i(TAG, CLASS + " Tables " + mCommBreakTable.entries.length
+                        + " entries in " + (mTablesTime - mStartTime) + " ms: " + mUrl);
+                break;
+            case Video.ACTION_FILELENGTH:
+                mFileLength = taskRunner.getFileLength();
+                if (mFileLength > -1)
+                    mLengthTime = System.currentTimeMillis();
+                Log.i(TAG, CLASS + " File length " + mFileLength + " in "
+                        + (System.currentTimeMillis() - mStartTime) + " ms: " + mUrl);
+                break;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.mythtv.leanfront.data.VideoContract.StatusEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In memory copy of the videostatus rows, most recently used first.
+ * It is loaded once through the last_used index and then kept up to
+ * date by AsyncBackendCall as bookmarks are written, so the recents
+ * row can be built without scanning the whole video list.
+ */
+public class RecentsIndex {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "RecentsIndex";
+
+    private static RecentsIndex singleton;
+
+    // Ordered by lastUsed descending. null until loaded.
+    private ArrayList<Entry> mEntries;
+
+    public static class Entry {
+        public final String videoUrlPath;
+        public final long lastUsed;
+        public final boolean showRecent;
+
+        Entry(String videoUrlPath, long lastUsed, boolean showRecent) {
+            this.videoUrlPath = videoUrlPath;
+            this.lastUsed = lastUsed;
+            this.showRecent = showRecent;
+        }
+    }
+
+    public static synchronized RecentsIndex getInstance() {
+        if (singleton == null)
+            singleton = new RecentsIndex();
+        return singleton;
+    }
+
+    /**
+     * Entries used after a time, most recent first, including those
+     * removed from the recents row.
+     *
+     * @param db Open database to load from if needed
+     */
+    public synchronized List<Entry> getRecent(SQLiteDatabase db, long since) {
+        if (mEntries == null)
+            load(db);
+        ArrayList<Entry> result = new ArrayList<>();
+        for (Entry entry : mEntries) {
+            if (entry.lastUsed <= since)
+                break;
+            result.add(entry);
+        }
+        return result;
+    }
+
+    private void load(SQLiteDatabase db) {
+        long startTime = System.currentTimeMillis();
+        mEntries = new ArrayList<>();
+        String[] projection = {
+                StatusEntry.COLUMN_VIDEO_URL_PATH,
+                StatusEntry.COLUMN_LAST_USED,
+                StatusEntry.COLUMN_SHOW_RECENT
+        };
+        try (Cursor csr = db.query(StatusEntry.TABLE_NAME, projection,
+                null, null, null, null,
+                StatusEntry.COLUMN_LAST_USED + " DESC")) {
+            while (csr.moveToNext()) {
+                mEntries.add(new Entry(csr.getString(0), csr.getLong(1),
+                        csr.isNull(2) || csr.getInt(2) != 0));
+            }
+        }
+        Log.i(TAG, CLASS + " Loaded " + mEntries.size() + " entries in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    // A bookmark was written, which also shows the video in recents again
+    public synchronized void noteUsed(String videoUrlPath, long lastUsed) {
+        if (mEntries == null)
+            return;
+        remove(videoUrlPath);
+        int ix = 0;
+        while (ix < mEntries.size() && mEntries.get(ix).lastUsed > lastUsed)
+            ix++;
+        mEntries.add(ix, new Entry(videoUrlPath, lastUsed, true));
+    }
+
+    // The video was removed from the recents row
+    public synchronized void noteHidden(String videoUrlPath) {
+        if (mEntries == null)
+            return;
+        for (int ix = 0; ix < mEntries.size(); ix++) {
+            Entry entry = mEntries.get(ix);
+            if (entry.videoUrlPath.equals(videoUrlPath)) {
+                mEntries.set(ix, new Entry(videoUrlPath, entry.lastUsed, false));
+                break;
+            }
+        }
+    }
+
+    // Call when videostatus has been changed other than through the
+    // methods above, so that it is loaded again when next used.
+    public synchronized void invalidate() {
+        mEntries = null;
+    }
+
+    private void remove(String videoUrlPath) {
+        for (int ix = 0; ix < mEntries.size(); ix++) {
+            if (mEntries.get(ix).videoUrlPath.equals(videoUrlPath)) {
+                mEntries.remove(ix);
+                break;
+            }
+        }
+    }
+}
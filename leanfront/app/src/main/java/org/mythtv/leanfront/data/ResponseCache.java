@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.util.Log;
+
+import org.mythtv.leanfront.MyApplication;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of responses from read-only service endpoints that seldom change,
+ * keyed by URL. XmlNode.fetch uses it for GET requests to the endpoints in
+ * ENDPOINT_TTLS.
+ *
+ * Entries are kept in memory and on disk, each with LRU eviction. An entry
+ * younger than its endpoint TTL is used without contacting the backend.
+ * An older one is revalidated with If-None-Match / If-Modified-Since, and
+ * is still used if the backend cannot be reached.
+ */
+public class ResponseCache {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "ResponseCache";
+
+    // Endpoint path and time to live in milliseconds
+    private static final Object[][] ENDPOINT_TTLS = {
+            {"/Guide/GetChannelGroupList", 60 * 60 * 1000L},
+            {"/Dvr/GetRecGroupList", 10 * 60 * 1000L},
+            {"/Dvr/GetPlayGroupList", 60 * 60 * 1000L},
+            {"/Dvr/GetRecStorageGroupList", 60 * 60 * 1000L},
+            {"/Dvr/GetInputList", 60 * 60 * 1000L},
+            {"/Dvr/wsdl", 24 * 60 * 60 * 1000L},
+    };
+    private static final int MAX_MEMORY_ENTRIES = 32;
+    private static final long MAX_DISK_BYTES = 4 * 1024 * 1024;
+    private static final int FILE_VERSION = 1;
+
+    private static ResponseCache singleton;
+
+    private final File mDir;
+    private final LinkedHashMap<String, Entry> mMemory =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_MEMORY_ENTRIES;
+                }
+            };
+    private int mHits;
+    private int mRevalidated;
+    private int mMisses;
+
+    private static class Entry {
+        String url;
+        long fetchTime;
+        String eTag;
+        String lastModified;
+        byte[] body;
+    }
+
+    /**
+     * @param dir Directory for the disk tier, created if needed
+     */
+    public ResponseCache(File dir) {
+        mDir = dir;
+        if (!mDir.isDirectory() && !mDir.mkdirs())
+            Log.e(TAG, CLASS + " Cannot create " + mDir);
+    }
+
+    public static synchronized ResponseCache getInstance() {
+        if (singleton == null)
+            singleton = new ResponseCache(new File(MyApplication.getAppContext().getCacheDir(),
+                    "responses"));
+        return singleton;
+    }
+
+    /**
+     * @return Time to live for the url, 0 if it is not cacheable
+     */
+    public static long getTtl(String urlString) {
+        int pathEnd = urlString.indexOf('?');
+        if (pathEnd < 0)
+            pathEnd = urlString.length();
+        for (Object[] endpoint : ENDPOINT_TTLS) {
+            String path = (String) endpoint[0];
+            if (urlString.startsWith(path, pathEnd - path.length()))
+                return (Long) endpoint[1];
+        }
+        return 0;
+    }
+
+    /**
+     * Get the parsed response for a url, from the cache if it is fresh,
+     * otherwise from the backend.
+     */
+    public XmlNode fetch(String urlString) throws IOException, XmlPullParserException {
+        long ttl = getTtl(urlString);
+        Entry entry = get(urlString);
+        long now = System.currentTimeMillis();
+        if (entry != null && now - entry.fetchTime < ttl) {
+            synchronized (this) {
+                mHits++;
+            }
+            return XmlNode.parseStream(new ByteArrayInputStream(entry.body));
+        }
+        try {
+            entry = download(urlString, entry);
+        } catch (IOException e) {
+            if (entry == null)
+                throw e;
+            Log.w(TAG, CLASS + " Using stale response for " + urlString + " " + e);
+        }
+        return XmlNode.parseStream(new ByteArrayInputStream(entry.body));
+    }
+
+    private Entry download(String urlString, Entry entry) throws IOException {
+        BackendCache bCache = BackendCache.getInstance();
+        HttpURLConnection urlConnection = null;
+        InputStream is = null;
+        try {
+            urlConnection = BackendHttpClient.open(urlString, null);
+            if (entry != null) {
+                if (entry.eTag != null)
+                    urlConnection.setRequestProperty("If-None-Match", entry.eTag);
+                if (entry.lastModified != null)
+                    urlConnection.setRequestProperty("If-Modified-Since", entry.lastModified);
+            }
+            Log.i(TAG, CLASS + " URL: " + urlString);
+            int code = urlConnection.getResponseCode();
+            Log.i(TAG, CLASS + " Response: " + code
+                    + " " + urlConnection.getResponseMessage());
+            bCache.isConnected = true;
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+                entry.fetchTime = System.currentTimeMillis();
+                synchronized (this) {
+                    mRevalidated++;
+                }
+            }
+            else {
+                is = BackendHttpClient.getInputStream(urlConnection);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int leng;
+                while ((leng = is.read(buffer)) != -1)
+                    out.write(buffer, 0, leng);
+                Entry newEntry = new Entry();
+                newEntry.url = urlString;
+                newEntry.fetchTime = System.currentTimeMillis();
+                newEntry.eTag = urlConnection.getHeaderField("ETag");
+                newEntry.lastModified = urlConnection.getHeaderField("Last-Modified");
+                newEntry.body = out.toByteArray();
+                entry = newEntry;
+                synchronized (this) {
+                    mMisses++;
+                }
+            }
+            put(entry);
+            return entry;
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            bCache.isConnected = false;
+            throw e;
+        } finally {
+            BackendHttpClient.release(urlConnection, is);
+        }
+    }
+
+    private synchronized Entry get(String urlString) {
+        Entry entry = mMemory.get(urlString);
+        if (entry == null) {
+            entry = readFile(urlString);
+            if (entry != null)
+                mMemory.put(urlString, entry);
+        }
+        return entry;
+    }
+
+    private synchronized void put(Entry entry) {
+        mMemory.put(entry.url, entry);
+        writeFile(entry);
+        trimDisk();
+    }
+
+    /**
+     * Remove cached responses whose url contains the path, for use when
+     * the client itself has changed the data behind an endpoint.
+     */
+    public synchronized void invalidate(String path) {
+        Iterator<Map.Entry<String, Entry>> it = mMemory.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getKey().contains(path))
+                it.remove();
+        }
+        File[] files = mDir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            Entry entry = readFile(file);
+            if (entry == null || entry.url.contains(path))
+                file.delete();
+        }
+    }
+
+    public synchronized void clear() {
+        mMemory.clear();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+    }
+
+    public synchronized String getStats() {
+        return "hits " + mHits + ", revalidated " + mRevalidated + ", misses " + mMisses;
+    }
+
+    private File getFile(String urlString) {
+        // Two different hashes make a collision very unlikely, and the
+        // url is stored in the file and checked on read.
+        long hash = 1125899906842597L;
+        for (int ix = 0; ix < urlString.length(); ix++)
+            hash = 31 * hash + urlString.charAt(ix);
+        return new File(mDir, Long.toHexString(hash)
+                + Integer.toHexString(urlString.hashCode()));
+    }
+
+    private Entry readFile(String urlString) {
+        File file = getFile(urlString);
+        if (!file.exists())
+            return null;
+        Entry entry = readFile(file);
+        if (entry == null || !urlString.equals(entry.url))
+            return null;
+        file.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    private Entry readFile(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != FILE_VERSION)
+                return null;
+            Entry entry = new Entry();
+            entry.url = in.readUTF();
+            entry.fetchTime = in.readLong();
+            entry.eTag = in.readBoolean() ? in.readUTF() : null;
+            entry.lastModified = in.readBoolean() ? in.readUTF() : null;
+            entry.body = new byte[in.readInt()];
+            in.readFully(entry.body);
+            return entry;
+        } catch (IOException e) {
+            Log.w(TAG, CLASS + " Discarding " + file + " " + e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeFile(Entry entry) {
+        File file = getFile(entry.url);
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(entry.url);
+            out.writeLong(entry.fetchTime);
+            out.writeBoolean(entry.eTag != null);
+            if (entry.eTag != null)
+                out.writeUTF(entry.eTag);
+            out.writeBoolean(entry.lastModified != null);
+            if (entry.lastModified != null)
+                out.writeUTF(entry.lastModified);
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+        } catch (IOException e) {
+            Log.e(TAG, CLASS + " Cannot write " + file, e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file))
+            temp.delete();
+    }
+
+    // Delete least recently used files until the total size is within limit
+    private void trimDisk() {
+        File[] files = mDir.listFiles();
+        if (files == null)
+            return;
+        long total = 0;
+        for (File file : files)
+            total += file.length();
+        if (total <= MAX_DISK_BYTES)
+            return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_DISK_BYTES)
+                break;
+            total -= file.length();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.OptIn;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.database.StandaloneDatabaseProvider;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.FileDataSource;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.datasource.cache.CacheDataSink;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.ContentMetadata;
+import androidx.media3.datasource.cache.ContentMetadataMutations;
+import androidx.media3.datasource.cache.LeastRecentlyUsedCacheEvictor;
+import androidx.media3.datasource.cache.SimpleCache;
+
+import org.mythtv.leanfront.MyApplication;
+import org.mythtv.leanfront.model.Settings;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * On-disk cache of recording data read during playback, so that seeking
+ * back or watching a part again is served from the device instead of
+ * opening a new range request to the backend.
+ *
+ * Data is stored in files of SEGMENT_SIZE bytes, and the least recently
+ * used are removed when the total goes over pref_playback_cache_mb.
+ * A size of 0 turns the cache off and deletes it.
+ */
+@OptIn(markerClass = UnstableApi.class)
+public class SegmentCache {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "SegmentCache";
+    private static final String DIRECTORY = "playback";
+    public static final long SEGMENT_SIZE = 2 * 1024 * 1024;
+    // Metadata key for the length of the file on the backend when it
+    // was last opened
+    private static final String KEY_BACKEND_LENGTH = "lf-backend-len";
+
+    private static SimpleCache sCache;
+    private static StandaloneDatabaseProvider sDatabaseProvider;
+    private static long sMaxBytes;
+
+    /**
+     * The cache, set up with the current size limit.
+     *
+     * @return null if the cache is turned off
+     */
+    public static synchronized Cache getCache() {
+        long maxBytes = Settings.getInt("pref_playback_cache_mb") * 1024L * 1024L;
+        if (sCache != null && maxBytes == sMaxBytes)
+            return sCache;
+        Context context = MyApplication.getAppContext();
+        File dir = new File(context.getCacheDir(), DIRECTORY);
+        if (sDatabaseProvider == null)
+            sDatabaseProvider = new StandaloneDatabaseProvider(context);
+        // The size limit is fixed when the cache is created, so after
+        // a change in settings start again.
+        if (sCache != null) {
+            sCache.release();
+            sCache = null;
+        }
+        sMaxBytes = maxBytes;
+        if (maxBytes <= 0) {
+            if (dir.exists()) {
+                SimpleCache.delete(dir, sDatabaseProvider);
+                Log.i(TAG, CLASS + " Cache deleted");
+            }
+            return null;
+        }
+        sCache = new SimpleCache(dir,
+                new LeastRecentlyUsedCacheEvictor(maxBytes), sDatabaseProvider);
+        Log.i(TAG, CLASS + " Cache size " + sCache.getCacheSpace()
+                + " limit " + maxBytes);
+        return sCache;
+    }
+
+    /**
+     * Wrap a data source so that it reads through the cache.
+     */
+    public static DataSource wrap(Cache cache, DataSource upstream,
+                                  CacheDataSource.EventListener listener) {
+        return new CacheDataSource(cache, upstream, new FileDataSource(),
+                new CacheDataSink(cache, SEGMENT_SIZE),
+                CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR, listener);
+    }
+
+    /**
+     * Remove the cached data of a file if it has been replaced on the
+     * backend, for example a recording transcoded to remove commercials.
+     * The cache key is the url, which stays the same.
+     *
+     * @param backendLength Length of the file on the backend, or -1 if
+     *                      not known
+     * @param growing The file may still be growing, so only a shorter
+     *                file means it was replaced
+     */
+    public static void checkReplaced(Cache cache, String key, long backendLength,
+                                     boolean growing) {
+        if (backendLength < 0)
+            return;
+        long priorLength = cache.getContentMetadata(key).get(KEY_BACKEND_LENGTH, C.LENGTH_UNSET);
+        if (priorLength == backendLength)
+            return;
+        if (priorLength != C.LENGTH_UNSET
+                && (backendLength < priorLength || !growing)) {
+            Log.i(TAG, CLASS + " File length changed from " + priorLength
+                    + " to " + backendLength + ", removing cached data: " + key);
+            cache.removeResource(key);
+        }
+        ContentMetadataMutations mutations = new ContentMetadataMutations();
+        mutations.set(KEY_BACKEND_LENGTH, backendLength);
+        try {
+            cache.applyContentMetadataMutations(key, mutations);
+        } catch (IOException e) {
+            Log.e(TAG, CLASS + " Failed to update backend length.", e);
+        }
+    }
+
+    /**
+     * Length of the content as last reported by the backend,
+     * or C.LENGTH_UNSET.
+     */
+    public static long getLength(Cache cache, String key) {
+        return ContentMetadata.getContentLength(cache.getContentMetadata(key));
+    }
+
+    /**
+     * Set or remove the length of the content. The cache stops reading
+     * at the length it has, so for a recording that is still growing it
+     * must be updated or removed before reading past it.
+     *
+     * @param length New length, or C.LENGTH_UNSET to remove it
+     */
+    public static void setLength(Cache cache, String key, long length) {
+        if (getLength(cache, key) == length)
+            return;
+        ContentMetadataMutations mutations = new ContentMetadataMutations();
+        if (length == C.LENGTH_UNSET)
+            mutations.remove(ContentMetadata.KEY_CONTENT_LENGTH);
+        else
+            ContentMetadataMutations.setContentLength(mutations, length);
+        try {
+            cache.applyContentMetadataMutations(key, mutations);
+        } catch (IOException e) {
+            Log.e(TAG, CLASS + " Failed to update length.", e);
+        }
+    }
+}
@@ -116,8 +116,39 @@ public final class VideoContract {
         public static final String COLUMN_CHANID = "chanid";
         public static final String COLUMN_CHANNUM = "channum";
         public static final String COLUMN_CALLSIGN = "callsign";
+        // LastModified from the backend, if supplied
+        public static final String COLUMN_LASTMOD = "lastmod";
+        // Hash of all values in the row, used to find changed rows on refresh
+        public static final String COLUMN_SIGNATURE = "signature";
+        // Sort keys, worked out when rows are built so that the main screen
+        // queries can be satisfied from indexes.
+        // rectype, except channels sort with recordings
+        public static final String COLUMN_TYPESORT = "typesort";
+        // Videos only, upper case filename without leading articles
+        public static final String COLUMN_FILESORT = "filesort";
+        // Numeric values of season, episode and channum
+        public static final String COLUMN_SEASONNUM = "seasonnum";
+        public static final String COLUMN_EPISODENUM = "episodenum";
+        public static final String COLUMN_CHANNUMSORT = "channumsort";
     } // end of VideoEntry
 
+    /* Full text index of the video table. It is an external content
+       table, kept in step with the video table by triggers. The columns
+       have the names of the video table columns they index. */
+    public static final class VideoSearchEntry {
+        public static final String TABLE_NAME = "videosearch";
+        // Row id in the full text table is the video table _id
+        public static final String COLUMN_DOCID = "docid";
+        public static final String[] COLUMNS = {
+                VideoEntry.COLUMN_TITLE,
+                VideoEntry.COLUMN_SUBTITLE,
+                VideoEntry.COLUMN_DESC,
+                VideoEntry.COLUMN_CALLSIGN,
+                VideoEntry.COLUMN_SEASON,
+                VideoEntry.COLUMN_EPISODE
+        };
+    }
+
         /* Inner class that defines the status table */
     public static class StatusEntry implements BaseColumns {
         public static final String TABLE_NAME = "videostatus";
@@ -130,4 +161,48 @@ public final class VideoContract {
         public static final String COLUMN_SHOW_RECENT = "show_recent";
     }
 
+    /* Program guide tables. These are a cache of the backend guide
+       and are recreated on any upgrade. Times are milliseconds since epoch. */
+    public static class ProgramEntry implements BaseColumns {
+        public static final String TABLE_NAME = "program";
+        public static final String COLUMN_CHANID = "chanid";
+        public static final String COLUMN_STARTTIME = "starttime";
+        public static final String COLUMN_ENDTIME = "endtime";
+        public static final String COLUMN_TITLE = "title";
+        public static final String COLUMN_SUBTITLE = "subtitle";
+        public static final String COLUMN_SEASON = "season";
+        public static final String COLUMN_EPISODE = "episode";
+        public static final String COLUMN_RECSTATUS = "recstatus";
+    }
+
+    // Channels of each channel group in guide order
+    public static class GuideChannelEntry implements BaseColumns {
+        public static final String TABLE_NAME = "guidechannel";
+        public static final String COLUMN_GROUPID = "groupid";
+        public static final String COLUMN_POSITION = "position";
+        public static final String COLUMN_CHANID = "chanid";
+        public static final String COLUMN_CHANNUM = "channum";
+        public static final String COLUMN_CALLSIGN = "callsign";
+        public static final String COLUMN_CHANDETAILS = "chandetails";
+    }
+
+    // Time ranges of each channel group that are in the program table
+    public static class GuideRangeEntry implements BaseColumns {
+        public static final String TABLE_NAME = "guiderange";
+        public static final String COLUMN_GROUPID = "groupid";
+        public static final String COLUMN_STARTTIME = "starttime";
+        public static final String COLUMN_ENDTIME = "endtime";
+        public static final String COLUMN_FETCHED = "fetched";
+    }
+
+    // Full text index of program titles, for guide search
+    public static final class ProgramSearchEntry {
+        public static final String TABLE_NAME = "programsearch";
+        // Row id in the full text table is the program table _id
+        public static final String COLUMN_DOCID = "docid";
+        public static final String[] COLUMNS = {
+                ProgramEntry.COLUMN_TITLE
+        };
+    }
+
 }
@@ -24,9 +24,8 @@
 
 package org.mythtv.leanfront.data;
 
-import android.annotation.SuppressLint;
-import android.content.ContentValues;
 import android.content.Context;
+import android.util.Log;
 
 import org.mythtv.leanfront.MyApplication;
 import org.mythtv.leanfront.R;
@@ -38,26 +37,28 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The VideoDbBuilder is used to grab a XML file from a server and parse the data
  * to be placed into a local database
  */
-@SuppressLint("SimpleDateFormat")
 public class VideoDbBuilder {
     public static final String[] XMLTAGS_PROGRAM = {"Programs", "Program"};
     public static final String[] XMLTAGS_ARTINFO = {"Artwork", "ArtworkInfos", "ArtworkInfo"};
     public static final String[] XMLTAGS_CHANNELNAME = {"Channel", "ChannelName"};
     public static final String[] XMLTAGS_CHANID = {"Channel", "ChanId"};
     public static final String[] XMLTAGS_CALLSIGN = {"Channel", "CallSign"};
+    private static final String[] XMLTAGS_ARTINFOS = {"ArtworkInfos", "ArtworkInfo"};
 
     public static final String XMLTAG_RECORDING = "Recording";
+    public static final String XMLTAG_CHANNEL = "Channel";
+    public static final String XMLTAG_ARTWORK = "Artwork";
     public static final String XMLTAG_TITLE = "Title";
     public static final String XMLTAG_DESCRIPTION = "Description";
     public static final String XMLTAG_STORAGEGROUP = "StorageGroup";
@@ -81,16 +82,21 @@ public class VideoDbBuilder {
     public static final String XMLTAG_VIDEOPROPS = "VideoProps";
     public static final String XMLTAG_VIDEOPROPNAMES = "VideoPropNames";
     public static final String XMLTAG_HOSTNAME = "HostName";
+    public static final String XMLTAG_LASTMODIFIED = "LastModified";
 
     // Specific to video list
     public static final String[] XMLTAGS_VIDEO = {"VideoMetadataInfos", "VideoMetadataInfo"};
     public static final String XMLTAG_RELEASEDATE = "ReleaseDate";
     public static final String XMLTAG_ID = "Id";
     public static final String XMLTAG_WATCHED = "Watched";
+    public static final String XMLTAG_PARENTAL = "ParentalLevel";
     public static final String VALUE_WATCHED = (Integer.valueOf(Video.FL_WATCHED)).toString();
 
     // Channels
     private static final String[] XMLTAGS_CHANNEL = {"ChannelInfos", "ChannelInfo"};
+
+    // Record element for each phase, used when streaming a list
+    private static final String[] RECORD_TAGS = {XMLTAGS_PROGRAM[1], XMLTAGS_VIDEO[1], XMLTAGS_CHANNEL[1]};
     public static final String XMLTAG_CHANID = "ChanId";
     public static final String XMLTAG_CHANNUM = "ChanNum";
     public static final String XMLTAG_CALLSIGN = "CallSign";
@@ -104,10 +110,6 @@ public class VideoDbBuilder {
     private String mMasterServer;
 
 
-    // 2018-05-23T00:00:00Z
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'Z");
-    private static final SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd");
-
     public VideoDbBuilder(Context context) {
         if (!XmlNode.isSetupDone())
             return;
@@ -138,17 +140,80 @@ public class VideoDbBuilder {
      * Fetches data representing videos from a server and populates that in a database
      *
      * @param url The location of the video list
+     * @param timings If not null, stage times are added to it
      */
-    public int fetch(String url, int phase, List<ContentValues> videosToInsert)
+    public int fetch(String url, int phase, List<VideoRow> videosToInsert,
+                     FetchTimings timings)
             throws IOException, XmlPullParserException {
         if (!XmlNode.isSetupDone())
             return 0;
-        XmlNode videoData = XmlNode.fetch(url, null);
-        buildMedia(videoData, phase, -1, videosToInsert);
-        return videoData.getInt("TotalAvailable", 0);
+        // Records are built one at a time as they are parsed, so that the
+        // full XML document is never held in memory.
+        long startTime = System.currentTimeMillis();
+        int startSize = videosToInsert.size();
+        String recordTag = RECORD_TAGS[phase];
+        int maxparental = Settings.getInt("pref_video_parental");
+        String baseMasterUrl = XmlNode.mythApiUrl(null, null);
+        FieldBuffers buffers = new FieldBuffers();
+        XmlNode summary = XmlNode.fetchRecords(url, null, recordTag,
+                (record) -> {
+                    long buildStart = System.nanoTime();
+                    if (phase == 2)
+                        loadChannels(record, videosToInsert);
+                    else
+                        buildMedia(record, phase, -1, videosToInsert, maxparental,
+                                baseMasterUrl, buffers);
+                    if (timings != null)
+                        timings.buildNanos.addAndGet(System.nanoTime() - buildStart);
+                }, timings);
+        int loaded = videosToInsert.size() - startSize;
+        if (timings != null) {
+            timings.pages.incrementAndGet();
+            timings.records.addAndGet(loaded);
+        }
+        Log.i(TAG, CLASS + " Loaded " + loaded + " " + recordTag
+                + " records in " + (System.currentTimeMillis() - startTime) + " ms");
+        if (summary == null)
+            return 0;
+        return summary.getInt("TotalAvailable", 0);
     }
 
     static final String[] articles = MyApplication.getAppContext().getResources().getStringArray(R.array.title_sort_articles);
+    private static final Pattern LEADING_NUMBER =
+            Pattern.compile("\\s*[-+]?(\\d+(\\.\\d*)?|\\.\\d+)([eE][-+]?\\d+)?");
+
+    /**
+     * Numeric value of the number at the start of a string, 0 if there is
+     * none, the same as SQLite gives for CAST(value AS REAL) or value+0.
+     */
+    static Double leadingNumber(String value) {
+        if (value == null)
+            return null;
+        Matcher matcher = LEADING_NUMBER.matcher(value);
+        if (!matcher.lookingAt())
+            return 0.0;
+        try {
+            return Double.valueOf(matcher.group());
+        } catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+
+    /**
+     * Sort key for a video filename, upper case without articles at the
+     * start of the name or of any directory.
+     */
+    static String makeFileSort(String fileName) {
+        if (fileName == null)
+            return null;
+        String sort = "/" + fileName.toUpperCase(Locale.ROOT);
+        for (String article : articles) {
+            if (article != null && article.length() > 0)
+                sort = sort.replace("/" + article + " ", "/");
+        }
+        return sort;
+    }
+
     /**
      * Takes the contents of an XML object and populates the database
      *
@@ -156,25 +221,106 @@ public class VideoDbBuilder {
      * @param phase   0 for recordings, 1 for videos, 2 for channels
      * @param ixSingle if this is -1 process all records, otherwise process the specified single record
      */
-    public void buildMedia(XmlNode xmlFull, int phase, int ixSingle, List<ContentValues> videosToInsert)
+    public void buildMedia(XmlNode xmlFull, int phase, int ixSingle, List<VideoRow> videosToInsert)
+            throws IOException, XmlPullParserException {
+        buildMedia(xmlFull, phase, ixSingle, videosToInsert,
+                Settings.getInt("pref_video_parental"), XmlNode.mythApiUrl(null, null));
+    }
+
+    // Child elements read by buildMedia. One table serves the Program,
+    // Recording, Channel and ArtworkInfo elements, each read with
+    // XmlNode.readFields into its own array indexed by the F_ constants.
+    private static final XmlNode.FieldTable FIELDS = new XmlNode.FieldTable(
+            XMLTAG_TITLE, XMLTAG_SUBTITLE, XMLTAG_DESCRIPTION, XMLTAG_SEASON,
+            XMLTAG_EPISODE, XMLTAG_AIRDATE, XMLTAG_STARTTIME, XMLTAG_PROGFLAGS,
+            XMLTAG_VIDEOPROPS, XMLTAG_VIDEOPROPNAMES, XMLTAG_LASTMODIFIED,
+            XMLTAG_FILESIZE, XMLTAG_RELEASEDATE, XMLTAG_WATCHED, XMLTAG_PARENTAL,
+            XMLTAG_RECORDING, XMLTAG_CHANNEL, XMLTAG_ARTWORK,
+            XMLTAG_RECORDID, XMLTAG_RECGROUP, XMLTAG_PLAYGROUP, XMLTAG_STORAGEGROUP,
+            XMLTAG_STARTTS, XMLTAG_ENDTS, XMLTAG_RECORDEDID, XMLTAG_ID,
+            XMLTAG_HOSTNAME, XMLTAG_FILENAME,
+            XMLTAG_CHANNELNAME, XMLTAG_CHANID, XMLTAG_CALLSIGN,
+            XMLTAG_ARTTYPE, XMLTAG_ARTURL);
+    private static final int F_TITLE = 0;
+    private static final int F_SUBTITLE = 1;
+    private static final int F_DESCRIPTION = 2;
+    private static final int F_SEASON = 3;
+    private static final int F_EPISODE = 4;
+    private static final int F_AIRDATE = 5;
+    private static final int F_STARTTIME = 6;
+    private static final int F_PROGFLAGS = 7;
+    private static final int F_VIDEOPROPS = 8;
+    private static final int F_VIDEOPROPNAMES = 9;
+    private static final int F_LASTMODIFIED = 10;
+    private static final int F_FILESIZE = 11;
+    private static final int F_RELEASEDATE = 12;
+    private static final int F_WATCHED = 13;
+    private static final int F_PARENTAL = 14;
+    private static final int F_RECORDING = 15;
+    private static final int F_CHANNEL = 16;
+    private static final int F_ARTWORK = 17;
+    private static final int F_RECORDID = 18;
+    private static final int F_RECGROUP = 19;
+    private static final int F_PLAYGROUP = 20;
+    private static final int F_STORAGEGROUP = 21;
+    private static final int F_STARTTS = 22;
+    private static final int F_ENDTS = 23;
+    private static final int F_RECORDEDID = 24;
+    private static final int F_ID = 25;
+    private static final int F_HOSTNAME = 26;
+    private static final int F_FILENAME = 27;
+    private static final int F_CHANNELNAME = 28;
+    private static final int F_CHANID = 29;
+    private static final int F_CALLSIGN = 30;
+    private static final int F_ARTTYPE = 31;
+    private static final int F_ARTURL = 32;
+
+    // Arrays filled by readFields, reused for each record of a page.
+    // Pages are built on several threads, so each build has its own.
+    private static class FieldBuffers {
+        final XmlNode[] program = new XmlNode[FIELDS.size()];
+        final XmlNode[] recording = new XmlNode[FIELDS.size()];
+        final XmlNode[] channel = new XmlNode[FIELDS.size()];
+        final XmlNode[] art = new XmlNode[FIELDS.size()];
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null)
+            return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private void buildMedia(XmlNode xmlFull, int phase, int ixSingle, List<VideoRow> videosToInsert,
+                            int maxparental, String baseMasterUrl)
+            throws IOException, XmlPullParserException {
+        buildMedia(xmlFull, phase, ixSingle, videosToInsert, maxparental, baseMasterUrl,
+                new FieldBuffers());
+    }
+
+    private void buildMedia(XmlNode xmlFull, int phase, int ixSingle, List<VideoRow> videosToInsert,
+                            int maxparental, String baseMasterUrl, FieldBuffers buffers)
             throws IOException, XmlPullParserException {
         String[] tagsProgram = null;
-        String tagRecordedId = null;
+        int fieldRecordedId = -1;
         if (phase == 0) {  //Recordings
             tagsProgram = XMLTAGS_PROGRAM;
-            tagRecordedId = XMLTAG_RECORDEDID;
+            fieldRecordedId = F_RECORDEDID;
         }
         if (phase == 1) {  //Videos
             tagsProgram = XMLTAGS_VIDEO;
-            tagRecordedId = XMLTAG_ID;
+            fieldRecordedId = F_ID;
         }
         if (phase == 2) { // Channels
             loadChannels(xmlFull, videosToInsert);
             return;
         }
-        int maxparental= Settings.getInt("pref_video_parental");
-        // Art urls have to be off main backend
-        String baseMasterUrl = XmlNode.mythApiUrl(null, null);
+        XmlNode[] program = buffers.program;
+        XmlNode[] art = buffers.art;
+        // Art urls have to be off main backend (baseMasterUrl)
         XmlNode programNode = null;
         for (; ; ) {
             if (programNode == null) {
@@ -192,7 +338,8 @@ public class VideoDbBuilder {
                 programNode = programNode.getNextSibling();
             if (programNode == null)
                 break;
-            XmlNode recordingNode = null;
+            programNode.readFields(FIELDS, program);
+            XmlNode[] recording = null;
             int rectype = -1;
             String recGroup = null;
             String playGroup = null;
@@ -211,64 +358,72 @@ public class VideoDbBuilder {
             long fileSize = 0;
             if (phase == 0) { // Recordings
                 rectype = VideoContract.VideoEntry.RECTYPE_RECORDING;
-                 fileSize = programNode.getLong(XMLTAG_FILESIZE,0);
-                recordingNode = programNode.getNode(XMLTAG_RECORDING);
-                String recordId = recordingNode.getString(XMLTAG_RECORDID);
+                fileSize = parseLong(XmlNode.textOf(program[F_FILESIZE]), 0);
+                recording = buffers.recording;
+                XmlNode recordingNode = program[F_RECORDING];
+                if (recordingNode == null)
+                    Arrays.fill(recording, null);
+                else
+                    recordingNode.readFields(FIELDS, recording);
+                String recordId = XmlNode.textOf(recording[F_RECORDID]);
                 // Skip dummy LiveTV entry
                 if (fileSize == 0 && "0".equals(recordId))
                     continue;
-                recGroup = recordingNode.getString(XMLTAG_RECGROUP);
+                recGroup = XmlNode.textOf(recording[F_RECGROUP]);
                 if (recGroup == null || recGroup.length() == 0)
                     recGroup = "Default";
-                playGroup = recordingNode.getString(XMLTAG_PLAYGROUP);
-                storageGroup = recordingNode.getString(XMLTAG_STORAGEGROUP);
-                channel = programNode.getString(XMLTAGS_CHANNELNAME);
-                chanid = programNode.getString(XMLTAGS_CHANID);
-                callsign = programNode.getString(XMLTAGS_CALLSIGN);
-                airdate = programNode.getString(XMLTAG_AIRDATE);
-                starttime = programNode.getString(XMLTAG_STARTTIME);
-
-                String startTS = recordingNode.getString(XMLTAG_STARTTS);
-                endtime = recordingNode.getString(XMLTAG_ENDTS);
-                long startTimeSecs = 0;
-                try {
-                    Date dateStart = dateFormat.parse(startTS + "+0000");
-                    Date dateEnd = dateFormat.parse(endtime + "+0000");
-                    startTimeSecs = dateStart.getTime();
-                    duration = (dateEnd.getTime() - startTimeSecs);
-                } catch (ParseException e) {
-                    e.printStackTrace();
+                playGroup = XmlNode.textOf(recording[F_PLAYGROUP]);
+                storageGroup = XmlNode.textOf(recording[F_STORAGEGROUP]);
+                XmlNode channelNode = program[F_CHANNEL];
+                if (channelNode != null) {
+                    XmlNode[] channelFields = buffers.channel;
+                    channelNode.readFields(FIELDS, channelFields);
+                    channel = XmlNode.textOf(channelFields[F_CHANNELNAME]);
+                    chanid = XmlNode.textOf(channelFields[F_CHANID]);
+                    callsign = XmlNode.textOf(channelFields[F_CALLSIGN]);
+                }
+                airdate = XmlNode.textOf(program[F_AIRDATE]);
+                starttime = XmlNode.textOf(program[F_STARTTIME]);
+
+                String startTS = XmlNode.textOf(recording[F_STARTTS]);
+                endtime = XmlNode.textOf(recording[F_ENDTS]);
+                long startTimeSecs = DateCodec.parseUtc(startTS);
+                long endTimeSecs = DateCodec.parseUtc(endtime);
+                if (startTimeSecs == DateCodec.INVALID || endTimeSecs == DateCodec.INVALID) {
+                    Log.e(TAG, CLASS + " Invalid recording time " + startTS + " " + endtime);
+                    startTimeSecs = 0;
                 }
+                else
+                    duration = endTimeSecs - startTimeSecs;
                 // if airdate missing default it to starttime.
                 if (starttime != null && airdate == null
                         && startTimeSecs != 0) {
                     TimeZone tz = TimeZone.getDefault();
-                    startTimeSecs += tz.getOffset(startTimeSecs);
-                    airdate = dbDateFormat.format(new Date(startTimeSecs));
+                    airdate = DateCodec.formatDate(startTimeSecs + tz.getOffset(startTimeSecs));
                 }
-                progflags = programNode.getString(XMLTAG_PROGFLAGS);
-                videoProps = programNode.getString(XMLTAG_VIDEOPROPS);
-                videoPropNames = programNode.getString(XMLTAG_VIDEOPROPNAMES);
+                progflags = XmlNode.textOf(program[F_PROGFLAGS]);
+                videoProps = XmlNode.textOf(program[F_VIDEOPROPS]);
+                videoPropNames = XmlNode.textOf(program[F_VIDEOPROPNAMES]);
             }
             if (phase == 1) { // Videos
                 if (ixSingle < 0) {
-                    int parental = programNode.getInt("ParentalLevel", 1);
+                    int parental = (int) parseLong(XmlNode.textOf(program[F_PARENTAL]), 1);
                     if (parental > maxparental)
                         continue;
                 }
                 rectype = VideoContract.VideoEntry.RECTYPE_VIDEO;
-                recordingNode = programNode;
+                recording = program;
                 recGroup = null;
                 playGroup = null;
                 storageGroup = "Videos";
                 channel = null;
-                airdate = programNode.getString(XMLTAG_RELEASEDATE);
+                airdate = XmlNode.textOf(program[F_RELEASEDATE]);
                 if (airdate != null && airdate.length() > 10)
                     airdate = airdate.substring(0, 10);
                 if (airdate != null)
                     // Default starttime for videos to the airdate 12noon UCT
                     starttime = airdate + "T12:00:00Z";
-                String watched = programNode.getString(XMLTAG_WATCHED);
+                String watched = XmlNode.textOf(program[F_WATCHED]);
                 if ("true".equals(watched))
                     progflags = VALUE_WATCHED;
                 else
@@ -288,33 +443,36 @@ public class VideoDbBuilder {
             String prodYear = null;
             String baseHostUrl = null;
             if (phase == 0 || phase == 1) {
-                recordedid = recordingNode.getString(tagRecordedId);
-                title = programNode.getString(XMLTAG_TITLE);
+                recordedid = XmlNode.textOf(recording[fieldRecordedId]);
+                title = XmlNode.textOf(program[F_TITLE]);
+                String recHostName = XmlNode.textOf(recording[F_HOSTNAME]);
                 // These next three lines cause chaos.!!!
                 if (phase == 0 && mBackendOverride)  // Recordings
                     hostName = mMasterServer;
                 else
-                    hostName = recordingNode.getString(XMLTAG_HOSTNAME);
-                subtitle = programNode.getString(XMLTAG_SUBTITLE);
-                description = programNode.getString(XMLTAG_DESCRIPTION);
-                videoFileName = recordingNode.getString(XMLTAG_FILENAME);
+                    hostName = recHostName;
+                subtitle = XmlNode.textOf(program[F_SUBTITLE]);
+                description = XmlNode.textOf(program[F_DESCRIPTION]);
+                videoFileName = XmlNode.textOf(recording[F_FILENAME]);
                 if (videoFileName == null)
                     continue;
                 baseUrl = XmlNode.mythApiUrl(hostName, null);
-                baseHostUrl = XmlNode.mythApiUrl(recordingNode.getString(XMLTAG_HOSTNAME), null);
+                baseHostUrl = XmlNode.mythApiUrl(recHostName, null);
                 videoUrlPath = "/Content/GetFile?StorageGroup="
                         + storageGroup + "&FileName=/" + URLEncoder.encode(videoFileName, "UTF-8");
                 videoUrl = baseUrl + videoUrlPath;
                 XmlNode artInfoNode = null;
-                for (; ; ) {
+                XmlNode artworkNode = program[F_ARTWORK];
+                while (artworkNode != null) {
                     if (artInfoNode == null)
-                        artInfoNode = programNode.getNode(XMLTAGS_ARTINFO, 0);
+                        artInfoNode = artworkNode.getNode(XMLTAGS_ARTINFOS, 0);
                     else
                         artInfoNode = artInfoNode.getNextSibling();
                     if (artInfoNode == null)
                         break;
-                    String artType = artInfoNode.getString(XMLTAG_ARTTYPE);
-                    String artUrl = baseMasterUrl + artInfoNode.getString(XMLTAG_ARTURL);
+                    artInfoNode.readFields(FIELDS, art);
+                    String artType = XmlNode.textOf(art[F_ARTTYPE]);
+                    String artUrl = baseMasterUrl + XmlNode.textOf(art[F_ARTURL]);
                     int equ = artUrl.lastIndexOf('=');
                     if (equ > 0) {
                         String fileName = artUrl.substring(equ + 1);
@@ -350,8 +508,8 @@ public class VideoDbBuilder {
                 else
                     cardImageURL = coverArtUrl;
             }
-            String season = programNode.getString(XMLTAG_SEASON);
-            String episode = programNode.getString(XMLTAG_EPISODE);
+            String season = XmlNode.textOf(program[F_SEASON]);
+            String episode = XmlNode.textOf(program[F_EPISODE]);
 
             if (title == null || title.length() == 0)
                 title = " ";
@@ -380,7 +538,7 @@ public class VideoDbBuilder {
             titlematch = titlematch.replaceFirst("\\([^ ]*\\)$", "");
             titlematch = titlematch.trim();
 
-            ContentValues videoValues = new ContentValues();
+            VideoRow videoValues = new VideoRow();
             videoValues.put(VideoContract.VideoEntry.COLUMN_RECTYPE, rectype);
             videoValues.put(VideoContract.VideoEntry.COLUMN_TITLE, title);
             videoValues.put(VideoContract.VideoEntry.COLUMN_TITLEMATCH, titlematch);
@@ -417,6 +575,15 @@ public class VideoDbBuilder {
             videoValues.put(VideoContract.VideoEntry.COLUMN_PROGFLAGS, progflags);
             videoValues.put(VideoContract.VideoEntry.COLUMN_VIDEOPROPS, videoProps);
             videoValues.put(VideoContract.VideoEntry.COLUMN_VIDEOPROPNAMES, videoPropNames);
+            videoValues.put(VideoContract.VideoEntry.COLUMN_LASTMOD,
+                    XmlNode.textOf(program[F_LASTMODIFIED]));
+            videoValues.put(VideoContract.VideoEntry.COLUMN_TYPESORT, rectype);
+            if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO)
+                videoValues.put(VideoContract.VideoEntry.COLUMN_FILESORT, makeFileSort(dbFileName));
+            videoValues.put(VideoContract.VideoEntry.COLUMN_SEASONNUM, leadingNumber(season));
+            videoValues.put(VideoContract.VideoEntry.COLUMN_EPISODENUM, leadingNumber(episode));
+            videoValues.put(VideoContract.VideoEntry.COLUMN_SIGNATURE,
+                    videoValues.signature());
 
             videosToInsert.add(videoValues);
             if (ixSingle >= 0)
@@ -424,12 +591,17 @@ public class VideoDbBuilder {
         }
     }
 
-    private void loadChannels(XmlNode xmlFull, List<ContentValues> channelsToInsert) {
+    private void loadChannels(XmlNode xmlFull, List<VideoRow> channelsToInsert) {
         XmlNode channelNode = null;
         int rowsize= Settings.getInt("pref_livetv_rowsize");
         for (; ; ) {
-            if (channelNode == null)
-                channelNode = xmlFull.getNode(XMLTAGS_CHANNEL, 0);
+            if (channelNode == null) {
+                // Allow for the xml to contain just one channel
+                if (XMLTAGS_CHANNEL[XMLTAGS_CHANNEL.length-1].equals(xmlFull.getName()))
+                    channelNode = xmlFull;
+                else
+                    channelNode = xmlFull.getNode(XMLTAGS_CHANNEL, 0);
+            }
             else
                 channelNode = channelNode.getNextSibling();
             if (channelNode == null)
@@ -468,7 +640,7 @@ public class VideoDbBuilder {
                     spacer = " ";
                 title = mContext.getString(R.string.row_header_channels) + spacer + start + " - " + end;
             }
-            ContentValues channelValues = new ContentValues();
+            VideoRow channelValues = new VideoRow();
             channelValues.put(VideoContract.VideoEntry.COLUMN_RECTYPE, rectype);
             channelValues.put(VideoContract.VideoEntry.COLUMN_TITLE, title);
             channelValues.put(VideoContract.VideoEntry.COLUMN_TITLEMATCH, title);
@@ -481,6 +653,12 @@ public class VideoDbBuilder {
             channelValues.put(VideoContract.VideoEntry.COLUMN_PROGFLAGS, "0");
             channelValues.put(VideoContract.VideoEntry.COLUMN_VIDEOPROPS, "0");
             channelValues.put(VideoContract.VideoEntry.COLUMN_RECGROUP, "LiveTV");
+            // Channels sort together with recordings
+            channelValues.put(VideoContract.VideoEntry.COLUMN_TYPESORT,
+                    VideoContract.VideoEntry.RECTYPE_RECORDING);
+            channelValues.put(VideoContract.VideoEntry.COLUMN_CHANNUMSORT, leadingNumber(channum));
+            channelValues.put(VideoContract.VideoEntry.COLUMN_SIGNATURE,
+                    channelValues.signature());
             channelsToInsert.add(channelValues);
         }
     }
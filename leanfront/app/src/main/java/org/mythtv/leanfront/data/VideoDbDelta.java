@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.mythtv.leanfront.data.VideoContract.VideoEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Applies a freshly downloaded list of videos to the video table as a delta.
+ * Rows are matched on rectype and recordedid (RecordedId, video Id or ChanId)
+ * and compared on the signature column, so that only new, changed or removed
+ * rows are written. The whole delta is applied in one transaction.
+ */
+public class VideoDbDelta {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "VideoDbDelta";
+
+    private final SQLiteDatabase mDb;
+    private final String mRectypeList;
+    // key is rectype/recordedid, value is {_id, signature}
+    private final HashMap<String, long[]> mExisting = new HashMap<>();
+    private final ArrayList<Long> mDuplicates = new ArrayList<>();
+    private int mInserted;
+    private int mUpdated;
+    private int mDeleted;
+
+    /**
+     * @param db       Writable database
+     * @param rectypes Rectypes being refreshed. Rows of these types that are not
+     *                 in the new list are deleted, others are left alone.
+     */
+    public VideoDbDelta(SQLiteDatabase db, int[] rectypes) {
+        mDb = db;
+        StringBuilder list = new StringBuilder();
+        for (int rectype : rectypes) {
+            if (list.length() > 0)
+                list.append(',');
+            list.append(rectype);
+        }
+        mRectypeList = list.toString();
+    }
+
+    /**
+     * Apply the new list in one transaction.
+     *
+     * @return true if anything in the table was changed
+     */
+    public boolean apply(List<VideoRow> rows) {
+        long startTime = System.currentTimeMillis();
+        mDb.beginTransaction();
+        try (VideoInserter inserter = new VideoInserter(mDb)) {
+            loadExisting();
+            for (VideoRow row : rows)
+                applyRow(inserter, row);
+            deleteRemaining();
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        Log.i(TAG, CLASS + " Delta of " + rows.size() + " rows: inserted " + mInserted
+                + ", updated " + mUpdated + ", deleted " + mDeleted
+                + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        return mInserted + mUpdated + mDeleted > 0;
+    }
+
+    private void loadExisting() {
+        String[] projection = {
+                VideoEntry._ID,
+                VideoEntry.COLUMN_RECTYPE,
+                VideoEntry.COLUMN_RECORDEDID,
+                VideoEntry.COLUMN_SIGNATURE
+        };
+        Cursor cursor = mDb.query(VideoEntry.TABLE_NAME, projection,
+                VideoEntry.COLUMN_RECTYPE + " IN (" + mRectypeList + ")",
+                null, null, null, null);
+        while (cursor.moveToNext()) {
+            long id = cursor.getLong(0);
+            String key = makeKey(cursor.getInt(1), cursor.getString(2));
+            long[] prior = mExisting.put(key, new long[]{id, cursor.getLong(3)});
+            // Rows inserted outside the full refresh can duplicate a key.
+            if (prior != null)
+                mDuplicates.add(prior[0]);
+        }
+        cursor.close();
+    }
+
+    private void applyRow(VideoInserter inserter, VideoRow row) {
+        String key = makeKey(row.getAsInteger(VideoEntry.COLUMN_RECTYPE),
+                row.getAsString(VideoEntry.COLUMN_RECORDEDID));
+        long[] existing = mExisting.remove(key);
+        if (existing == null) {
+            if (inserter.insert(row) != -1)
+                mInserted++;
+        }
+        else {
+            Long signature = row.getAsLong(VideoEntry.COLUMN_SIGNATURE);
+            if (signature == null || signature != existing[1])
+                mUpdated += inserter.update(row, existing[0]);
+        }
+    }
+
+    private void deleteRemaining() {
+        ArrayList<Long> ids = new ArrayList<>(mDuplicates);
+        for (long[] existing : mExisting.values())
+            ids.add(existing[0]);
+        // Delete in batches to stay within the SQLite expression limits
+        StringBuilder idList = new StringBuilder();
+        for (int ix = 0; ix < ids.size(); ix++) {
+            if (idList.length() > 0)
+                idList.append(',');
+            idList.append(ids.get(ix));
+            if ((ix + 1) % 500 == 0 || ix == ids.size() - 1) {
+                mDeleted += mDb.delete(VideoEntry.TABLE_NAME,
+                        VideoEntry._ID + " IN (" + idList + ")", null);
+                idList.setLength(0);
+            }
+        }
+    }
+
+    private static String makeKey(Integer rectype, String recordedId) {
+        return rectype + "/" + recordedId;
+    }
+}
@@ -27,12 +27,23 @@ package org.mythtv.leanfront.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+import android.util.Log;
 
 import org.mythtv.leanfront.data.VideoContract.VideoEntry;
 import org.mythtv.leanfront.data.VideoContract.StatusEntry;
+import org.mythtv.leanfront.data.VideoContract.ProgramEntry;
+import org.mythtv.leanfront.data.VideoContract.ProgramSearchEntry;
+import org.mythtv.leanfront.data.VideoContract.VideoSearchEntry;
+import org.mythtv.leanfront.data.VideoContract.GuideChannelEntry;
+import org.mythtv.leanfront.data.VideoContract.GuideRangeEntry;
+
+import java.util.concurrent.Semaphore;
 
 
 /**
@@ -40,19 +51,26 @@ import org.mythtv.leanfront.data.VideoContract.StatusEntry;
  */
 public class VideoDbHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = "lfe";
+    private static final String CLASS = "VideoDbHelper";
     private static VideoDbHelper mInstance = null;
 
     // Change this when you change the database schema.
-    private static final int DATABASE_VERSION = 19;
+    private static final int DATABASE_VERSION = 26;
     // The name of our database.
     private static final String DATABASE_NAME = "leanback.db";
 
-    private static int usageCount = 0;
-    private static boolean dbLocked = false;
-    private static Object sync = new Object();
+    // Each user of the database holds one permit, between getting the
+    // database and releaseDatabase. lockDatabase takes all of them.
+    // Connections themselves come from the SQLiteDatabase connection
+    // pool, which in WAL mode lets readers run while a write is going on.
+    private static final int MAX_USERS = 1000;
+    private static final Semaphore users = new Semaphore(MAX_USERS);
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
 
     private VideoDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
     }
 
     public static synchronized VideoDbHelper getInstance(Context context) {
@@ -70,53 +88,80 @@ public class VideoDbHelper extends SQLiteOpenHelper {
         onUpgrade(db,0,DATABASE_VERSION);
     }
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Convert an existing database to incremental vacuum. This needs
+        // one full vacuum, after that free pages are released by
+        // lockDatabase without rewriting the whole file.
+        if (!db.isReadOnly()
+                && DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                        != AUTO_VACUUM_INCREMENTAL) {
+            Log.i(TAG, CLASS + " Converting to incremental vacuum");
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+    }
+
+    // Returns null only while the database is locked for backup or restore
     @Override
     public SQLiteDatabase getReadableDatabase() {
-        SQLiteDatabase db = null;
-        synchronized (sync) {
-            if (dbLocked)
-                return null;
-            db = super.getReadableDatabase();
-            usageCount++;
+        if (!users.tryAcquire())
+            return null;
+        try {
+            return super.getReadableDatabase();
+        } catch (RuntimeException e) {
+            users.release();
+            throw e;
         }
-        return db;
     }
 
+    // Returns null only while the database is locked for backup or restore
     @Override
     public SQLiteDatabase getWritableDatabase() {
-        SQLiteDatabase db = null;
-        synchronized (sync) {
-            if (dbLocked)
-                return null;
-            db = super.getWritableDatabase();
-            usageCount++;
+        if (!users.tryAcquire())
+            return null;
+        try {
+            return super.getWritableDatabase();
+        } catch (RuntimeException e) {
+            users.release();
+            throw e;
         }
-        return db;
     }
 
     public static void releaseDatabase() {
-        synchronized (sync) {
-            usageCount--;
-        }
+        users.release();
     }
 
+    /**
+     * Lock the database so that its file can be copied. Fails if the
+     * database is in use.
+     */
     public boolean lockDatabase() {
-        synchronized (sync) {
-            if (usageCount != 0)
-                return false;
-            if (dbLocked)
-                return true;
+        if (!users.tryAcquire(MAX_USERS))
+            return false;
+        try {
             SQLiteDatabase db = super.getWritableDatabase();
-            db.execSQL("vacuum");
+            // Release free pages and move the write-ahead log into the
+            // database file, so that the file can be copied on its own.
+            runPragma(db, "PRAGMA incremental_vacuum");
+            runPragma(db, "PRAGMA wal_checkpoint(TRUNCATE)");
             close();
-            dbLocked = true;
+        } catch (RuntimeException e) {
+            users.release(MAX_USERS);
+            throw e;
         }
         return true;
     }
 
     public static void unlockDatabase() {
-        synchronized (sync) {
-            dbLocked = false;
+        users.release(MAX_USERS);
+    }
+
+    // Run a pragma that may return rows, stepping through all of them
+    private static void runPragma(SQLiteDatabase db, String sql) {
+        try (Cursor csr = db.rawQuery(sql, null)) {
+            csr.getCount();
         }
     }
 
@@ -160,11 +205,54 @@ public class VideoDbHelper extends SQLiteOpenHelper {
                     VideoEntry.COLUMN_VIDEOPROPNAMES + " TEXT," +
                     VideoEntry.COLUMN_CHANID   + " TEXT," +
                     VideoEntry.COLUMN_CHANNUM  + " TEXT," +
-                    VideoEntry.COLUMN_CALLSIGN + " TEXT" +
+                    VideoEntry.COLUMN_CALLSIGN + " TEXT," +
+                    VideoEntry.COLUMN_LASTMOD + " TEXT," +
+                    VideoEntry.COLUMN_SIGNATURE + " INTEGER," +
+                    VideoEntry.COLUMN_TYPESORT + " INTEGER," +
+                    VideoEntry.COLUMN_FILESORT + " TEXT," +
+                    VideoEntry.COLUMN_SEASONNUM + " REAL," +
+                    VideoEntry.COLUMN_EPISODENUM + " REAL," +
+                    VideoEntry.COLUMN_CHANNUMSORT + " REAL" +
                     " );";
 
             // Do the creating of the table.
             db.execSQL(SQL_CREATE_VIDEO_TABLE);
+
+            // Indexes for the main screen queries in AsyncMainLoader.
+            // Each covers the whole default order (recorded time ascending).
+            // Other orders are sorted only within each title.
+            // Top level and videos pages
+            db.execSQL("CREATE INDEX " + VideoEntry.TABLE_NAME + "_typesort ON "
+                    + VideoEntry.TABLE_NAME + " ("
+                    + VideoEntry.COLUMN_TYPESORT + ", "
+                    + VideoEntry.COLUMN_FILESORT + ", "
+                    + VideoEntry.COLUMN_RECGROUP + ", "
+                    + VideoEntry.COLUMN_TITLEMATCH + ", "
+                    + VideoEntry.COLUMN_STARTTIME + ", "
+                    + VideoEntry.COLUMN_AIRDATE + ", "
+                    + VideoEntry.COLUMN_RECORDEDID + ");");
+            // Recording group pages and the merged videos sub-select
+            db.execSQL("CREATE INDEX " + VideoEntry.TABLE_NAME + "_recgroup ON "
+                    + VideoEntry.TABLE_NAME + " ("
+                    + VideoEntry.COLUMN_RECGROUP + ", "
+                    + VideoEntry.COLUMN_TITLEMATCH + ", "
+                    + VideoEntry.COLUMN_STARTTIME + ", "
+                    + VideoEntry.COLUMN_AIRDATE + ", "
+                    + VideoEntry.COLUMN_RECORDEDID + ");");
+            // LiveTV page
+            db.execSQL("CREATE INDEX " + VideoEntry.TABLE_NAME + "_channum ON "
+                    + VideoEntry.TABLE_NAME + " ("
+                    + VideoEntry.COLUMN_RECGROUP + ", "
+                    + VideoEntry.COLUMN_CHANNUMSORT + ", "
+                    + VideoEntry.COLUMN_CHANNUM + ", "
+                    + VideoEntry.COLUMN_TITLEMATCH + ", "
+                    + VideoEntry.COLUMN_STARTTIME + ", "
+                    + VideoEntry.COLUMN_AIRDATE + ", "
+                    + VideoEntry.COLUMN_RECORDEDID + ");");
+            // Recents row, looked up from videostatus
+            db.execSQL("CREATE INDEX " + VideoEntry.TABLE_NAME + "_url_path ON "
+                    + VideoEntry.TABLE_NAME + " ("
+                    + VideoEntry.COLUMN_VIDEO_URL_PATH + ");");
         }
         // This table needs to be preserved. Use alter rather than recreating
         if (oldVersion < 1) {
@@ -184,6 +272,12 @@ public class VideoDbHelper extends SQLiteOpenHelper {
                     StatusEntry.COLUMN_SHOW_RECENT + " INTEGER DEFAULT 1;";
             db.execSQL(SQL);
         }
+        // RecentsIndex reads videostatus in last_used order
+        if (oldVersion < 24) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + StatusEntry.TABLE_NAME + "_last_used ON "
+                    + StatusEntry.TABLE_NAME + " ("
+                    + StatusEntry.COLUMN_LAST_USED + ");");
+        }
 
         // For DB version 16, update video_url in status table to have only the path part of URL
         // If this creates duplicates, delete the duplicates, keeping the latest.
@@ -235,6 +329,7 @@ public class VideoDbHelper extends SQLiteOpenHelper {
             // SDK version 24 uses SQLITE version 3.9 which will support view with column names
             if (android.os.Build.VERSION.SDK_INT >= 24) {
                 createView.append(" ( " +
+                        VideoEntry._ID + " , " +
                         VideoEntry.COLUMN_RECTYPE + " , " +
                         VideoEntry.COLUMN_TITLE + " , " +
                         VideoEntry.COLUMN_TITLEMATCH + " , " +
@@ -267,10 +362,16 @@ public class VideoDbHelper extends SQLiteOpenHelper {
                         VideoEntry.COLUMN_CHANID + " ," +
                         VideoEntry.COLUMN_CHANNUM + " ," +
                         VideoEntry.COLUMN_CALLSIGN + " , " +
+                        VideoEntry.COLUMN_TYPESORT + " , " +
+                        VideoEntry.COLUMN_FILESORT + " , " +
+                        VideoEntry.COLUMN_SEASONNUM + " , " +
+                        VideoEntry.COLUMN_EPISODENUM + " , " +
+                        VideoEntry.COLUMN_CHANNUMSORT + " , " +
                         StatusEntry.COLUMN_LAST_USED + " , " +
                         StatusEntry.COLUMN_SHOW_RECENT + " ) ");
             }
             createView.append(" AS SELECT " +
+                    VideoEntry.TABLE_NAME + "." + VideoEntry._ID + " AS " + VideoEntry._ID + " , " +
                     VideoEntry.COLUMN_RECTYPE + " , " +
                     VideoEntry.COLUMN_TITLE + " , " +
                     VideoEntry.COLUMN_TITLEMATCH + " , " +
@@ -303,6 +404,11 @@ public class VideoDbHelper extends SQLiteOpenHelper {
                     VideoEntry.COLUMN_CHANID + " ," +
                     VideoEntry.COLUMN_CHANNUM + " ," +
                     VideoEntry.COLUMN_CALLSIGN + " , " +
+                    VideoEntry.COLUMN_TYPESORT + " , " +
+                    VideoEntry.COLUMN_FILESORT + " , " +
+                    VideoEntry.COLUMN_SEASONNUM + " , " +
+                    VideoEntry.COLUMN_EPISODENUM + " , " +
+                    VideoEntry.COLUMN_CHANNUMSORT + " , " +
                     StatusEntry.COLUMN_LAST_USED + " , " +
                     StatusEntry.COLUMN_SHOW_RECENT + " FROM " +
                     VideoEntry.TABLE_NAME + " LEFT OUTER JOIN " +
@@ -311,6 +417,83 @@ public class VideoDbHelper extends SQLiteOpenHelper {
                     StatusEntry.TABLE_NAME + "." + StatusEntry.COLUMN_VIDEO_URL_PATH + " ; ");
             db.execSQL(createView.toString());
         }
+        // Full text index for search. The video table was recreated above,
+        // which dropped its triggers, so recreate the index and triggers.
+        if (oldVersion < DATABASE_VERSION) {
+            createSearchIndex(db, VideoSearchEntry.TABLE_NAME, VideoEntry.TABLE_NAME,
+                    VideoSearchEntry.COLUMNS);
+        }
+        // Program guide tables are a cache, recreate them on any upgrade
+        if (oldVersion < DATABASE_VERSION) {
+            db.execSQL("DROP TABLE IF EXISTS " + ProgramEntry.TABLE_NAME);
+            db.execSQL("CREATE TABLE " + ProgramEntry.TABLE_NAME + " (" +
+                    ProgramEntry._ID + " INTEGER PRIMARY KEY," +
+                    ProgramEntry.COLUMN_CHANID + " INTEGER NOT NULL, " +
+                    ProgramEntry.COLUMN_STARTTIME + " INTEGER NOT NULL, " +
+                    ProgramEntry.COLUMN_ENDTIME + " INTEGER NOT NULL, " +
+                    ProgramEntry.COLUMN_TITLE + " TEXT, " +
+                    ProgramEntry.COLUMN_SUBTITLE + " TEXT, " +
+                    ProgramEntry.COLUMN_SEASON + " INTEGER, " +
+                    ProgramEntry.COLUMN_EPISODE + " INTEGER, " +
+                    ProgramEntry.COLUMN_RECSTATUS + " TEXT);");
+            db.execSQL("CREATE INDEX " + ProgramEntry.TABLE_NAME + "_chan_start ON "
+                    + ProgramEntry.TABLE_NAME + " (" + ProgramEntry.COLUMN_CHANID + ", "
+                    + ProgramEntry.COLUMN_STARTTIME + ");");
+            // Title search uses word prefixes from the full text index
+            createSearchIndex(db, ProgramSearchEntry.TABLE_NAME, ProgramEntry.TABLE_NAME,
+                    ProgramSearchEntry.COLUMNS);
+
+            db.execSQL("DROP TABLE IF EXISTS " + GuideChannelEntry.TABLE_NAME);
+            db.execSQL("CREATE TABLE " + GuideChannelEntry.TABLE_NAME + " (" +
+                    GuideChannelEntry._ID + " INTEGER PRIMARY KEY," +
+                    GuideChannelEntry.COLUMN_GROUPID + " INTEGER NOT NULL, " +
+                    GuideChannelEntry.COLUMN_POSITION + " INTEGER NOT NULL, " +
+                    GuideChannelEntry.COLUMN_CHANID + " INTEGER NOT NULL, " +
+                    GuideChannelEntry.COLUMN_CHANNUM + " INTEGER, " +
+                    GuideChannelEntry.COLUMN_CALLSIGN + " TEXT, " +
+                    GuideChannelEntry.COLUMN_CHANDETAILS + " TEXT);");
+            db.execSQL("CREATE INDEX " + GuideChannelEntry.TABLE_NAME + "_group ON "
+                    + GuideChannelEntry.TABLE_NAME + " (" + GuideChannelEntry.COLUMN_GROUPID + ", "
+                    + GuideChannelEntry.COLUMN_POSITION + ");");
+
+            db.execSQL("DROP TABLE IF EXISTS " + GuideRangeEntry.TABLE_NAME);
+            db.execSQL("CREATE TABLE " + GuideRangeEntry.TABLE_NAME + " (" +
+                    GuideRangeEntry._ID + " INTEGER PRIMARY KEY," +
+                    GuideRangeEntry.COLUMN_GROUPID + " INTEGER NOT NULL, " +
+                    GuideRangeEntry.COLUMN_STARTTIME + " INTEGER NOT NULL, " +
+                    GuideRangeEntry.COLUMN_ENDTIME + " INTEGER NOT NULL, " +
+                    GuideRangeEntry.COLUMN_FETCHED + " INTEGER NOT NULL);");
+        }
+    }
+
+    /**
+     * Create a full text index over columns of a table, with triggers that
+     * keep it up to date. Row ids in the index are row ids of the table.
+     */
+    private static void createSearchIndex(SQLiteDatabase db, String name, String table,
+                                          String[] cols) {
+        db.execSQL("DROP TABLE IF EXISTS " + name);
+        String columns = TextUtils.join(", ", cols);
+        String create = "CREATE VIRTUAL TABLE " + name
+                + " USING fts4(content=\"" + table + "\", " + columns;
+        try {
+            // unicode61 folds case and accents beyond ASCII
+            db.execSQL(create + ", tokenize=unicode61)");
+        } catch (SQLException e) {
+            Log.w(TAG, CLASS + " unicode61 tokenizer not available, using simple. " + e);
+            db.execSQL(create + ")");
+        }
+        String newValues = "new." + TextUtils.join(", new.", cols);
+        String deleteOld = " BEGIN DELETE FROM " + name
+                + " WHERE docid = old.rowid; END;";
+        String insertNew = " BEGIN INSERT INTO " + name
+                + " (docid, " + columns + ") VALUES (new.rowid, "
+                + newValues + "); END;";
+        String on = " ON " + table;
+        db.execSQL("CREATE TRIGGER " + name + "_bu BEFORE UPDATE" + on + deleteOld);
+        db.execSQL("CREATE TRIGGER " + name + "_bd BEFORE DELETE" + on + deleteOld);
+        db.execSQL("CREATE TRIGGER " + name + "_au AFTER UPDATE" + on + insertNew);
+        db.execSQL("CREATE TRIGGER " + name + "_ai AFTER INSERT" + on + insertNew);
     }
 
     @Override
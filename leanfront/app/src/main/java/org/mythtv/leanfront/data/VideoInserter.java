@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import org.mythtv.leanfront.data.VideoContract.VideoEntry;
+
+import java.util.List;
+
+/**
+ * Writes VideoRow objects to the video table. The insert and update
+ * statements are compiled once and the values of each row are bound
+ * to them, instead of building and compiling SQL from ContentValues
+ * for every row as SQLiteDatabase.insert does.
+ */
+class VideoInserter implements AutoCloseable {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "VideoInserter";
+
+    private static final String INSERT_SQL;
+    private static final String UPDATE_SQL;
+    static {
+        StringBuilder insert = new StringBuilder("INSERT OR REPLACE INTO ")
+                .append(VideoEntry.TABLE_NAME).append(" (");
+        StringBuilder params = new StringBuilder();
+        StringBuilder update = new StringBuilder("UPDATE ")
+                .append(VideoEntry.TABLE_NAME).append(" SET ");
+        for (int ix = 0; ix < VideoRow.COLUMNS.length; ix++) {
+            if (ix > 0) {
+                insert.append(',');
+                params.append(',');
+                update.append(',');
+            }
+            insert.append(VideoRow.COLUMNS[ix]);
+            params.append('?');
+            update.append(VideoRow.COLUMNS[ix]).append(" = ?");
+        }
+        INSERT_SQL = insert.append(") VALUES (").append(params).append(')').toString();
+        UPDATE_SQL = update.append(" WHERE ").append(VideoEntry._ID).append(" = ?").toString();
+    }
+
+    private final SQLiteDatabase mDb;
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mUpdate;
+
+    VideoInserter(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Insert the rows in one transaction.
+     *
+     * @return Number of rows inserted
+     */
+    static int insertAll(SQLiteDatabase db, List<VideoRow> rows) {
+        long startTime = System.currentTimeMillis();
+        int count = 0;
+        db.beginTransaction();
+        try (VideoInserter inserter = new VideoInserter(db)) {
+            for (VideoRow row : rows) {
+                if (inserter.insert(row) != -1)
+                    count++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.i(TAG, CLASS + " Inserted " + count + " rows in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+        return count;
+    }
+
+    /**
+     * Insert a row, replacing any row with the same unique key.
+     *
+     * @return Row id, or -1 if it failed
+     */
+    long insert(VideoRow row) {
+        if (mInsert == null)
+            mInsert = mDb.compileStatement(INSERT_SQL);
+        bind(mInsert, row);
+        return mInsert.executeInsert();
+    }
+
+    /**
+     * Replace all the values of the row with the given id.
+     *
+     * @return Number of rows updated
+     */
+    int update(VideoRow row, long id) {
+        if (mUpdate == null)
+            mUpdate = mDb.compileStatement(UPDATE_SQL);
+        bind(mUpdate, row);
+        mUpdate.bindLong(VideoRow.COLUMNS.length + 1, id);
+        return mUpdate.executeUpdateDelete();
+    }
+
+    private static void bind(SQLiteStatement statement, VideoRow row) {
+        for (int ix = 0; ix < row.values.length; ix++) {
+            Object value = row.values[ix];
+            int param = ix + 1;
+            if (value == null)
+                statement.bindNull(param);
+            else if (value instanceof Long || value instanceof Integer
+                    || value instanceof Short || value instanceof Byte)
+                statement.bindLong(param, ((Number) value).longValue());
+            else if (value instanceof Double || value instanceof Float)
+                statement.bindDouble(param, ((Number) value).doubleValue());
+            else if (value instanceof Boolean)
+                statement.bindLong(param, (Boolean) value ? 1 : 0);
+            else if (value instanceof byte[])
+                statement.bindBlob(param, (byte[]) value);
+            else
+                statement.bindString(param, value.toString());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (mInsert != null)
+            mInsert.close();
+        if (mUpdate != null)
+            mUpdate.close();
+        mInsert = null;
+        mUpdate = null;
+    }
+}
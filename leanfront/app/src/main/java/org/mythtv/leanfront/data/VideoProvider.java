@@ -31,12 +31,15 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.text.TextUtils;
 import androidx.annotation.NonNull;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -52,6 +55,14 @@ public class VideoProvider extends ContentProvider {
     private static final int SEARCH_SUGGEST = 3;
     private static final int REFRESH_SHORTCUT = 4;
 
+    /**
+     * Selection for videos matching a full text query from getMatchQuery
+     */
+    public static final String SEARCH_SELECTION = VideoContract.VideoEntry._ID + " IN (SELECT "
+            + VideoContract.VideoSearchEntry.COLUMN_DOCID + " FROM "
+            + VideoContract.VideoSearchEntry.TABLE_NAME + " WHERE "
+            + VideoContract.VideoSearchEntry.TABLE_NAME + " MATCH ?)";
+
     private static final SQLiteQueryBuilder sVideosContainingQueryBuilder;
     private static final String[] sVideosContainingQueryColumns;
     private static final HashMap<String, String> sColumnMap = buildColumnMap();
@@ -117,18 +128,60 @@ public class VideoProvider extends ContentProvider {
         SQLiteDatabase db = mOpenHelper.getReadableDatabase();
         if (db == null)
             return null;
+        String match = getMatchQuery(query);
+        if (match == null)
+            return sVideosContainingQueryBuilder.query(
+                    db,
+                    sVideosContainingQueryColumns,
+                    VideoContract.VideoEntry.COLUMN_TITLE + " LIKE ? OR " +
+                            VideoContract.VideoEntry.COLUMN_SUBTITLE + " LIKE ?",
+                    new String[]{"%" + query + "%", "%" + query + "%"},
+                    null,
+                    null,
+                    null
+            );
         return sVideosContainingQueryBuilder.query(
                 db,
                 sVideosContainingQueryColumns,
-                VideoContract.VideoEntry.COLUMN_TITLE + " LIKE ? OR " +
-                        VideoContract.VideoEntry.COLUMN_SUBTITLE + " LIKE ?",
-                new String[]{"%" + query + "%", "%" + query + "%"},
+                SEARCH_SELECTION,
+                new String[]{match},
                 null,
                 null,
-                null
+                getSearchOrder(query)
         );
     }
 
+    /**
+     * Make a full text query matching words that start with each word
+     * of the search text.
+     *
+     * @return The query, or null if the search text has no words
+     */
+    public static String getMatchQuery(String query) {
+        ArrayList<String> terms = new ArrayList<>();
+        for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() > 0)
+                terms.add(word + "*");
+        }
+        if (terms.isEmpty())
+            return null;
+        return TextUtils.join(" ", terms);
+    }
+
+    /**
+     * Order for search results, best matches first: titles starting
+     * with the search text, then titles containing it, then subtitles
+     * containing it, then other matches.
+     */
+    public static String getSearchOrder(String query) {
+        String starts = DatabaseUtils.sqlEscapeString(query + "%");
+        String contains = DatabaseUtils.sqlEscapeString("%" + query + "%");
+        return "CASE WHEN " + VideoContract.VideoEntry.COLUMN_TITLE + " LIKE " + starts
+                + " THEN 0 WHEN " + VideoContract.VideoEntry.COLUMN_TITLE + " LIKE " + contains
+                + " THEN 1 WHEN " + VideoContract.VideoEntry.COLUMN_SUBTITLE + " LIKE " + contains
+                + " THEN 2 ELSE 3 END, " + VideoContract.VideoEntry.COLUMN_TITLE;
+    }
+
     private static HashMap<String, String> buildColumnMap() {
         HashMap<String, String> map = new HashMap<>();
         map.put(VideoContract.VideoEntry.COLUMN_RECTYPE, VideoContract.VideoEntry.COLUMN_RECTYPE);
@@ -262,7 +315,7 @@ public class VideoProvider extends ContentProvider {
             }
         }
         VideoDbHelper.releaseDatabase();
-        mContentResolver.notifyChange(uri, null);
+        ChangeCoalescer.getInstance().noteProviderChange(uri);
         return returnUri;
     }
 
@@ -290,7 +343,7 @@ public class VideoProvider extends ContentProvider {
         }
         VideoDbHelper.releaseDatabase();
         if (rowsDeleted != 0) {
-            mContentResolver.notifyChange(uri, null);
+            ChangeCoalescer.getInstance().noteProviderChange(uri);
         }
 
         return rowsDeleted;
@@ -316,7 +369,7 @@ public class VideoProvider extends ContentProvider {
         }
         VideoDbHelper.releaseDatabase();
         if (rowsUpdated != 0) {
-            mContentResolver.notifyChange(uri, null);
+            ChangeCoalescer.getInstance().noteProviderChange(uri);
         }
 
         return rowsUpdated;
@@ -332,10 +385,17 @@ public class VideoProvider extends ContentProvider {
                 int returnCount = 0;
 
                 db.beginTransaction();
-                try {
+                try (VideoInserter inserter = new VideoInserter(db)) {
                     for (ContentValues value : values) {
-                        long _id = db.insertWithOnConflict(VideoContract.VideoEntry.TABLE_NAME,
-                                null, value, SQLiteDatabase.CONFLICT_REPLACE);
+                        // Use the compiled statement unless there are
+                        // columns that it does not cover.
+                        VideoRow row = VideoRow.fromContentValues(value);
+                        long _id;
+                        if (row != null)
+                            _id = inserter.insert(row);
+                        else
+                            _id = db.insertWithOnConflict(VideoContract.VideoEntry.TABLE_NAME,
+                                    null, value, SQLiteDatabase.CONFLICT_REPLACE);
                         if (_id != -1) {
                             returnCount++;
                         }
@@ -345,7 +405,7 @@ public class VideoProvider extends ContentProvider {
                     db.endTransaction();
                 }
                 VideoDbHelper.releaseDatabase();
-                mContentResolver.notifyChange(uri, null);
+                ChangeCoalescer.getInstance().noteProviderChange(uri);
                 return returnCount;
             }
             default: {
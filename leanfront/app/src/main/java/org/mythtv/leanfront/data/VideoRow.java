@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.ContentValues;
+
+import org.mythtv.leanfront.data.VideoContract.VideoEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One row for the video table, built by VideoDbBuilder. The values are
+ * held in an array in the order of COLUMNS, which is also the order of
+ * the parameters in the statements compiled by VideoInserter, so a row
+ * is written without going through ContentValues.
+ */
+public final class VideoRow {
+
+    // Columns written by a fetch, in statement parameter order.
+    // There must be no more than 64, see mSet.
+    static final String[] COLUMNS = {
+            VideoEntry.COLUMN_RECTYPE,
+            VideoEntry.COLUMN_TITLE,
+            VideoEntry.COLUMN_TITLEMATCH,
+            VideoEntry.COLUMN_SUBTITLE,
+            VideoEntry.COLUMN_DESC,
+            VideoEntry.COLUMN_VIDEO_URL,
+            VideoEntry.COLUMN_VIDEO_URL_PATH,
+            VideoEntry.COLUMN_FILENAME,
+            VideoEntry.COLUMN_FILESIZE,
+            VideoEntry.COLUMN_HOSTNAME,
+            VideoEntry.COLUMN_CARD_IMG,
+            VideoEntry.COLUMN_BG_IMAGE_URL,
+            VideoEntry.COLUMN_CHANNEL,
+            VideoEntry.COLUMN_CHANID,
+            VideoEntry.COLUMN_CHANNUM,
+            VideoEntry.COLUMN_CALLSIGN,
+            VideoEntry.COLUMN_AIRDATE,
+            VideoEntry.COLUMN_STARTTIME,
+            VideoEntry.COLUMN_ENDTIME,
+            VideoEntry.COLUMN_PRODUCTION_YEAR,
+            VideoEntry.COLUMN_RECORDEDID,
+            VideoEntry.COLUMN_STORAGEGROUP,
+            VideoEntry.COLUMN_RECGROUP,
+            VideoEntry.COLUMN_PLAYGROUP,
+            VideoEntry.COLUMN_SEASON,
+            VideoEntry.COLUMN_EPISODE,
+            VideoEntry.COLUMN_CONTENT_TYPE,
+            VideoEntry.COLUMN_DURATION,
+            VideoEntry.COLUMN_ACTION,
+            VideoEntry.COLUMN_PROGFLAGS,
+            VideoEntry.COLUMN_VIDEOPROPS,
+            VideoEntry.COLUMN_VIDEOPROPNAMES,
+            VideoEntry.COLUMN_LASTMOD,
+            VideoEntry.COLUMN_TYPESORT,
+            VideoEntry.COLUMN_FILESORT,
+            VideoEntry.COLUMN_SEASONNUM,
+            VideoEntry.COLUMN_EPISODENUM,
+            VideoEntry.COLUMN_CHANNUMSORT,
+            VideoEntry.COLUMN_SIGNATURE
+    };
+    private static final HashMap<String, Integer> INDEX = new HashMap<>();
+    static {
+        for (int ix = 0; ix < COLUMNS.length; ix++)
+            INDEX.put(COLUMNS[ix], ix);
+    }
+
+    final Object[] values = new Object[COLUMNS.length];
+    // One bit for each column that has been put, including as null
+    private long mSet;
+
+    private static int index(String column) {
+        Integer ix = INDEX.get(column);
+        if (ix == null)
+            throw new IllegalArgumentException("Unknown video column " + column);
+        return ix;
+    }
+
+    public void put(String column, Object value) {
+        int ix = index(column);
+        values[ix] = value;
+        mSet |= 1L << ix;
+    }
+
+    public Object get(String column) {
+        return values[index(column)];
+    }
+
+    public String getAsString(String column) {
+        Object value = get(column);
+        return value == null ? null : value.toString();
+    }
+
+    public Integer getAsInteger(String column) {
+        Object value = get(column);
+        if (value == null)
+            return null;
+        if (value instanceof Number)
+            return ((Number) value).intValue();
+        return Integer.valueOf(value.toString());
+    }
+
+    public Long getAsLong(String column) {
+        Object value = get(column);
+        if (value == null)
+            return null;
+        if (value instanceof Number)
+            return ((Number) value).longValue();
+        return Long.valueOf(value.toString());
+    }
+
+    /**
+     * Calculate a signature of all the values in the row, used to find out
+     * whether a row has changed since it was last loaded. This gives the
+     * same result as the earlier ContentValues version, so stored
+     * signatures remain valid.
+     */
+    public long signature() {
+        long signature = 0;
+        for (int ix = 0; ix < COLUMNS.length; ix++) {
+            if ((mSet & (1L << ix)) == 0)
+                continue;
+            long hash = COLUMNS[ix].hashCode() * 31L;
+            if (values[ix] != null)
+                hash += values[ix].hashCode();
+            hash *= 0x9E3779B97F4A7C15L;
+            signature += hash ^ (hash >>> 32);
+        }
+        return signature;
+    }
+
+    /**
+     * @return A row with the same values, or null if the values include
+     * a column that is not in COLUMNS.
+     */
+    static VideoRow fromContentValues(ContentValues contentValues) {
+        VideoRow row = new VideoRow();
+        for (Map.Entry<String, Object> entry : contentValues.valueSet()) {
+            Integer ix = INDEX.get(entry.getKey());
+            if (ix == null)
+                return null;
+            row.values[ix] = entry.getValue();
+            row.mSet |= 1L << ix;
+        }
+        return row;
+    }
+}
@@ -19,7 +19,6 @@
 
 package org.mythtv.leanfront.data;
 
-import android.annotation.SuppressLint;
 import android.util.Log;
 import android.util.Xml;
 
@@ -32,23 +31,55 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class XmlNode {
     private static final String TAG = "lfe";
     private static final String CLASS = "XmlNode";
 
-    private String name;
-    private HashMap<String, XmlNode> childMap = new HashMap<>();
-    private HashMap<String, String> attributeMap = new HashMap<>();
+    // Tag names are interned to ids, shared by all documents.
+    private static final ConcurrentHashMap<String, Integer> tagIds = new ConcurrentHashMap<>();
+    private static volatile String[] tagNames = new String[64];
+    private static int tagCount;
+
+    private int tagId = -1;
     private String text = null;
-    private XmlNode nextSibling;
+    // name, value pairs. null if there are no attributes
+    private String[] attributes;
+    // Children are grouped by tag, in order of first appearance.
+    // childTags[g] is the tag of group g, childGroups[g] holds its
+    // childCounts[g] nodes in document order. All null for a leaf.
+    private int[] childTags;
+    private XmlNode[][] childGroups;
+    private int[] childCounts;
+    private int numGroups;
+    // Position in the parent, for getNextSibling
+    private XmlNode parent;
+    private int group;
+    private int index;
+
+    private static int internTag(String name) {
+        Integer id = tagIds.get(name);
+        if (id != null)
+            return id;
+        synchronized (tagIds) {
+            id = tagIds.get(name);
+            if (id != null)
+                return id;
+            String[] names = tagNames;
+            if (tagCount == names.length)
+                names = Arrays.copyOf(names, tagCount * 2);
+            names[tagCount] = name;
+            tagNames = names;
+            id = tagCount++;
+            tagIds.put(name, id);
+            return id;
+        }
+    }
 
     public static String getIpAndPort(String hostname) throws IOException, XmlPullParserException {
         String backendIP = Settings.getString("pref_backend");
@@ -122,33 +153,129 @@ public class XmlNode {
     // called on a START_TAG
     private static XmlNode parseNode(XmlPullParser parser) throws IOException, XmlPullParserException {
         XmlNode ret = new XmlNode();
-        ret.name = parser.getName();
         int numAttribs = parser.getAttributeCount();
-        for (int ix = 0; ix < numAttribs; ix++) {
-            ret.attributeMap.put(parser.getAttributeName(ix),
-                    parser.getAttributeValue(ix));
+        if (numAttribs > 0) {
+            ret.attributes = new String[numAttribs * 2];
+            for (int ix = 0; ix < numAttribs; ix++) {
+                ret.attributes[ix * 2] = parser.getAttributeName(ix);
+                ret.attributes[ix * 2 + 1] = parser.getAttributeValue(ix);
+            }
         }
         // For wsdls fake out tag name as nme attribute
-        String attName = ret.attributeMap.get("name");
-        if (attName != null)
-            ret.name = attName;
+        String name = ret.getAttribute("name");
+        if (name == null)
+            name = parser.getName();
+        ret.tagId = internTag(name);
         int eventType = XmlPullParser.START_TAG;
         while (eventType != XmlPullParser.END_TAG) {
             eventType = parser.next();
             if (eventType == XmlPullParser.START_TAG) {
-                XmlNode child = parseNode(parser);
-                XmlNode priorChild = ret.childMap.get(child.name);
-                if (priorChild == null)
-                    ret.childMap.put(child.name, child);
-                else {
-                    while (priorChild.nextSibling != null)
-                        priorChild = priorChild.nextSibling;
-                    priorChild.nextSibling = child;
-                }
+                ret.addChild(parseNode(parser));
             } else if (eventType == XmlPullParser.TEXT) {
                 ret.text = parser.getText();
             }
         }
+        ret.trim();
+        return ret;
+    }
+
+    private int findGroup(int tag) {
+        for (int ix = 0; ix < numGroups; ix++) {
+            if (childTags[ix] == tag)
+                return ix;
+        }
+        return -1;
+    }
+
+    private void addChild(XmlNode child) {
+        int ix = findGroup(child.tagId);
+        if (ix < 0) {
+            if (childTags == null) {
+                childTags = new int[4];
+                childGroups = new XmlNode[4][];
+                childCounts = new int[4];
+            } else if (numGroups == childTags.length) {
+                childTags = Arrays.copyOf(childTags, numGroups * 2);
+                childGroups = Arrays.copyOf(childGroups, numGroups * 2);
+                childCounts = Arrays.copyOf(childCounts, numGroups * 2);
+            }
+            ix = numGroups++;
+            childTags[ix] = child.tagId;
+            childGroups[ix] = new XmlNode[1];
+        }
+        XmlNode[] siblings = childGroups[ix];
+        int count = childCounts[ix];
+        if (count == siblings.length)
+            childGroups[ix] = siblings = Arrays.copyOf(siblings, count * 2);
+        siblings[count] = child;
+        childCounts[ix] = count + 1;
+        child.parent = this;
+        child.group = ix;
+        child.index = count;
+    }
+
+    // Release the spare capacity left from building
+    private void trim() {
+        if (childTags == null)
+            return;
+        if (numGroups < childTags.length) {
+            childTags = Arrays.copyOf(childTags, numGroups);
+            childGroups = Arrays.copyOf(childGroups, numGroups);
+            childCounts = Arrays.copyOf(childCounts, numGroups);
+        }
+        for (int ix = 0; ix < numGroups; ix++) {
+            if (childCounts[ix] < childGroups[ix].length)
+                childGroups[ix] = Arrays.copyOf(childGroups[ix], childCounts[ix]);
+        }
+    }
+
+    public interface RecordListener {
+        void onRecord(XmlNode record) throws IOException, XmlPullParserException;
+    }
+
+    /**
+     * Parse a list response without building the whole document.
+     * Each element named recordTag is built as a stand alone XmlNode, passed
+     * to the listener and then discarded, so memory use does not grow with the
+     * size of the list. Text elements directly under the document element
+     * (Count, TotalAvailable, etc.) are kept in the returned node.
+     * If the document element is itself a recordTag element (e.g. GetRecorded),
+     * it is passed to the listener and also returned.
+     *
+     * @return the document element, with only its text children
+     */
+    public static XmlNode parseRecords(InputStream in, String recordTag, RecordListener listener)
+            throws XmlPullParserException, IOException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(in, "utf-8");
+        int eventType = parser.getEventType();
+        XmlNode ret = null;
+
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                if (recordTag.equals(parser.getName())) {
+                    XmlNode record = parseNode(parser);
+                    if (ret == null)
+                        ret = record;
+                    listener.onRecord(record);
+                } else if (ret == null) {
+                    ret = new XmlNode();
+                    ret.tagId = internTag(parser.getName());
+                } else if (parser.getDepth() == 2) {
+                    XmlNode child = new XmlNode();
+                    child.tagId = internTag(parser.getName());
+                    eventType = parser.next();
+                    if (eventType == XmlPullParser.TEXT) {
+                        child.text = parser.getText();
+                        ret.addChild(child);
+                    }
+                    // The event just read has not been processed yet
+                    continue;
+                }
+            }
+            eventType = parser.next();
+        }
         return ret;
     }
 
@@ -161,25 +288,50 @@ public class XmlNode {
      */
     public static XmlNode fetch(String urlString, String requestMethod)
             throws XmlPullParserException, IOException {
+        if (requestMethod == null && ResponseCache.getTtl(urlString) > 0)
+            return ResponseCache.getInstance().fetch(urlString);
+        return fetch(urlString, requestMethod, XmlNode::parseStream, null);
+    }
+
+    /**
+     * Fetch a list from a given URL, passing each record to the listener
+     * as it is parsed. See parseRecords.
+     *
+     * @param timings if not null, download and parse times are added to it
+     * @return the document element, with only its text children
+     */
+    public static XmlNode fetchRecords(String urlString, String requestMethod,
+                                       String recordTag, RecordListener listener,
+                                       FetchTimings timings)
+            throws XmlPullParserException, IOException {
+        return fetch(urlString, requestMethod,
+                (in) -> parseRecords(in, recordTag, listener), timings);
+    }
+
+    private interface StreamParser {
+        XmlNode parse(InputStream in) throws XmlPullParserException, IOException;
+    }
+
+    private static XmlNode fetch(String urlString, String requestMethod, StreamParser streamParser,
+                                 FetchTimings timings)
+            throws XmlPullParserException, IOException {
         BackendCache bCache = BackendCache.getInstance();
         XmlNode ret = null;
-        URL url = null;
         HttpURLConnection urlConnection = null;
         InputStream is = null;
         try {
-            url = new URL(urlString);
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.addRequestProperty("Cache-Control", "no-cache");
-            urlConnection.setConnectTimeout(5000);
-            // 5 minutes - should never be this long.
-            urlConnection.setReadTimeout(300000);
-            if (requestMethod != null)
-                urlConnection.setRequestMethod(requestMethod);
+            urlConnection = BackendHttpClient.open(urlString, requestMethod);
             Log.i(TAG, CLASS + " URL: " + urlString);
-            is = urlConnection.getInputStream();
+            long startTime = System.currentTimeMillis();
+            is = BackendHttpClient.getInputStream(urlConnection);
             Log.i(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
                     + " " + urlConnection.getResponseMessage());
-            ret = XmlNode.parseStream(is);
+            long responseTime = System.currentTimeMillis();
+            ret = streamParser.parse(is);
+            if (timings != null) {
+                timings.download.addAndGet(responseTime - startTime);
+                timings.parse.addAndGet(System.currentTimeMillis() - responseTime);
+            }
             bCache.isConnected = true;
         } catch(FileNotFoundException e) {
             Log.i(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
@@ -187,21 +339,14 @@ public class XmlNode {
             throw e;
         } catch(IOException e) {
             bCache.isConnected = false;
-            Log.i(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
-                    + " " + urlConnection.getResponseMessage());
+            if (urlConnection != null)
+                Log.i(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
+                        + " " + urlConnection.getResponseMessage());
             if (!urlString.endsWith("/Myth/DelayShutdown"))
                 MainFragment.restartMythTask();
             throw e;
         } finally {
-            if (urlConnection != null)
-                urlConnection.disconnect();
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException e) {
-                    Log.e(TAG, CLASS + " XML feed closed: " + urlString, e);
-                }
-            }
+            BackendHttpClient.release(urlConnection, is);
         }
         return ret;
     }
@@ -219,16 +364,78 @@ public class XmlNode {
     public XmlNode getNode(String[] tag, int index) {
         XmlNode node = this;
         for (String item : tag) {
-            node = node.childMap.get(item);
-            if (node == null)
+            Integer id = tagIds.get(item);
+            if (id == null)
                 return null;
-        }
-        for (int ix = 0; ix<index; ix++) {
-            node = node.nextSibling;
-            if (node == null)
+            int ix = node.findGroup(id);
+            if (ix < 0)
                 return null;
+            node = node.childGroups[ix][0];
         }
-        return node;
+        return node.getSibling(index);
+    }
+
+    /**
+     * A set of child tags to be read together with readFields. Each tag
+     * is given a slot, its position in the constructor arguments.
+     */
+    public static final class FieldTable {
+        // Slot for each tag id, -1 for tags not in the table
+        private final int[] slotByTag;
+        private final int size;
+
+        public FieldTable(String... tags) {
+            int[] ids = new int[tags.length];
+            int maxId = 0;
+            for (int ix = 0; ix < tags.length; ix++) {
+                ids[ix] = internTag(tags[ix]);
+                maxId = Math.max(maxId, ids[ix]);
+            }
+            slotByTag = new int[maxId + 1];
+            Arrays.fill(slotByTag, -1);
+            for (int ix = 0; ix < tags.length; ix++)
+                slotByTag[ids[ix]] = ix;
+            size = tags.length;
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Find the children listed in a FieldTable in one pass over the
+     * child groups, instead of looking up each tag by name.
+     *
+     * @param fields Filled with the first child for each slot of the
+     *               table, or null if there is none. Must be at least
+     *               table.size() long.
+     */
+    public void readFields(FieldTable table, XmlNode[] fields) {
+        Arrays.fill(fields, 0, table.size, null);
+        int[] slotByTag = table.slotByTag;
+        for (int ix = 0; ix < numGroups; ix++) {
+            int tag = childTags[ix];
+            if (tag < slotByTag.length && slotByTag[tag] >= 0)
+                fields[slotByTag[tag]] = childGroups[ix][0];
+        }
+    }
+
+    // Text of a node returned by readFields
+    public static String textOf(XmlNode node) {
+        return node == null ? null : node.text;
+    }
+
+    // Sibling with the same tag, index positions after this one
+    private XmlNode getSibling(int index) {
+        if (index == 0)
+            return this;
+        if (parent == null || index < 0)
+            return null;
+        int ix = this.index + index;
+        if (ix >= parent.childCounts[group])
+            return null;
+        return parent.childGroups[group][ix];
     }
 
     public XmlNode getNode(String tag, int index) {
@@ -242,7 +449,7 @@ public class XmlNode {
     }
 
     public XmlNode getNextSibling() {
-        return nextSibling;
+        return getSibling(1);
     }
 
     public String getString(String[] tag, int index) {
@@ -301,28 +508,25 @@ public class XmlNode {
     }
 
 
-    @SuppressLint("SimpleDateFormat")
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'Z");
-
     public Date getDate() {
-        Date result = null;
-        if (text !=  null) {
-            try {
-                result = dateFormat.parse(text + "+0000");
-            } catch (ParseException e) {
-                result = null;
-            }
-        }
-        return result;
+        return DateCodec.toDate(text);
     }
 
 
     public String getAttribute(String name) {
-        return attributeMap.get(name);
+        if (attributes == null)
+            return null;
+        for (int ix = 0; ix < attributes.length; ix += 2) {
+            if (attributes[ix].equals(name))
+                return attributes[ix + 1];
+        }
+        return null;
     }
 
     public String getName() {
-        return name;
+        if (tagId < 0)
+            return null;
+        return tagNames[tagId];
     }
 
     /**
@@ -331,7 +535,19 @@ public class XmlNode {
      * @param value
      */
     public void setAttribute(String name, String value) {
-        attributeMap.put(name, value);
+        if (attributes != null) {
+            for (int ix = 0; ix < attributes.length; ix += 2) {
+                if (attributes[ix].equals(name)) {
+                    attributes[ix + 1] = value;
+                    return;
+                }
+            }
+            attributes = Arrays.copyOf(attributes, attributes.length + 2);
+        }
+        else
+            attributes = new String[2];
+        attributes[attributes.length - 2] = name;
+        attributes[attributes.length - 1] = value;
     }
 
     public static String mythApiUrl(String hostName, String params) throws IOException, XmlPullParserException {
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.model;
+
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import org.mythtv.leanfront.data.GuideCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.mythtv.leanfront.ui.GuideFragment.COLUMNS;
+import static org.mythtv.leanfront.ui.GuideFragment.TIMESLOTS;
+import static org.mythtv.leanfront.ui.GuideFragment.TIMESLOT_SIZE;
+import static org.mythtv.leanfront.ui.GuideFragment.TIME_ROW_INTERVAL;
+
+/**
+ * The complete contents of the program guide grid for one time window
+ * and channel group, built off the UI thread from the guide data in
+ * GuideCache. Once built it is not changed, the UI thread only reads it.
+ *
+ * Each channel row is the channel cell, a left arrow, TIMESLOTS program
+ * cells and a right arrow. A time row is placed before every
+ * TIME_ROW_INTERVAL channel rows.
+ */
+public class GuideGrid {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "GuideGrid";
+
+    public final Date gridStartTime;
+    public final List<GuideSlot> slots;
+    // map chanid to position of first program cell in slots
+    private final SparseIntArray chanPositions;
+
+    private GuideGrid(Date gridStartTime, List<GuideSlot> slots, SparseIntArray chanPositions) {
+        this.gridStartTime = gridStartTime;
+        this.slots = Collections.unmodifiableList(slots);
+        this.chanPositions = chanPositions;
+    }
+
+    public int getChanPosition(int chanId) {
+        return chanPositions.get(chanId, -1);
+    }
+
+    /**
+     * Build the grid. With hundreds of channels this takes a while,
+     * so must not be called on the UI thread.
+     */
+    public static GuideGrid build(List<GuideCache.ChannelWindow> channels,
+                                  Date gridStartTime, String chanGroup) {
+        long startTime = System.currentTimeMillis();
+        ArrayList<GuideSlot> slots = new ArrayList<>();
+        SparseIntArray chanPositions = new SparseIntArray();
+        GuideSlot leftArrowSlot = new GuideSlot(GuideSlot.CELL_LEFTARROW);
+        GuideSlot rightArrowSlot = new GuideSlot(GuideSlot.CELL_RIGHTARROW);
+        GuideSlot[] timeRow = makeTimeRow(gridStartTime, chanGroup, leftArrowSlot, rightArrowSlot);
+        // Counter to ensure new time row every few rows.
+        int tsRowCount = 0;
+        for (GuideCache.ChannelWindow window : channels) {
+            if (tsRowCount == 0)
+                Collections.addAll(slots, timeRow);
+            if (++tsRowCount >= TIME_ROW_INTERVAL)
+                tsRowCount = 0;
+            GuideCache.Channel channel = window.channel;
+            slots.add(new GuideSlot(channel.chanId, channel.chanNum,
+                    channel.callSign, channel.chanDetails));
+            slots.add(leftArrowSlot);
+            chanPositions.put(channel.chanId, slots.size());
+            for (int i = 0; i < TIMESLOTS; i++) {
+                int position;
+                switch (i) {
+                    case 0:
+                        position = GuideSlot.POS_LEFT;
+                        break;
+                    case TIMESLOTS - 1:
+                        position = GuideSlot.POS_RIGHT;
+                        break;
+                    default:
+                        position = GuideSlot.POS_MIDDLE;
+                }
+                slots.add(new GuideSlot(GuideSlot.CELL_PROGRAM, position, timeRow[i + 2].timeSlot));
+            }
+            slots.add(rightArrowSlot);
+            placePrograms(slots, slots.size() - TIMESLOTS - 1, window.programs, gridStartTime);
+        }
+        Log.i(TAG, CLASS + " Built " + chanPositions.size() + " channels in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+        return new GuideGrid(gridStartTime, slots, chanPositions);
+    }
+
+    private static GuideSlot[] makeTimeRow(Date gridStartTime, String chanGroup,
+                                           GuideSlot leftArrowSlot, GuideSlot rightArrowSlot) {
+        GuideSlot[] timeRow = new GuideSlot[COLUMNS];
+        // time selector slot at front
+        timeRow[0] = new GuideSlot(GuideSlot.CELL_TIMESELECTOR);
+        timeRow[0].timeSlot = gridStartTime;
+        timeRow[0].chanGroup = chanGroup;
+        timeRow[1] = leftArrowSlot;
+        for (int ix = 0; ix < TIMESLOTS; ix++) {
+            timeRow[ix + 2] = new GuideSlot(GuideSlot.CELL_TIMESLOT, 0,
+                    new Date(gridStartTime.getTime() + (long) ix * TIMESLOT_SIZE * 60000));
+        }
+        timeRow[TIMESLOTS + 2] = rightArrowSlot;
+        return timeRow;
+    }
+
+    // Assign the channel's programs to the program cells starting at rowPos.
+    private static void placePrograms(List<GuideSlot> slots, int rowPos,
+                                      List<GuideSlot.Program> programs, Date gridStartTime) {
+        for (GuideSlot.Program program : programs) {
+            long lPos = (program.startTime.getTime() - gridStartTime.getTime())
+                    / (TIMESLOT_SIZE * 60);
+            float fPos = (float) lPos / 1000.0f;
+            // Start position is the slot wherein the show starts.
+            int startPos = (int) (fPos);
+            if (startPos >= TIMESLOTS)
+                continue;
+            if (startPos < 0)
+                startPos = 0;
+
+            lPos = (program.endTime.getTime() - gridStartTime.getTime())
+                    / (TIMESLOT_SIZE * 60);
+            fPos = (float) lPos / 1000.0f;
+            // End position is the slot before the one where the show ends
+            // unless it ends in the same slot as it starts.
+            int endPos = (int) (fPos);
+            if (endPos <= 0)
+                continue;
+            if (endPos >= TIMESLOTS)
+                endPos = TIMESLOTS;
+            if (endPos == startPos)
+                ++endPos;
+
+            for (int ix = rowPos + startPos; ix < rowPos + endPos; ix++) {
+                GuideSlot slot = slots.get(ix);
+                if (slot.program == null)
+                    slot.program = program;
+                else if (slot.program2 == null) {
+                    if (program.startTime.after(slot.program.startTime))
+                        slot.program2 = program;
+                    else {
+                        slot.program2 = slot.program;
+                        slot.program = program;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import android.content.Context;
 import android.util.Log;
 
 import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.data.DateCodec;
 import org.mythtv.leanfront.data.XmlNode;
 import org.mythtv.leanfront.ui.GuideFragment;
 
@@ -144,15 +145,17 @@ public class GuideSlot {
         public int season;
         public int episode;
         public String recordingStatus;
-        private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'Z");
         private static final String TAG = "lfe";
         private static final String CLASS = "Program";
 
+        public Program() {
+        }
+
         public Program(XmlNode programNode, XmlNode chanNode) {
             try {
                 chanId = Integer.parseInt(chanNode.getString("ChanId"));
-                startTime = dateFormat.parse(programNode.getString("StartTime") + "+0000");
-                endTime = dateFormat.parse(programNode.getString("EndTime") + "+0000");
+                startTime = DateCodec.toDate(programNode.getString("StartTime"));
+                endTime = DateCodec.toDate(programNode.getString("EndTime"));
                 title = programNode.getString("Title");
                 subTitle = programNode.getString("SubTitle");
                 season = programNode.getInt("Season",0);
@@ -4,10 +4,10 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 
 import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.data.DateCodec;
 import org.mythtv.leanfront.data.XmlNode;
 
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -72,15 +72,12 @@ public class RecordRule {
 
     private static final String TAG = "lfe";
     private static final String CLASS = "RecordSchedule";
-    private static final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
 
     private static DateFormat timeFormatter;
     private static DateFormat dateFormatter;
     private static DateFormat shortDateFormatter;
     private static DateFormat dayFormatter;
 
-    private static final SimpleDateFormat dateOnlyFormat = new SimpleDateFormat("yyyy-MM-dd");
-
     public RecordRule fromProgram(XmlNode programNode) {
         isFromProgram = true;
         title = programNode.getString("Title");
@@ -89,16 +86,11 @@ public class RecordRule {
         category = programNode.getString("Category");
         startTime = programNode.getNode("StartTime").getDate();
         endTime = programNode.getNode("EndTime").getDate();
-        String t = programNode.getString("Airdate");
-        if (t == null)
+        long airMillis = DateCodec.parseLocalDate(programNode.getString("Airdate"));
+        if (airMillis == DateCodec.INVALID)
             airDate = null;
-        else {
-            try {
-                airDate = dateOnlyFormat.parse(t);
-            } catch (ParseException e) {
-                airDate = null;
-            }
-        }
+        else
+            airDate = new Date(airMillis);
         repeat = programNode.getNode("Repeat").getBoolean();
         seriesId = programNode.getString("SeriesId");
         programId = programNode.getString("ProgramId");
@@ -111,7 +103,7 @@ public class RecordRule {
         findDay = cal.get(GregorianCalendar.DAY_OF_WEEK);
         if (findDay == 7)
             findDay = 0;
-        findTime = timeFormat.format(startTime);
+        findTime = DateCodec.formatLocalTime(startTime.getTime());
         // inactive
         season = programNode.getInt("Season",0);
         episode = programNode.getInt("Episode",0);
@@ -31,6 +31,8 @@ import org.mythtv.leanfront.data.AsyncBackendCall;
 import org.mythtv.leanfront.data.VideoContract;
 import org.mythtv.leanfront.ui.MainFragment;
 
+import java.util.Objects;
+
 /**
  * Video is an object that holds the various metadata associated with a single video.
  */
@@ -349,6 +351,47 @@ public final class Video implements Parcelable, ListItem {
         return null;
     }
 
+    /**
+     * Compare everything that may be shown on a card or used when the
+     * card is selected, to decide whether a reloaded card can be kept.
+     */
+    public boolean sameContent(Video other) {
+        return id == other.id
+                && type == other.type
+                && rectype == other.rectype
+                && filesize == other.filesize
+                && lastUsed == other.lastUsed
+                && showRecent == other.showRecent
+                && Objects.equals(title, other.title)
+                && Objects.equals(titlematch, other.titlematch)
+                && Objects.equals(subtitle, other.subtitle)
+                && Objects.equals(description, other.description)
+                && Objects.equals(bgImageUrl, other.bgImageUrl)
+                && Objects.equals(cardImageUrl, other.cardImageUrl)
+                && Objects.equals(videoUrl, other.videoUrl)
+                && Objects.equals(videoUrlPath, other.videoUrlPath)
+                && Objects.equals(channel, other.channel)
+                && Objects.equals(recordedid, other.recordedid)
+                && Objects.equals(recGroup, other.recGroup)
+                && Objects.equals(playGroup, other.playGroup)
+                && Objects.equals(season, other.season)
+                && Objects.equals(episode, other.episode)
+                && Objects.equals(airdate, other.airdate)
+                && Objects.equals(starttime, other.starttime)
+                && Objects.equals(endtime, other.endtime)
+                && Objects.equals(duration, other.duration)
+                && Objects.equals(prodyear, other.prodyear)
+                && Objects.equals(filename, other.filename)
+                && Objects.equals(hostname, other.hostname)
+                && Objects.equals(progflags, other.progflags)
+                && Objects.equals(videoProps, other.videoProps)
+                && Objects.equals(videoPropNames, other.videoPropNames)
+                && Objects.equals(chanid, other.chanid)
+                && Objects.equals(channum, other.channum)
+                && Objects.equals(callsign, other.callsign)
+                && Objects.equals(storageGroup, other.storageGroup);
+    }
+
     public boolean isRecentViewed() {
         boolean showRecents = "true".equals(Settings.getString("pref_show_recents"));
         boolean showDeleted = "true".equals(Settings.getString("pref_recents_deleted"));
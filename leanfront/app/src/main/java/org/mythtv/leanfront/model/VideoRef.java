@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.model;
+
+// Placeholder for a video in a main screen row, holding only its
+// database id. The Video is built from the database when the card
+// is displayed, see LazyRowAdapter.
+
+public class VideoRef implements ListItem {
+    // _id in videoview
+    public final long id;
+    // Position in the main loader cursor, only valid while loading
+    public final int position;
+    // For type values see MainFragment
+    public int type;
+
+    public VideoRef(long id, int position) {
+        this.id = id;
+        this.position = position;
+    }
+
+    @Override
+    public int getItemType() {
+        return type;
+    }
+
+    @Override
+    public String getName() {
+        return null;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.player;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.DefaultLoadControl;
+import androidx.media3.exoplayer.upstream.DefaultAllocator;
+
+import org.mythtv.leanfront.model.Settings;
+
+/**
+ * Player buffering set up from the playback group settings:
+ * minimum and maximum buffer, buffer needed to start and to restart
+ * after running out, back buffer and memory limit.
+ *
+ * In adaptive mode each rebuffer grows the minimum and maximum buffer
+ * durations, up to MAX_SCALE times the settings. The memory limit still
+ * applies.
+ */
+@UnstableApi public class AdaptiveLoadControl extends DefaultLoadControl {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "AdaptiveLoadControl";
+    private static final float SCALE_STEP = 1.5f;
+    private static final float MAX_SCALE = 4.0f;
+
+    private final boolean mAdaptive;
+    // Read on the playback thread
+    private volatile float mScale = 1.0f;
+
+    private AdaptiveLoadControl(int minBufferMs, int maxBufferMs,
+                                int bufferForPlaybackMs, int bufferForPlaybackAfterRebufferMs,
+                                int targetBufferBytes, int backBufferMs, boolean adaptive) {
+        super(new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE),
+                minBufferMs, maxBufferMs, bufferForPlaybackMs,
+                bufferForPlaybackAfterRebufferMs, targetBufferBytes,
+                false, backBufferMs, DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME);
+        mAdaptive = adaptive;
+    }
+
+    /**
+     * Create from the settings of a playback group.
+     *
+     * @param prior Load control of the previous player, whose adaptive
+     *              growth is kept, or null.
+     */
+    public static AdaptiveLoadControl create(String playGroup,
+                                             @Nullable AdaptiveLoadControl prior) {
+        int maxBufferMs = 1000 * Settings.getInt("pref_readahead_secs", playGroup);
+        int minBufferMs = 1000 * Settings.getInt("pref_buffer_min_secs", playGroup);
+        int startMs = Settings.getInt("pref_buffer_start_ms", playGroup);
+        int restartMs = Settings.getInt("pref_buffer_restart_ms", playGroup);
+        int backBufferMs = 1000 * Settings.getInt("pref_back_buffer_secs", playGroup);
+        int memoryMb = Settings.getInt("pref_buffer_mem_mb", playGroup);
+        boolean adaptive = "true".equals(Settings.getString("pref_buffer_adaptive", playGroup));
+        // The player requires start <= min <= max
+        startMs = Math.max(startMs, 0);
+        restartMs = Math.max(restartMs, 0);
+        minBufferMs = Math.max(minBufferMs, Math.max(startMs, restartMs));
+        maxBufferMs = Math.max(maxBufferMs, minBufferMs);
+        backBufferMs = Math.max(backBufferMs, 0);
+        int targetBufferBytes = memoryMb > 0 ? memoryMb * 1024 * 1024 : C.LENGTH_UNSET;
+        Log.i(TAG, CLASS + " Buffer ms min " + minBufferMs + " max " + maxBufferMs
+                + " start " + startMs + " restart " + restartMs + " back " + backBufferMs
+                + " memory MB " + memoryMb + " adaptive " + adaptive);
+        AdaptiveLoadControl control = new AdaptiveLoadControl(minBufferMs, maxBufferMs,
+                startMs, restartMs, targetBufferBytes, backBufferMs, adaptive);
+        if (adaptive && prior != null)
+            control.mScale = prior.mScale;
+        return control;
+    }
+
+    /**
+     * Note that playback ran out of data. In adaptive mode the buffers
+     * are made bigger.
+     */
+    public void onRebuffer() {
+        if (!mAdaptive || mScale >= MAX_SCALE)
+            return;
+        mScale = Math.min(mScale * SCALE_STEP, MAX_SCALE);
+        Log.i(TAG, CLASS + " Buffer durations scaled by " + mScale);
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long playbackPositionUs, long bufferedDurationUs,
+                                         float playbackSpeed) {
+        // Treating the buffer as shorter than it is has the effect of
+        // scaling the minimum and maximum durations.
+        return super.shouldContinueLoading(playbackPositionUs,
+                (long) (bufferedDurationUs / mScale), playbackSpeed);
+    }
+}
@@ -27,19 +27,17 @@ package org.mythtv.leanfront.presenter;
 import androidx.leanback.widget.AbstractDetailsDescriptionPresenter;
 
 import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.data.DateCodec;
 import org.mythtv.leanfront.data.VideoContract;
 import org.mythtv.leanfront.model.Video;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 
 import java.text.DateFormat;
 import java.text.NumberFormat;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Objects;
 
-@SuppressLint("SimpleDateFormat")
 public class DetailsDescriptionPresenter extends AbstractDetailsDescriptionPresenter {
     private ViewHolder mViewHolder;
     private Video mVideo;
@@ -51,7 +49,6 @@ public class DetailsDescriptionPresenter extends AbstractDetailsDescriptionPrese
         setupDescription();
     }
     
-    @SuppressLint("SimpleDateFormat")
     public void setupDescription() {
         if (mVideo == null)
             return;
@@ -84,11 +81,10 @@ public class DetailsDescriptionPresenter extends AbstractDetailsDescriptionPrese
             // 2018-05-23T00:00:00Z
             try {
                 // Date Recorded
-                SimpleDateFormat dbFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'Z");
                 DateFormat outFormat = android.text.format.DateFormat.getMediumDateFormat(context);
                 String recDate = null;
-                if (mVideo.starttime != null) {
-                    Date date = dbFormat.parse(mVideo.starttime + "+0000");
+                Date date = DateCodec.toDate(mVideo.starttime);
+                if (date != null) {
                     recDate = outFormat.format(date);
                     description.append(recDate);
                 }
@@ -104,15 +100,16 @@ public class DetailsDescriptionPresenter extends AbstractDetailsDescriptionPrese
                 if (mVideo.channel != null && mVideo.channel.length()>0)
                     description.append("  ").append(mVideo.channel);
                 // Original Air date
-                dbFormat = new SimpleDateFormat("yyyy-MM-dd");
                 if (mVideo.airdate != null) {
                     if ("01-01".equals(mVideo.airdate.substring(5)))
                         description.append("   [").append(mVideo.airdate.substring(0, 4)).append("]");
                     else {
-                        Date date = dbFormat.parse(mVideo.airdate);
-                        String origDate = outFormat.format(date);
-                        if (!Objects.equals(origDate,recDate))
-                            description.append("   [").append(outFormat.format(date)).append("]");
+                        long airMillis = DateCodec.parseLocalDate(mVideo.airdate);
+                        if (airMillis != DateCodec.INVALID) {
+                            String origDate = outFormat.format(new Date(airMillis));
+                            if (!Objects.equals(origDate, recDate))
+                                description.append("   [").append(origDate).append("]");
+                        }
                     }
                 }
                 description.append('\n');
@@ -26,15 +26,19 @@ package org.mythtv.leanfront.ui;
 
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_AIRDATE;
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_CHANNUM;
-import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_EPISODE;
+import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_CHANNUMSORT;
+import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_EPISODENUM;
+import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_FILESORT;
+import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_SEASONNUM;
+import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_TYPESORT;
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_FILENAME;
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_RECGROUP;
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_RECORDEDID;
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_RECTYPE;
-import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_SEASON;
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_STARTTIME;
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_TITLE;
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_TITLEMATCH;
+import static org.mythtv.leanfront.data.VideoContract.VideoEntry.COLUMN_VIDEO_URL_PATH;
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.RECTYPE_CHANNEL;
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.RECTYPE_RECORDING;
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.RECTYPE_VIDEO;
@@ -51,9 +55,7 @@ import static org.mythtv.leanfront.ui.MainFragment.TYPE_TOP_ALL;
 import static org.mythtv.leanfront.ui.MainFragment.TYPE_VIDEO;
 import static org.mythtv.leanfront.ui.MainFragment.TYPE_VIDEODIR;
 import static org.mythtv.leanfront.ui.MainFragment.TYPE_VIDEODIR_ALL;
-import static org.mythtv.leanfront.ui.MainFragment.makeTitleSort;
 
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.Context;
 import android.database.Cursor;
@@ -66,24 +68,26 @@ import androidx.annotation.NonNull;
 
 import org.mythtv.leanfront.MyApplication;
 import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.data.DateCodec;
+import org.mythtv.leanfront.data.RecentsIndex;
+import org.mythtv.leanfront.data.VideoContract;
 import org.mythtv.leanfront.data.VideoDbHelper;
 import org.mythtv.leanfront.model.ListItem;
 import org.mythtv.leanfront.model.MyHeaderItem;
 import org.mythtv.leanfront.model.Settings;
 import org.mythtv.leanfront.model.Video;
 import org.mythtv.leanfront.model.VideoCursorMapper;
+import org.mythtv.leanfront.model.VideoRef;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.locks.ReentrantLock;
 
-@SuppressLint("SimpleDateFormat")
 public class AsyncMainLoader implements Runnable {
 
     MainFragment mainFragment;
@@ -98,11 +102,14 @@ public class AsyncMainLoader implements Runnable {
     //   [0] is a MyHeaderItem
     //   [1] onwards are each a Video
     ArrayList<ArrayList<ListItem>> categoryList;
+    // Recents row for the top level, header at [0]. null if not shown.
+    private ArrayList<ListItem> recentsRow;
     boolean isProgressBar;
 
     private static final String TAG = "lfe";
     private static final String CLASS = "AsyncMainLoader";
-    public static ReentrantLock lock = new ReentrantLock();
+    // Maximum values in one IN (...) clause, SQLite allows 999 parameters
+    private static final int MAX_IN_ARGS = 500;
 
     public AsyncMainLoader(@NonNull Activity activity, boolean isProgressBar) {
         this.isProgressBar = isProgressBar;
@@ -114,20 +121,17 @@ public class AsyncMainLoader implements Runnable {
         executor.submit(this);
     }
 
+    // The database is in WAL mode, so this reads a consistent snapshot
+    // even while FetchVideoService is writing, without waiting for it.
     @Override
     public void run() {
-        if (lock.tryLock()) {
-            try {
-                runTasks();
-            } catch (Throwable e) {
-                Log.e(TAG, CLASS + " AsyncMainLoader.run exception", e);
-            } finally {
-                lock.unlock();
-                activity.runOnUiThread(() -> mainFragment.onAsyncLoadFinished(this, categoryList));
-            }
-        }
-        else
+        try {
+            runTasks();
+        } catch (Throwable e) {
+            Log.e(TAG, CLASS + " AsyncMainLoader.run exception", e);
+        } finally {
             activity.runOnUiThread(() -> mainFragment.onAsyncLoadFinished(this, categoryList));
+        }
     }
 
     protected void runTasks() {
@@ -139,13 +143,23 @@ public class AsyncMainLoader implements Runnable {
             SQLiteDatabase db = dbh.getReadableDatabase();
             if (db == null)
                 return;
-            Cursor csr = queryDb(db);
-            if (csr == null)
-                return;
-            // This fills categoryList
-            buildRows(csr);
-            csr.close();
-            VideoDbHelper.releaseDatabase();
+            try {
+                if (mType == TYPE_TOPLEVEL
+                        && "true".equals(Settings.getString("pref_show_recents"))) {
+                    recentsRow = buildRecents(db);
+                    // Show recents while the rest of the library is grouped
+                    if (recentsRow.size() > 1) {
+                        ArrayList<ListItem> early = new ArrayList<>(recentsRow);
+                        activity.runOnUiThread(() -> mainFragment.onRecentsLoaded(this, early));
+                    }
+                }
+                try (Cursor csr = queryDb(db)) {
+                    // This fills categoryList
+                    buildRows(csr);
+                }
+            } finally {
+                VideoDbHelper.releaseDatabase();
+            }
         } catch (Exception ex) {
             Log.e(TAG, CLASS + " AsyncMainLoader.runTasks exception",ex);
         }
@@ -164,12 +178,17 @@ public class AsyncMainLoader implements Runnable {
         /*
         SQL "order by" is complicated. Below are examples for the various cases
         Note: RECTYPE_RECORDING = 1;  RECTYPE_VIDEO = 2;  RECTYPE_CHANNEL = 3;
+        The sort key columns are filled in by VideoDbBuilder, so that the
+        indexes created in VideoDbHelper give the default order (recorded
+        time ascending) without sorting. For the airdate or descending
+        orders the index gives the order up to titlematch and SQLite sorts
+        within each title. Merged videos use an OR and are sorted in full.
 
         Top Level list or Videos list
-            CASE WHEN rectype = 3 THEN 1 ELSE rectype END,
-            CASE WHEN rectype = 2
-             THEN REPLACE(REPLACE(REPLACE('/'||UPPER(filename),'/THE ','/'),'/A ','/'),'/AN ','/')
-             ELSE NULL END,
+            typesort, -- (WAS CASE WHEN rectype = 3 THEN 1 ELSE rectype END,)
+            filesort, -- (WAS CASE WHEN rectype = 2
+                      --   THEN REPLACE(REPLACE(REPLACE('/'||UPPER(filename),'/THE ','/'),'/A ','/'),'/AN ','/')
+                      --   ELSE NULL END,)
             recgroup,
             titlematch, -- (WAS REPLACE(REPLACE(REPLACE('^'||UPPER(suggest_text_1),'^THE ','^'),'^A ','^'),'^AN ','^'), )
             starttime asc, airdate asc
@@ -179,24 +198,15 @@ public class AsyncMainLoader implements Runnable {
             starttime asc, airdate asc
 
         LiveTV list
-            CAST (channum as real), channum,
+            channumsort, channum, -- (WAS CAST (channum as real), channum,)
             titlematch, -- (WAS REPLACE(REPLACE(REPLACE('^'||UPPER(suggest_text_1),'^THE ','^'),'^A ','^'),'^AN ','^'),)
             starttime asc, airdate asc
          */
 
         if (mType == TYPE_TOPLEVEL || mType == TYPE_VIDEODIR) {
-            // This case will sort channels together with videos
-            orderby.append("CASE WHEN ");
-            orderby.append(COLUMN_RECTYPE).append(" = ");
-            orderby.append(RECTYPE_CHANNEL);
-            orderby.append(" THEN ").append(RECTYPE_RECORDING);
-            orderby.append(" ELSE ").append(COLUMN_RECTYPE).append(" END, ");
-            orderby.append("CASE WHEN ");
-            orderby.append(COLUMN_RECTYPE).append(" = ");
-            orderby.append(RECTYPE_VIDEO).append(" THEN ");
-            StringBuilder fnSort = makeTitleSort(COLUMN_FILENAME, '/');
-            orderby.append(fnSort);
-            orderby.append(" ELSE NULL END, ");
+            // typesort will sort channels together with recordings
+            orderby.append(COLUMN_TYPESORT).append(", ");
+            orderby.append(COLUMN_FILESORT).append(", ");
             orderby.append(COLUMN_RECGROUP).append(", ");
         }
         // for Recording Group page, limit selection to those recordings.
@@ -211,7 +221,7 @@ public class AsyncMainLoader implements Runnable {
             }
             else if (mBaseName.equals("LiveTV")) {
                 selection.append(COLUMN_RECGROUP).append(" = 'LiveTV' ");
-                orderby.append("CAST (").append(COLUMN_CHANNUM).append(" as real), ");
+                orderby.append(COLUMN_CHANNUMSORT).append(", ");
                 orderby.append(COLUMN_CHANNUM).append(", ");
             }
             else if (mBaseName.equals("Deleted")) {
@@ -235,8 +245,9 @@ public class AsyncMainLoader implements Runnable {
             }
         }
         // for Video Directory page, limit selection to videos
+        // typesort is the same as rectype for videos, and leads the index
         if (mType == TYPE_VIDEODIR) {
-            selection.append(COLUMN_RECTYPE).append(" = ");
+            selection.append(COLUMN_TYPESORT).append(" = ");
             selection.append(RECTYPE_VIDEO);
         }
 
@@ -244,10 +255,10 @@ public class AsyncMainLoader implements Runnable {
 //        orderby.append(titleSort).append(", ");
         orderby.append(COLUMN_TITLEMATCH).append(", ");
         if ("airdate".equals(seq)) {
-            // +0 is used to convert the value to a number
-            orderby.append(COLUMN_SEASON).append("+0 ")
+            // Numeric values of season and episode
+            orderby.append(COLUMN_SEASONNUM).append(" ")
                     .append(ascdesc).append(", ");
-            orderby.append(COLUMN_EPISODE).append("+0 ")
+            orderby.append(COLUMN_EPISODENUM).append(" ")
                     .append(ascdesc).append(", ");
             orderby.append(COLUMN_AIRDATE).append(" ")
                     .append(ascdesc).append(", ");
@@ -292,19 +303,81 @@ public class AsyncMainLoader implements Runnable {
         }
     }
 
+    // Build the recents row from RecentsIndex, most recently used first.
+    // Only the videos in the index are read, by video_url_path.
+    private ArrayList<ListItem> buildRecents(SQLiteDatabase db) {
+        long startTime = System.currentTimeMillis();
+        Context context = MyApplication.getAppContext();
+        boolean recentsTrim = "true".equals(Settings.getString("pref_recents_trim"));
+        boolean showRecentDeleted = "true".equals(Settings.getString("pref_recents_deleted"));
+        boolean showRecentWatched = "true".equals(Settings.getString("pref_recents_watched"));
+        recentsTrim = recentsTrim && (showRecentDeleted || showRecentWatched);
+        long recentsStart = System.currentTimeMillis()
+                - Settings.getInt("pref_recents_days") * 24*60*60*1000L;
+        ArrayList<ListItem> row = new ArrayList<>();
+        row.add(new MyHeaderItem(context.getString(R.string.recents_title) + "\t",
+                TYPE_RECENTS, mBaseName));
+        List<RecentsIndex.Entry> entries = RecentsIndex.getInstance().getRecent(db, recentsStart);
+        HashMap<String, Video> videos = new HashMap<>();
+        VideoCursorMapper mapper = new VideoCursorMapper();
+        for (int start = 0; start < entries.size(); start += MAX_IN_ARGS) {
+            int end = Math.min(entries.size(), start + MAX_IN_ARGS);
+            String[] args = new String[end - start];
+            StringBuilder selection = new StringBuilder(COLUMN_VIDEO_URL_PATH).append(" IN (");
+            for (int ix = start; ix < end; ix++) {
+                args[ix - start] = entries.get(ix).videoUrlPath;
+                selection.append(ix == start ? "?" : ",?");
+            }
+            selection.append(')');
+            try (Cursor csr = db.query(VIEW_NAME, null, selection.toString(), args,
+                    null, null, null)) {
+                mapper.changeCursor(csr);
+                while (csr.moveToNext()) {
+                    Video video = (Video) mapper.get(csr.getPosition());
+                    videos.put(video.videoUrlPath, video);
+                }
+            }
+        }
+        // If the user does not want duplicates of recent titles that were
+        // watched or deleted, keep only the most recently viewed episode of
+        // each series. Entries are newest first, so that is the first one.
+        // This is done before removing hidden entries, so an older episode
+        // does not replace one that was removed from recents.
+        HashSet<String> series = new HashSet<>();
+        for (RecentsIndex.Entry entry : entries) {
+            Video video = videos.get(entry.videoUrlPath);
+            if (video == null || !video.isRecentViewed())
+                continue;
+            if (recentsTrim && video.titlematch != null
+                    && !series.add(video.titlematch))
+                continue;
+            // video.showRecent - if this is false the one we have selected has been
+            // Removed from recent list, so do not show it.
+            if (!video.showRecent)
+                continue;
+            if (video.rectype == RECTYPE_VIDEO)
+                video.type = TYPE_VIDEO;
+            else if (video.rectype == RECTYPE_CHANNEL)
+                video.type = TYPE_CHANNEL;
+            else
+                video.type = TYPE_EPISODE;
+            row.add(video);
+        }
+        Log.i(TAG, CLASS + " Built recents with " + (row.size() - 1) + " cards from "
+                + entries.size() + " entries in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+        return row;
+    }
+
     // This replaces onLoadFinished(Loader<Cursor> loader, Cursor data)
     // Organize videos into rows for display.
     private void buildRows(Cursor data) {
+        long startTime = System.currentTimeMillis();
         Context context = MyApplication.getAppContext();
         VideoCursorMapper mapper = new VideoCursorMapper();
         categoryList = new ArrayList<>();
         String seq = Settings.getString("pref_seq");
         String ascdesc = Settings.getString("pref_seq_ascdesc");
-        boolean showRecents = "true".equals(Settings.getString("pref_show_recents"));
-        boolean recentsTrim = "true".equals(Settings.getString("pref_recents_trim"));
-        boolean showRecentDeleted = "true".equals(Settings.getString("pref_recents_deleted"));
-        boolean showRecentWatched = "true".equals(Settings.getString("pref_recents_watched"));
-        recentsTrim = recentsTrim && (showRecentDeleted || showRecentWatched);
         VideoComparator videoComparator = new VideoComparator(ascdesc);
 
         int allType = TYPE_RECGROUP_ALL;
@@ -326,16 +399,15 @@ public class AsyncMainLoader implements Runnable {
         int airdateIndex = data.getColumnIndex(COLUMN_AIRDATE);
         int starttimeIndex = data.getColumnIndex(COLUMN_STARTTIME);
         int filenameIndex = data.getColumnIndex(COLUMN_FILENAME);
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        SimpleDateFormat dbTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        int idIndex = data.getColumnIndex(VideoContract.VideoEntry._ID);
         int sortkey;
-        SimpleDateFormat sortKeyFormat;
+        boolean sortByDate;
         if ("airdate".equals(seq)) {
             sortkey = airdateIndex;
-            sortKeyFormat = dbDateFormat;
+            sortByDate = true;
         } else {
             sortkey = starttimeIndex;
-            sortKeyFormat = dbTimeFormat;
+            sortByDate = false;
         }
         boolean cursorHasData = data.moveToFirst();
 
@@ -344,8 +416,6 @@ public class AsyncMainLoader implements Runnable {
         ArrayList<ListItem> rowList = null;
         SparseArray<ListItem> allSparse = null;
         ArrayList<ListItem> allList = null;
-        SparseArray<ListItem> recentsSparse = null;
-        ArrayList<ListItem> recentsList = null;
         ArrayList<ListItem> rootList = null;
         mapper.changeCursor(data);
 
@@ -356,21 +426,13 @@ public class AsyncMainLoader implements Runnable {
         String currentItem = null;
         int currentRowNum = -1;
         int allRowNum = -1;
-        int recentsRowNum = -1;
         int rootRowNum = -1;
         MyHeaderItem header;
 
 
-        // Create the recents row, only for top level
-        if (mType == TYPE_TOPLEVEL && showRecents) {
-            String title = context.getString(R.string.recents_title) + "\t";
-            header = new MyHeaderItem(title, TYPE_RECENTS, mBaseName);
-            recentsSparse = new SparseArray<>();
-            recentsList = new ArrayList<>();
-            categoryList.add(recentsList);
-            recentsList.add(header);
-            recentsRowNum = categoryList.size() - 1;
-        }
+        // The recents row was built by buildRecents, leave it out if empty
+        if (recentsRow != null && recentsRow.size() > 1)
+            categoryList.add(recentsRow);
 
         // Create "All" row (but not for videos)
         if (mType != TYPE_VIDEODIR) {
@@ -406,8 +468,13 @@ public class AsyncMainLoader implements Runnable {
 
             String category = null;
             String categorymatch = null;
-            Video video = (Video) mapper.get(data.getPosition());
-            Video dbVideo = video;
+            // Recordings and channels are left as a VideoRef unless the
+            // Video is needed here, see LazyRowAdapter.
+            ListItem video;
+            if (rectype == RECTYPE_VIDEO)
+                video = (Video) mapper.get(data.getPosition());
+            else
+                video = new VideoRef(data.getLong(idIndex), data.getPosition());
 
             // For Rec Group type, only use recordings from that recording group.
             // categories are titles.
@@ -550,20 +617,24 @@ public class AsyncMainLoader implements Runnable {
                         .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
                         .progflags("0")
                         .build();
-            video.type = itemType;
+            if (video instanceof VideoRef)
+                ((VideoRef) video).type = itemType;
+            else
+                ((Video) video).type = itemType;
 
             // Add video to row
             if (addToRow && category != null) {
-                Video tVideo = video;
-                if (mType == TYPE_TOPLEVEL && video.rectype == RECTYPE_CHANNEL) {
+                ListItem tVideo = video;
+                if (mType == TYPE_TOPLEVEL && rectype == RECTYPE_CHANNEL) {
                     // Create dummy video for "All Channels"
-                    tVideo = new Video.VideoBuilder()
+                    Video allChannels = new Video.VideoBuilder()
                             .id(-1).channel(context.getString(R.string.row_header_channels))
                             .rectype(RECTYPE_CHANNEL)
                             .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
                             .progflags("0")
                             .build();
-                    tVideo.type = TYPE_CHANNEL_ALL;
+                    allChannels.type = TYPE_CHANNEL_ALL;
+                    tVideo = allChannels;
                 }
                 rowList.add(tVideo);
             }
@@ -582,18 +653,16 @@ public class AsyncMainLoader implements Runnable {
                 int position = 0;
                 String sortKeyStr = data.getString(sortkey);
                 if (sortKeyStr != null) {
-                    try {
-                        Date date = sortKeyFormat.parse(sortKeyStr);
+                    long millis = sortByDate ? DateCodec.parseDate(sortKeyStr)
+                            : DateCodec.parseUtc(sortKeyStr);
+                    if (millis != DateCodec.INVALID) {
                         // 525960 minutes in a year
                         // Get position as number of minutes since 1970
-                        position = (int) (date.getTime() / 60000L);
+                        position = (int) (millis / 60000L);
                         // Add 70 years in case it is before 1970
                         position += 36817200;
                         if ("desc".equals(ascdesc))
                             position = Integer.MAX_VALUE - position;
-                    } catch (ParseException | NullPointerException e) {
-                        e.printStackTrace();
-                        position = 0;
                     }
                 }
                 // Make sure we have an empty slot
@@ -605,58 +674,6 @@ public class AsyncMainLoader implements Runnable {
                 allSparse.put(position, video);
             }
 
-            // Add to recents row if applicable
-            if (recentsSparse != null
-                    && dbVideo.isRecentViewed()) {
-                // 525960 minutes in a year
-                // Get key as number of minutes since 1970
-                // Will stop working in the year 5982
-                int key = (int) (dbVideo.lastUsed / 60000L);
-                // Add 70 years in case it is before 1970
-                key += 36817200;
-                // descending
-                key = Integer.MAX_VALUE - key;
-                // Make sure we have an empty slot
-                try {
-                    while (recentsSparse.get(key) != null)
-                        key++;
-                } catch (ArrayIndexOutOfBoundsException ignored) {
-                }
-
-                // Check if there is already an entry for that series / directory
-                // If the user does not want duplicates of recent titles that were
-                // watched or deleted
-
-                boolean isDeleted = "Deleted".equals(dbVideo.recGroup);
-                if (recentsTrim) {
-
-                    // If all recently viewed episodes of a series are watched/deleted, show the most
-                    // recently viewed.
-                    // If some recently viewed episodes of a series are watched/deleted and some are not,
-                    // show only the ones not watched/deleted
-
-                    String series = dbVideo.titlematch;
-                    if (series != null) {
-                        for (int fx = 0; fx < recentsSparse.size(); fx++) {
-                            Video fvid = (Video) recentsSparse.get(recentsSparse.keyAt(fx));
-                            boolean fisDeleted = "Deleted".equals(fvid.recGroup);
-                            if (series.equals(fvid.titlematch)) {
-                                int fkey = Integer.MAX_VALUE - ((int) (fvid.lastUsed / 60000L) + 36817200);
-                                if (key < fkey)
-                                    // position is closer to front, delete the other one
-                                    recentsSparse.delete(fkey);
-                                else
-                                    // position is later in list - drop this one
-                                    key = -1;
-                                break;
-                            }
-                        }
-                    }
-                }
-
-                if (key != -1)
-                    recentsSparse.put(key, dbVideo);
-            }
             data.moveToNext();
         }
 
@@ -667,26 +684,37 @@ public class AsyncMainLoader implements Runnable {
             }
         }
 
-        if (recentsSparse != null) {
-            // Add sparse entries to arraylist
-            for (int ix = 0; ix < recentsSparse.size(); ix++) {
-                Video video = (Video) recentsSparse.get(recentsSparse.keyAt(ix));
-                // video.showRecent - if this is false the one we have selected has been
-                // Removed from recent list, so do not show it.
-                if (video.showRecent)
-                    recentsList.add(video);
-            }
-            // Remove recents if empty
-            if (recentsSparse.size() <= 0) {
-                categoryList.remove(recentsRowNum);
-            }
-        }
         if (allSparse != null) {
             // Add sparse entries to arraylist
             for (int ix = 0; ix < allSparse.size(); ix++) {
                 allList.add(allSparse.get(allSparse.keyAt(ix)));
             }
         }
+
+        // Build the videos for rows small enough to be shown without a
+        // LazyRowAdapter, sharing them between rows.
+        SparseArray<Video> built = new SparseArray<>();
+        int itemCount = 0;
+        for (ArrayList<ListItem> row : categoryList) {
+            itemCount += row.size() - 1;
+            if (row.size() - 1 > LazyRowAdapter.MIN_LAZY_SIZE)
+                continue;
+            for (int ix = 1; ix < row.size(); ix++) {
+                if (row.get(ix) instanceof VideoRef) {
+                    VideoRef ref = (VideoRef) row.get(ix);
+                    Video video = built.get(ref.position);
+                    if (video == null) {
+                        video = (Video) mapper.get(ref.position);
+                        video.type = ref.type;
+                        built.put(ref.position, video);
+                    }
+                    row.set(ix, video);
+                }
+            }
+        }
+        Log.i(TAG, CLASS + " Built " + categoryList.size() + " rows with " + itemCount
+                + " cards from " + data.getCount() + " database rows in "
+                + (System.currentTimeMillis() - startTime) + " ms");
     }
     class VideoComparator implements Comparator<ListItem> {
         int sign = 1;
@@ -31,6 +31,7 @@ import com.kostyabakay.guidedtimepickeraction.GuidedActionsStylistExtended;
 import com.kostyabakay.guidedtimepickeraction.GuidedTimePickerAction;
 
 import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.data.DateCodec;
 import org.mythtv.leanfront.data.VideoDbHelper;
 import org.mythtv.leanfront.data.XmlNode;
 import org.mythtv.leanfront.model.RecordRule;
@@ -259,8 +260,7 @@ public class CreateManualSchedule  extends GuidedStepSupportFragment {
         // findday: Saturday = 0 , Sunday = 1, etc
         // java DAY_OF_WEEK Saturday = 7, Sunday = 1
         rule.findDay = cal.get(Calendar.DAY_OF_WEEK) % 7;
-        SimpleDateFormat sdfTime = new SimpleDateFormat("HH:mm:ss.SSS");
-        rule.findTime = sdfTime.format(rule.startTime);
+        rule.findTime = DateCodec.formatLocalTime(rule.startTime.getTime());
     }
 
     private String validateNumber(GuidedAction action, int min, int max, int defValue) {
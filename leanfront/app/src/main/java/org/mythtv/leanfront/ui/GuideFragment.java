@@ -28,7 +28,6 @@ import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.util.SparseIntArray;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
@@ -45,7 +44,10 @@ import androidx.leanback.widget.VerticalGridPresenter;
 
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
+import org.mythtv.leanfront.data.GuideCache;
+import org.mythtv.leanfront.data.GuideStore;
 import org.mythtv.leanfront.data.XmlNode;
+import org.mythtv.leanfront.model.GuideGrid;
 import org.mythtv.leanfront.model.GuideSlot;
 import org.mythtv.leanfront.model.Settings;
 import org.mythtv.leanfront.model.Video;
@@ -58,6 +60,9 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBackendCallListener{
 
@@ -70,16 +75,16 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
     private final int ZOOM_FACTOR = FocusHighlight.ZOOM_FACTOR_XSMALL;
     private ArrayObjectAdapter mGridAdapter;
     private Date mGridStartTime;
-    private long mPriorGridStartTime;
-    // map chanid to position in object adapter
-    private SparseIntArray mChanArray = new SparseIntArray();
-    private GuideSlot [] mTimeRow;
     private static DateFormat mTimeFormatter;
     private static DateFormat mDateFormatter;
     private static DateFormat mDayFormatter;
     private GregorianCalendar mTimeSelectCalendar;
     private AlertDialog mDialog;
-    private XmlNode mLoadInProcess;
+    // Grids are built on a worker thread. Incremented for each new grid
+    // requested, so that a grid for a superseded request is discarded.
+    private static final ExecutorService gridBuilder = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private int mGridGeneration;
     private boolean mDoingUpdate;
     private ArrayList<String> mChanGroupNames;
     private ArrayList<Integer> mChanGroupIDs;
@@ -162,6 +167,7 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
     public void onResume() {
         super.onResume();
         setupGridData();
+        GuideStore.getInstance().startFill();
     }
 
     private void programClicked(GuideSlot card) {
@@ -248,8 +254,6 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
                 Spinner groupSpin = mDialog.findViewById(R.id.group_select);
                 int newIx = groupSpin.getSelectedItemPosition();
                 if (newIx != mChanGroupIx) {
-                    // Clear this to make sure grid is rebuilt
-                    mPriorGridStartTime = 0;
                     mSelectedPosition = 0;
                     mChanGroupIx = newIx;
                 }
@@ -365,138 +369,87 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
     }
 
     private void setupGridData() {
+        ++mGridGeneration;
         Date gridEndTime = new Date(mGridStartTime.getTime() + TIMESLOT_SIZE * TIMESLOTS * 60000);
         AsyncBackendCall call = new AsyncBackendCall(getActivity(),this);
         if (mChanGroupIDs == null)
             // Note that after ACTION_CHAN_GROUPS completes it will call ACTION_GUIDE
             call.execute(Video.ACTION_CHAN_GROUPS);
         else {
-            call.setStartTime(mGridStartTime);
-            call.setEndTime(gridEndTime);
-            call.setId(mChanGroupIDs.get(mChanGroupIx));
+            int groupId = mChanGroupIDs.get(mChanGroupIx);
             if (mDoingUpdate) {
+                // A schedule was edited so recording status may have changed.
+                // The guide store was invalidated by the schedule change.
+                GuideCache.getInstance().clear();
+                call.setStartTime(mGridStartTime);
+                call.setEndTime(gridEndTime);
+                call.setId(groupId);
                 call.execute(Video.ACTION_PAUSE, Video.ACTION_GUIDE);
+                mDoingUpdate = false;
+                return;
             }
-            else {
-                call.execute(Video.ACTION_GUIDE);
-            }
-            mDoingUpdate = false;
+            // Look in the cache on the worker, since it may read the guide store
+            final int generation = mGridGeneration;
+            final String chanGroup = mChanGroupNames.get(mChanGroupIx);
+            final Date startTime = mGridStartTime;
+            gridBuilder.execute(() -> {
+                List<GuideCache.ChannelWindow> window =
+                        GuideCache.getInstance().getWindow(groupId, startTime, gridEndTime);
+                if (window != null) {
+                    GuideGrid grid = GuideGrid.build(window, startTime, chanGroup);
+                    mHandler.post(() -> applyGrid(grid, generation));
+                    GuideCache.getInstance().prefetchAdjacent(groupId, startTime, gridEndTime);
+                }
+                else
+                    mHandler.post(() -> {
+                        if (generation != mGridGeneration || !isStarted)
+                            return;
+                        call.setStartTime(startTime);
+                        call.setEndTime(gridEndTime);
+                        call.setId(groupId);
+                        call.execute(Video.ACTION_GUIDE);
+                    });
+            });
         }
     }
 
     /**
-     * Preload the grid with timeslots for each channel.
-     * TIMESLOT_SIZE minutes for each cell.
-     * 1 cell per timeslot plus 1 for channel and two for arrows
+     * Build the grid on the worker thread, then replace the adapter contents
+     * with it in one update on the UI thread.
      */
-    private void loadCells(XmlNode result) {
-        if (mPriorGridStartTime > 0) {
-            updateCells();
+    private void buildGrid(AsyncBackendCall taskRunner, XmlNode result) {
+        if (result == null || mChanGroupNames == null || mChanGroupIDs == null)
             return;
-        }
-        mGridAdapter.clear();
-        mPriorGridStartTime = mGridStartTime.getTime();
-
-        // arrow slots
-        GuideSlot leftArrowSlot = new GuideSlot(GuideSlot.CELL_LEFTARROW);
-        GuideSlot rightArrowSlot = new GuideSlot(GuideSlot.CELL_RIGHTARROW);
-
-        // Counter to ensure new time row every few rows.
-        int tsRowCount = 0;
-        setupTimeRow(leftArrowSlot, rightArrowSlot);
-
-        XmlNode chanNode = null;
-        for (; ; ) {
-            if (chanNode == null)
-                chanNode = result.getNode("Channels").getNode("ChannelInfo");
-            else
-                chanNode = chanNode.getNextSibling();
-            if (chanNode == null)
-                break;
-            if (tsRowCount == 0)
-                addTimeRow();
-            if (++tsRowCount >= TIME_ROW_INTERVAL)
-                tsRowCount = 0;
-            String callSign = chanNode.getString("CallSign");
-            String chanDetails = chanNode.getString("ChanNum")
-                    + " " + chanNode.getString("ChannelName")
-                    + " " + callSign;
-            int chanId = chanNode.getInt("ChanId", 0);
-            String chanNumStr = chanNode.getString("ChanNum");
-            int chanNum = -1;
-            if (chanNumStr != null) {
-                String[] chanNumSplit = chanNumStr.split("[^0123456789]");
-                if (chanNumSplit.length > 0 && chanNumSplit[0] != null
-                  && chanNumSplit[0].length() > 0)
-                    chanNum = Integer.parseInt(chanNumSplit[0]);
-            }
-            // channel slot at front
-            GuideSlot slot = new GuideSlot(chanId, chanNum, callSign, chanDetails);
-            mGridAdapter.add(slot);
-            mGridAdapter.add(leftArrowSlot);
-            mChanArray.put(chanId,mGridAdapter.size());
-            for (int i = 0; i< TIMESLOTS; i++) {
-                int position;
-                switch (i) {
-                    case 0:
-                        position = GuideSlot.POS_LEFT;
-                        break;
-                    case TIMESLOTS-1:
-                        position = GuideSlot.POS_RIGHT;
-                        break;
-                    default:
-                        position = GuideSlot.POS_MIDDLE;
-                }
-                slot = new GuideSlot(GuideSlot.CELL_PROGRAM, position, mTimeRow[i+2].timeSlot);
-                mGridAdapter.add(slot);
+        final int groupId = taskRunner.getId();
+        final Date startTime = taskRunner.getStartTime();
+        final Date endTime = taskRunner.getEndTime();
+        int groupIx = mChanGroupIDs.indexOf(groupId);
+        // Calls can finish out of order. A result for another group or
+        // time slot than the one now selected is only cached.
+        final boolean current = groupIx == mChanGroupIx
+                && startTime != null && startTime.equals(mGridStartTime);
+        final int generation = mGridGeneration;
+        final String chanGroup = groupIx >= 0 ? mChanGroupNames.get(groupIx) : null;
+        gridBuilder.execute(() -> {
+            List<GuideCache.ChannelWindow> window =
+                    GuideCache.getInstance().put(groupId, startTime, endTime, result);
+            if (current) {
+                GuideGrid grid = GuideGrid.build(window, startTime, chanGroup);
+                mHandler.post(() -> applyGrid(grid, generation));
+                GuideCache.getInstance().prefetchAdjacent(groupId, startTime, endTime);
             }
-            mGridAdapter.add(rightArrowSlot);
-        }
-        // Make sure time cells are refreshed
-        updateAdapter();
+        });
     }
 
-    private void updateCells() {
-        // Update Time row
-        mTimeRow[0].timeSlot = mGridStartTime;
-        mPriorGridStartTime = mGridStartTime.getTime();
-        for (int ix = 0; ix< TIMESLOTS; ix++) {
-            mTimeRow[ix+2].timeSlot =
-                    new Date( mGridStartTime.getTime() + ix * TIMESLOT_SIZE * 60000);
-        }
-        // Clear out program cells
-        for (int ix = 0; ix < mGridAdapter.size(); ix++) {
-            GuideSlot slot = (GuideSlot) mGridAdapter.get(ix);
-            int iPos = ix % (TIMESLOTS + 3);
-            if (slot.cellType == GuideSlot.CELL_PROGRAM) {
-                slot.program = null;
-                slot.program2 = null;
-                slot.timeSlot = mTimeRow[iPos].timeSlot;
-            }
-        }
-        // Make sure time cells are refreshed
+    private void applyGrid(GuideGrid grid, int generation) {
+        // If the user has changed time period or channel group,
+        // throw away the old group or time slot
+        if (generation != mGridGeneration || !isStarted)
+            return;
+        mGridAdapter.setItems(grid.slots, null);
         updateAdapter();
     }
 
-    private void setupTimeRow(GuideSlot leftArrowSlot, GuideSlot rightArrowSlot) {
-        mTimeRow = new GuideSlot[TIMESLOTS + 3];
-        // time selector slot at front
-        mTimeRow[0] = new GuideSlot(GuideSlot.CELL_TIMESELECTOR);
-        mTimeRow[0].timeSlot = mGridStartTime;
-        mTimeRow[0].chanGroup = mChanGroupNames.get(mChanGroupIx);
-        mTimeRow[1] = leftArrowSlot;
-        for (int ix = 0; ix< TIMESLOTS; ix++) {
-            mTimeRow[ix+2] = new GuideSlot(GuideSlot.CELL_TIMESLOT,0,
-                    new Date( mGridStartTime.getTime() + ix * TIMESLOT_SIZE * 60000));
-        }
-        mTimeRow[TIMESLOTS+2] = rightArrowSlot;
-    }
-
-    private void addTimeRow() {
-        for (GuideSlot guideSlot : mTimeRow) mGridAdapter.add(guideSlot);
-    }
-
-
     @Override
     public void onPostExecute(AsyncBackendCall taskRunner) {
         int [] tasks = taskRunner.getTasks();
@@ -506,12 +459,10 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
                 setupGridData();
                 break;
             case Video.ACTION_GUIDE:
-                mLoadInProcess = taskRunner.getXmlResult();
-                loadGuideData(mLoadInProcess, 0);
+                buildGrid(taskRunner, taskRunner.getXmlResult());
                 break;
             case Video.ACTION_PAUSE:
-                mLoadInProcess = taskRunner.getXmlResults().get(1);
-                loadGuideData(mLoadInProcess, 0);
+                buildGrid(taskRunner, taskRunner.getXmlResults().get(1));
                 break;
             case Video.ACTION_LIVETV:
                 setProgressBar(false);
@@ -590,97 +541,4 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
             mChanGroupIx = 0;
     }
 
-    // Number of rows to add before pausing to update display and allow
-    // user intraction.
-    static final int pageSize = 10;
-    // Number of milliseconds to pause after each page.
-    static final int pauseTime = 10;
-    void loadGuideData(XmlNode result, int start) {
-        // If the user has changed toime period or channel group,
-        // throw away furter use of the old group or time slot
-        if (result == null || result != mLoadInProcess)
-            return;
-        if (!isStarted)
-            return;
-        if (start == 0)
-            loadCells(result);
-        XmlNode chanNode = null;
-        for (; ; ) {
-            if (chanNode == null)
-                chanNode = result.getNode("Channels").getNode("ChannelInfo", start);
-            else
-                chanNode = chanNode.getNextSibling();
-            if (chanNode == null)
-                break;
-            XmlNode programNode = null;
-            for (; ; ) {
-                if (programNode == null)
-                    programNode = chanNode.getNode("Programs").getNode("Program");
-                else
-                    programNode = programNode.getNextSibling();
-                if (programNode == null)
-                    break;
-                GuideSlot.Program program = new GuideSlot.Program(programNode, chanNode);
-                int adapterPos = mChanArray.get(program.chanId, -1);
-                if (adapterPos == -1)
-                    continue;
-                if (program.startTime == null || program.endTime == null)
-                    continue;
-
-                long lPos = (program.startTime.getTime() - mGridStartTime.getTime())
-                        / (TIMESLOT_SIZE * 60);
-                float fPos = (float) lPos / 1000.0f;
-                // Start position is the slot wherein the show starts.
-                int startPos = (int) (fPos);
-                if (startPos >= TIMESLOTS)
-                    continue;
-                if (startPos < 0)
-                    startPos = 0;
-
-                lPos = (program.endTime.getTime() - mGridStartTime.getTime())
-                        / (TIMESLOT_SIZE * 60);
-                fPos = (float) lPos / 1000.0f;
-                // End position is the slot before the one where the show ends
-                // unless it ends in the same slot as it starts.
-                int endPos = (int) (fPos);
-                if (endPos <= 0)
-                    continue;
-                if (endPos >= TIMESLOTS)
-                    endPos = TIMESLOTS;
-                if (endPos == startPos)
-                    ++endPos;
-
-                for (int ix = adapterPos + startPos; ix < adapterPos + endPos; ix++) {
-                    GuideSlot slot = (GuideSlot) mGridAdapter.get(ix);
-                    if (slot.program == null)
-                        slot.program = program;
-                    else if (slot.program2 == null) {
-                        if (program.startTime.after(slot.program.startTime))
-                            slot.program2 = program;
-                        else {
-                            slot.program2 = slot.program;
-                            slot.program = program;
-                        }
-                    }
-                    mGridAdapter.notifyArrayItemRangeChanged(ix, 1);
-
-                }
-            }
-            if (++start % pageSize == 0) {
-                final int nextstart = start;
-                Handler handler = new Handler(Looper.getMainLooper());
-                handler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        GuideFragment.this.loadGuideData(result, nextstart);
-                    }
-                }, pauseTime);
-                return;
-            }
-        }
-        mLoadInProcess = null;
-    }
-
-
-
 }
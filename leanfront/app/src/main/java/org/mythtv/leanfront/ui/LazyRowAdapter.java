@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.ui;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import androidx.leanback.widget.ObjectAdapter;
+import androidx.leanback.widget.Presenter;
+
+import org.mythtv.leanfront.MyApplication;
+import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.data.VideoContract;
+import org.mythtv.leanfront.data.VideoDbHelper;
+import org.mythtv.leanfront.model.ListItem;
+import org.mythtv.leanfront.model.Video;
+import org.mythtv.leanfront.model.VideoCursorMapper;
+import org.mythtv.leanfront.model.VideoRef;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Adapter for a large main screen row. AsyncMainLoader leaves the
+ * recordings in such a row as VideoRef items, and the Video for each
+ * card is built from the database when the card is first displayed,
+ * together with its neighbours. Built videos are kept in an LRU cache
+ * shared by all rows.
+ *
+ * The database is read on a background thread. Until the videos arrive
+ * the cards show a placeholder, which does nothing when clicked, see
+ * isPlaceholder.
+ */
+public class LazyRowAdapter extends ObjectAdapter {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "LazyRowAdapter";
+
+    // Rows with more items than this use a LazyRowAdapter
+    public static final int MIN_LAZY_SIZE = 100;
+    private static final int CACHE_SIZE = 500;
+    // Number of cards loaded before and after the one requested
+    private static final int LOAD_BEFORE = 10;
+    private static final int LOAD_AFTER = 30;
+
+    private static final LruCache<Long, Video> cache = new LruCache<>(CACHE_SIZE);
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    private static final SparseArray<Video> placeholders = new SparseArray<>();
+
+    private ListItem[] mItems;
+    // Ids being loaded, only used on the UI thread
+    private final HashSet<Long> mPending = new HashSet<>();
+
+    public LazyRowAdapter(Presenter presenter, List<ListItem> items) {
+        super(presenter);
+        mItems = items.toArray(new ListItem[0]);
+    }
+
+    public void setItems(List<ListItem> items) {
+        mItems = items.toArray(new ListItem[0]);
+        mPending.clear();
+        notifyChanged();
+    }
+
+    // True for the card shown while a video is loaded. Other cards such
+    // as tools and folders also have id -1, so this compares instances.
+    public static boolean isPlaceholder(Object item) {
+        for (int ix = 0; ix < placeholders.size(); ix++) {
+            if (placeholders.valueAt(ix) == item)
+                return true;
+        }
+        return false;
+    }
+
+    // One placeholder for each card type, only used on the UI thread
+    private static Video getPlaceholder(int type) {
+        Video video = placeholders.get(type);
+        if (video == null) {
+            video = new Video.VideoBuilder()
+                    .id(-1).title("")
+                    .subtitle("")
+                    .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
+                    .progflags("0")
+                    .build();
+            video.type = type;
+            placeholders.put(type, video);
+        }
+        return video;
+    }
+
+    // Call when the database has been reloaded
+    public static void clearCache() {
+        cache.evictAll();
+    }
+
+    @Override
+    public int size() {
+        return mItems.length;
+    }
+
+    @Override
+    public Object get(int position) {
+        ListItem item = mItems[position];
+        if (!(item instanceof VideoRef))
+            return item;
+        VideoRef ref = (VideoRef) item;
+        Video video = cache.get(ref.id);
+        if (video == null) {
+            if (!mPending.contains(ref.id))
+                load(position);
+            // Not cached, so if the video could not be loaded it will be
+            // tried again when the card is shown again.
+            return getPlaceholder(ref.type);
+        }
+        video.type = ref.type;
+        return video;
+    }
+
+    // Build the videos around position that are not already cached or
+    // being loaded. The cards are rebound when they arrive.
+    private void load(int position) {
+        final ListItem[] items = mItems;
+        final int start = Math.max(0, position - LOAD_BEFORE);
+        final int end = Math.min(items.length, position + LOAD_AFTER);
+        final HashSet<Long> idSet = new HashSet<>();
+        StringBuilder ids = new StringBuilder();
+        for (int ix = start; ix < end; ix++) {
+            if (items[ix] instanceof VideoRef) {
+                long id = ((VideoRef) items[ix]).id;
+                if (cache.get(id) == null && !mPending.contains(id)) {
+                    idSet.add(id);
+                    if (ids.length() > 0)
+                        ids.append(',');
+                    ids.append(id);
+                }
+            }
+        }
+        if (ids.length() == 0)
+            return;
+        mPending.addAll(idSet);
+        loader.execute(() -> {
+            int count = query(ids.toString());
+            handler.post(() -> {
+                mPending.removeAll(idSet);
+                // Skip if nothing was loaded, or the row has been replaced
+                if (count > 0 && items == mItems)
+                    notifyItemRangeChanged(start, end - start);
+            });
+        });
+    }
+
+    // Runs on the loader thread
+    private static int query(String ids) {
+        long startTime = System.currentTimeMillis();
+        VideoDbHelper dbh = VideoDbHelper.getInstance(MyApplication.getAppContext());
+        SQLiteDatabase db = dbh.getReadableDatabase();
+        if (db == null)
+            return 0;
+        int count = 0;
+        try (Cursor csr = db.query(VideoContract.VideoEntry.VIEW_NAME, null,
+                VideoContract.VideoEntry._ID + " IN (" + ids + ")",
+                null, null, null, null)) {
+            VideoCursorMapper mapper = new VideoCursorMapper();
+            mapper.changeCursor(csr);
+            int idIndex = csr.getColumnIndex(VideoContract.VideoEntry._ID);
+            while (csr.moveToNext()) {
+                Video video = (Video) mapper.get(csr.getPosition());
+                cache.put(csr.getLong(idIndex), video);
+                count++;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, CLASS + " Exception loading videos", e);
+        } finally {
+            VideoDbHelper.releaseDatabase();
+        }
+        Log.d(TAG, CLASS + " Loaded " + count + " videos in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+        return count;
+    }
+}
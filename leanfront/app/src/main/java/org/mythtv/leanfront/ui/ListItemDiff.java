@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.ui;
+
+import androidx.annotation.NonNull;
+import androidx.leanback.widget.DiffCallback;
+
+import org.mythtv.leanfront.model.ListItem;
+import org.mythtv.leanfront.model.Video;
+
+import java.util.Objects;
+
+/**
+ * Compares the cards of a main screen row, so that when the rows are
+ * reloaded ArrayObjectAdapter.setItems only notifies the cards that
+ * were added, removed, moved or changed.
+ */
+public class ListItemDiff extends DiffCallback<ListItem> {
+
+    public static final ListItemDiff INSTANCE = new ListItemDiff();
+
+    @Override
+    public boolean areItemsTheSame(@NonNull ListItem oldItem, @NonNull ListItem newItem) {
+        if (oldItem == newItem)
+            return true;
+        if (!(oldItem instanceof Video) || !(newItem instanceof Video))
+            return false;
+        Video oldVideo = (Video) oldItem;
+        Video newVideo = (Video) newItem;
+        return oldVideo.type == newVideo.type
+                && oldVideo.rectype == newVideo.rectype
+                && Objects.equals(oldVideo.recordedid, newVideo.recordedid)
+                && Objects.equals(oldVideo.videoUrlPath, newVideo.videoUrlPath)
+                && Objects.equals(oldVideo.chanid, newVideo.chanid)
+                && Objects.equals(oldVideo.title, newVideo.title);
+    }
+
+    @Override
+    public boolean areContentsTheSame(@NonNull ListItem oldItem, @NonNull ListItem newItem) {
+        if (oldItem == newItem)
+            return true;
+        if (!(oldItem instanceof Video) || !(newItem instanceof Video))
+            return false;
+        return ((Video) oldItem).sameContent((Video) newItem);
+    }
+}
@@ -50,6 +50,7 @@ import androidx.leanback.app.ProgressBarManager;
 import androidx.leanback.app.RowsSupportFragment;
 import androidx.leanback.widget.Action;
 import androidx.leanback.widget.ArrayObjectAdapter;
+import androidx.leanback.widget.DiffCallback;
 import androidx.leanback.widget.ImageCardView;
 import androidx.leanback.widget.ListRow;
 import androidx.leanback.widget.ListRowPresenter;
@@ -91,7 +92,9 @@ import org.mythtv.leanfront.MyApplication;
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
 import org.mythtv.leanfront.data.BackendCache;
+import org.mythtv.leanfront.data.ChangeCoalescer;
 import org.mythtv.leanfront.data.FetchVideoService;
+import org.mythtv.leanfront.data.RecentsIndex;
 import org.mythtv.leanfront.data.VideoContract;
 import org.mythtv.leanfront.data.VideoDbHelper;
 import org.mythtv.leanfront.data.XmlNode;
@@ -110,6 +113,8 @@ import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -124,6 +129,18 @@ public class MainFragment extends BrowseSupportFragment
     private static final String CLASS = "MainFragment";
 
     private static final int BACKGROUND_UPDATE_DELAY = 300;
+    // Rows are reused when their header matches, and a reused row
+    // updates its own cards, so rows are compared by identity.
+    private static final DiffCallback<ListRow> ROW_DIFF = new DiffCallback<ListRow>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ListRow oldItem, @NonNull ListRow newItem) {
+            return oldItem == newItem;
+        }
+        @Override
+        public boolean areContentsTheSame(@NonNull ListRow oldItem, @NonNull ListRow newItem) {
+            return oldItem == newItem;
+        }
+    };
     private final Handler mHandler = new Handler(Looper.getMainLooper());
     private ArrayObjectAdapter mCategoryRowAdapter;
     private Drawable mDefaultBackground;
@@ -183,6 +200,9 @@ public class MainFragment extends BrowseSupportFragment
     private ItemViewClickedListener mItemViewClickedListener;
     private ScrollSupport scrollSupport;
     volatile boolean isLoaderRunning;
+    private boolean mReloadPending;
+    // Only the recents row is shown, the rest is still loading
+    private boolean mRecentsOnly;
     private ArrayList<String> mRecGroupList;
     private String mNewValueText;
 
@@ -209,6 +229,7 @@ public class MainFragment extends BrowseSupportFragment
                 // https://developer.android.com/reference/android/database/sqlite/SQLiteDatabase.html
                 db.delete(VideoContract.StatusEntry.TABLE_NAME, where, selectionArgs);
                 VideoDbHelper.releaseDatabase();
+                RecentsIndex.getInstance().invalidate();
             }
             // Initialize startup members
             mFetchTime = 0;
@@ -286,8 +307,39 @@ public class MainFragment extends BrowseSupportFragment
     public void fetchComplete(boolean isProgressBar) {
         startAsyncLoader(isProgressBar);
     }
+
+    // Called on the UI thread by ChangeCoalescer after a burst of
+    // database updates. Reload only if this page shows what changed.
+    public void onDataChanged(ChangeCoalescer.Changes changes) {
+        if (getActivity() == null)
+            return;
+        boolean affected;
+        switch (mType) {
+            case TYPE_VIDEODIR:
+                affected = changes.affects(VideoContract.VideoEntry.RECTYPE_VIDEO);
+                break;
+            case TYPE_RECGROUP:
+                affected = changes.affects(VideoContract.VideoEntry.RECTYPE_RECORDING)
+                            && (mBaseName.endsWith("\t") || changes.affectsRecGroup(mBaseName))
+                        || changes.affects(VideoContract.VideoEntry.RECTYPE_CHANNEL)
+                            && "LiveTV".equals(mBaseName)
+                        || changes.affects(VideoContract.VideoEntry.RECTYPE_VIDEO)
+                            && "true".equals(Settings.getString("pref_merge_videos"));
+                break;
+            default:
+                affected = true;
+        }
+        if (affected)
+            fetchComplete(changes.isProgressBar);
+        else if (changes.isProgressBar)
+            setProgressBar(false);
+    }
+
     public void startAsyncLoader(boolean isProgressBar) {
         if (isLoaderRunning) {
+            // The running load may have read the database before the
+            // latest change, so load again when it finishes.
+            mReloadPending = true;
             if (isProgressBar)
                 setProgressBar(false);
         }
@@ -613,42 +665,64 @@ public class MainFragment extends BrowseSupportFragment
     //   [0] is a MyHeaderItem
     //   [1] onwards are each a Video
 
+    // Called with the recents row before the rest of the rows are built,
+    // so that it can be shown straight away when the screen is empty.
+    public void onRecentsLoaded(AsyncMainLoader loader, ArrayList<ListItem> rowList) {
+        if (getActivity() == null || mCategoryRowAdapter.size() > 0)
+            return;
+        MyHeaderItem header = (MyHeaderItem) rowList.remove(0);
+        mCategoryRowAdapter.add(makeRow(new HashMap<>(), header, rowList));
+        mRecentsOnly = true;
+    }
+
     public void onAsyncLoadFinished(AsyncMainLoader loader, ArrayList<ArrayList<ListItem>> list) {
         isLoaderRunning = false;
         if (getActivity() == null)
             return;
+        if (mReloadPending) {
+            mReloadPending = false;
+            startAsyncLoader(false);
+        }
         if (loader.isProgressBar)
             setProgressBar(false);
         if (list == null)
             list = new ArrayList<>();
 
+        // Only move the selection on the first load, when returning to
+        // the fragment or when a specific row was asked for. Otherwise
+        // the diff keeps focus on the card the user was looking at.
+        boolean restoreSelection = mSavedSelection != null
+                || mCategoryRowAdapter.size() == 0 || mRecentsOnly;
+        mRecentsOnly = false;
         int [] selection = getSelection();
         // Fill in disk usage
         new AsyncBackendCall(getActivity(), this).execute(Video.ACTION_BACKEND_INFO);
-        // Every time we have to re-get the category loader, we must re-create the sidebar.
-        mCategoryRowAdapter.clear();
-        ListRow row;
+        // Videos cached for large rows may be out of date
+        LazyRowAdapter.clearCache();
+        // Reuse existing rows with the same header, so that unchanged
+        // rows and cards are not rebound.
+        HashMap<String, ListRow> oldRows = new HashMap<>();
+        for (int ix = 0; ix < mCategoryRowAdapter.size(); ix++) {
+            ListRow oldRow = (ListRow) mCategoryRowAdapter.get(ix);
+            oldRows.put(getRowKey((MyHeaderItem) oldRow.getHeaderItem()), oldRow);
+        }
+        ArrayList<ListRow> newRows = new ArrayList<>();
         for (int rownum = 0 ; rownum < list.size() ; rownum++) {
             ArrayList<ListItem> rowList = list.get(rownum);
             MyHeaderItem header = (MyHeaderItem) rowList.get(0);
-            if (mRowName != null && mRowName.equals(header.getName()))
+            if (mRowName != null && mRowName.equals(header.getName())) {
                 selection[0] = rownum;
-            ArrayObjectAdapter rowObjectAdapter = new ArrayObjectAdapter(new CardPresenter());
+                restoreSelection = true;
+            }
             rowList.remove(0);
-            if (rowList.size() > 0)
-                rowObjectAdapter.addAll(0, rowList);
-            row = new ListRow(header, rowObjectAdapter);
-            mCategoryRowAdapter.add(row);
+            newRows.add(makeRow(oldRows, header, rowList));
         }
         mRowName = null;
 
         // Create a row for tools.
         MyHeaderItem gridHeader = new MyHeaderItem(getString(R.string.row_header_tools),
                 TYPE_TOOLS,mBaseName);
-        CardPresenter presenter = new CardPresenter();
-        ArrayObjectAdapter toolsRowAdapter = new ArrayObjectAdapter(presenter);
-        row = new ListRow(gridHeader, toolsRowAdapter);
-        mCategoryRowAdapter.add(row);
+        ArrayList<ListItem> toolsList = new ArrayList<>();
 
         Video video = new Video.VideoBuilder()
                 .id(-1).title(getString(R.string.button_settings))
@@ -657,7 +731,7 @@ public class MainFragment extends BrowseSupportFragment
                 .progflags("0")
                 .build();
         video.type = TYPE_SETTINGS;
-        toolsRowAdapter.add(video);
+        toolsList.add(video);
 
         video = new Video.VideoBuilder()
                 .id(-1).title(getString(R.string.button_refresh_lists))
@@ -666,7 +740,7 @@ public class MainFragment extends BrowseSupportFragment
                 .progflags("0")
                 .build();
         video.type = TYPE_REFRESH;
-        toolsRowAdapter.add(video);
+        toolsList.add(video);
 
         video = new Video.VideoBuilder()
                 .id(-1).title(getString(R.string.button_backend_status))
@@ -675,7 +749,7 @@ public class MainFragment extends BrowseSupportFragment
                 .progflags("0")
                 .build();
         video.type = TYPE_INFO;
-        toolsRowAdapter.add(video);
+        toolsList.add(video);
 
         video = new Video.VideoBuilder()
                 .id(-1).title(getString(R.string.title_program_guide))
@@ -684,7 +758,7 @@ public class MainFragment extends BrowseSupportFragment
                 .progflags("0")
                 .build();
         video.type = TYPE_GUIDE;
-        toolsRowAdapter.add(video);
+        toolsList.add(video);
 
         video = new Video.VideoBuilder()
                 .id(-1).title(getString(R.string.button_manage_recordings))
@@ -693,13 +767,48 @@ public class MainFragment extends BrowseSupportFragment
                 .progflags("0")
                 .build();
         video.type = TYPE_MANAGE;
-        toolsRowAdapter.add(video);
+        toolsList.add(video);
+
+        newRows.add(makeRow(oldRows, gridHeader, toolsList));
+        mCategoryRowAdapter.setItems(newRows, ROW_DIFF);
 
+        if (!restoreSelection)
+            return;
         SelectionSetter setter = new SelectionSetter(selection[0], selection[1]);
         Handler handler = new Handler(Looper.getMainLooper());
         handler.postDelayed(setter, 100);
     }
 
+    private static String getRowKey(MyHeaderItem header) {
+        return header.getItemType() + "\t" + header.getName() + "\t" + header.getBaseName();
+    }
+
+    // Return the old row with a matching header, updated with the new
+    // items, or a new row if there is none. Large rows use a
+    // LazyRowAdapter and are rebound in full when updated.
+    private static ListRow makeRow(HashMap<String, ListRow> oldRows,
+                                   MyHeaderItem header, List<ListItem> items) {
+        boolean lazy = items.size() > LazyRowAdapter.MIN_LAZY_SIZE;
+        ListRow row = oldRows.remove(getRowKey(header));
+        if (row != null) {
+            ObjectAdapter adapter = row.getAdapter();
+            if (lazy && adapter instanceof LazyRowAdapter) {
+                ((LazyRowAdapter) adapter).setItems(items);
+                return row;
+            }
+            if (!lazy && adapter instanceof ArrayObjectAdapter) {
+                ((ArrayObjectAdapter) adapter).setItems(items, ListItemDiff.INSTANCE);
+                return row;
+            }
+        }
+        if (lazy)
+            return new ListRow(header, new LazyRowAdapter(new CardPresenter(), items));
+        ArrayObjectAdapter rowObjectAdapter = new ArrayObjectAdapter(new CardPresenter());
+        if (items.size() > 0)
+            rowObjectAdapter.addAll(0, items);
+        return new ListRow(header, rowObjectAdapter);
+    }
+
     public int getType() {
         return mType;
     }
@@ -721,6 +830,9 @@ public class MainFragment extends BrowseSupportFragment
         public void onItemClicked(Presenter.ViewHolder itemViewHolder, Object item,
                 RowPresenter.ViewHolder rowViewHolder, Row row) {
 
+            // Card whose video is still being loaded
+            if (LazyRowAdapter.isPlaceholder(item))
+                return;
             ListItem li = (ListItem) item;
             int liType = li.getItemType();
             Activity context = getActivity();
@@ -53,7 +53,9 @@ import android.widget.Toast;
 import org.mythtv.leanfront.BuildConfig;
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
+import org.mythtv.leanfront.data.GuideStore;
 import org.mythtv.leanfront.data.VideoContract;
+import org.mythtv.leanfront.data.VideoProvider;
 import org.mythtv.leanfront.data.XmlNode;
 import org.mythtv.leanfront.model.GuideSlot;
 import org.mythtv.leanfront.model.Video;
@@ -63,6 +65,12 @@ import org.mythtv.leanfront.presenter.GuideCardPresenter;
 import org.mythtv.leanfront.presenter.GuideCardView;
 import org.mythtv.leanfront.ui.playback.PlaybackActivity;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /*
  * This class demonstrates how to do in-app search
  */
@@ -73,6 +81,7 @@ public class SearchFragment extends SearchSupportFragment
     private static final String CLASS = "SearchFragment";
     private static final boolean DEBUG = BuildConfig.DEBUG;
 
+    private static final ExecutorService guideSearcher = Executors.newSingleThreadExecutor();
     private final Handler mHandler = new Handler();
     private ArrayObjectAdapter mRowsAdapter;
     private String mQuery;
@@ -82,6 +91,11 @@ public class SearchFragment extends SearchSupportFragment
     private int mSearchLoaderId = 1;
     private boolean mResultsFound = false;
     private boolean mGuideInProgress = false;
+    // Guide results found locally, to be followed by backend results
+    // starting at or after mGuideHorizon
+    private List<GuideSlot> mGuideSlots = new ArrayList<>();
+    private long mGuideHorizon;
+    private ListRow mGuideRow;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -97,6 +111,8 @@ public class SearchFragment extends SearchSupportFragment
     @Override
     public void onPause() {
         mHandler.removeCallbacksAndMessages(null);
+        // A pending local guide search result may have been removed
+        mGuideInProgress = false;
         super.onPause();
     }
 
@@ -141,12 +157,36 @@ public class SearchFragment extends SearchSupportFragment
     }
 
     private void searchGuide() {
-        // Search Program Guide
+        // Search Program Guide, locally if the guide store has it
         if (!mGuideInProgress) {
-            AsyncBackendCall call = new AsyncBackendCall(getActivity(), this);
-            call.setStringParameter(mQuery);
-            call.execute(Video.ACTION_SEARCHGUIDE);
             mGuideInProgress = true;
+            final String query = mQuery;
+            mGuideSlots = new ArrayList<>();
+            mGuideHorizon = 0;
+            mGuideRow = null;
+            guideSearcher.execute(() -> {
+                GuideStore.SearchResult result = GuideStore.getInstance().search(query);
+                mHandler.post(() -> {
+                    AsyncBackendCall call = new AsyncBackendCall(getActivity(), this);
+                    call.setStringParameter(query);
+                    if (result != null) {
+                        mGuideSlots = result.slots;
+                        if (mGuideSlots.size() > 0)
+                            loadGuideData(mGuideSlots);
+                        if (mGuideSlots.size() >= GuideStore.MAX_SEARCH_RESULTS) {
+                            mGuideInProgress = false;
+                            return;
+                        }
+                        // Programs past the stored guide days are only on the backend
+                        mGuideHorizon = result.horizon;
+                        call.setStartTime(new Date(mGuideHorizon));
+                    }
+                    else
+                        // So that the next search can be done locally
+                        GuideStore.getInstance().startFill();
+                    call.execute(Video.ACTION_SEARCHGUIDE);
+                });
+            });
         }
     }
 
@@ -158,14 +198,25 @@ public class SearchFragment extends SearchSupportFragment
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         String query = mQuery;
+        String match = VideoProvider.getMatchQuery(query);
+        if (match == null)
+            return new CursorLoader(
+                    getActivity(),
+                    VideoContract.VideoEntry.CONTENT_URI,
+                    null, // Return all fields.
+                    VideoContract.VideoEntry.COLUMN_TITLE + " LIKE ? OR " +
+                            VideoContract.VideoEntry.COLUMN_SUBTITLE + " LIKE ?",
+                    new String[]{"%" + query + "%", "%" + query + "%"},
+                    null // Default sort order
+            );
+        // Words starting with the search words, from the full text index
         return new CursorLoader(
                 getActivity(),
                 VideoContract.VideoEntry.CONTENT_URI,
                 null, // Return all fields.
-                VideoContract.VideoEntry.COLUMN_TITLE + " LIKE ? OR " +
-                        VideoContract.VideoEntry.COLUMN_SUBTITLE + " LIKE ?",
-                new String[]{"%" + query + "%", "%" + query + "%"},
-                null // Default sort order
+                VideoProvider.SEARCH_SELECTION,
+                new String[]{match},
+                VideoProvider.getSearchOrder(query)
         );
     }
 
@@ -200,15 +251,28 @@ public class SearchFragment extends SearchSupportFragment
         switch (tasks[0]) {
             case Video.ACTION_SEARCHGUIDE:
                 mGuideInProgress = false;
-                loadGuideData(taskRunner.getXmlResult());
+                XmlNode result = taskRunner.getXmlResult();
+                if (result == null) {
+                    // Local results are already shown unless there were none
+                    if (mGuideRow == null && mGuideHorizon > 0)
+                        loadGuideData(mGuideSlots);
+                    break;
+                }
+                List<GuideSlot> slots = new ArrayList<>(mGuideSlots);
+                for (GuideSlot slot : parseGuideData(result)) {
+                    if (slots.size() >= GuideStore.MAX_SEARCH_RESULTS)
+                        break;
+                    // Earlier programs were found locally
+                    if (slot.program.startTime.getTime() >= mGuideHorizon)
+                        slots.add(slot);
+                }
+                loadGuideData(slots);
                 break;
         }
     }
 
-    void loadGuideData(XmlNode result) {
-        if (result == null)
-            return;
-        ArrayObjectAdapter guideAdapter = new ArrayObjectAdapter(new GuideCardPresenter(GuideCardView.TYPE_LARGE));
+    List<GuideSlot> parseGuideData(XmlNode result) {
+        List<GuideSlot> slots = new ArrayList<>();
         XmlNode programNode = null;
         for (; ; ) {
             if (programNode == null)
@@ -227,12 +291,20 @@ public class SearchFragment extends SearchSupportFragment
             slot.cellType = GuideSlot.CELL_SEARCHRESULT;
             slot.timeSlot = program.startTime;
             slot.program = program;
-            guideAdapter.add(slot);
+            slots.add(slot);
         }
+        return slots;
+    }
+
+    void loadGuideData(List<GuideSlot> slots) {
+        if (getContext() == null)
+            return;
+        ArrayObjectAdapter guideAdapter = new ArrayObjectAdapter(new GuideCardPresenter(GuideCardView.TYPE_LARGE));
+        guideAdapter.addAll(0, slots);
         int titleRes;
         if (guideAdapter.size() > 0) {
             mResultsFound = true;
-            if (guideAdapter.size() == 500)
+            if (guideAdapter.size() >= GuideStore.MAX_SEARCH_RESULTS)
                 titleRes = R.string.search_result_progs_500;
             else
                 titleRes = R.string.search_result_progs;
@@ -240,8 +312,14 @@ public class SearchFragment extends SearchSupportFragment
         else
             titleRes = R.string.search_result_no_progs;
         HeaderItem header = new HeaderItem(getContext().getString(titleRes,mQuery));
-        Row row = new ListRow(header, guideAdapter);
-        mRowsAdapter.add(row);
+        ListRow row = new ListRow(header, guideAdapter);
+        // Replace local results already shown
+        int index = mGuideRow == null ? -1 : mRowsAdapter.indexOf(mGuideRow);
+        if (index >= 0)
+            mRowsAdapter.replace(index, row);
+        else
+            mRowsAdapter.add(row);
+        mGuideRow = row;
     }
 
     private final class ItemViewClickedListener implements OnItemViewClickedListener {
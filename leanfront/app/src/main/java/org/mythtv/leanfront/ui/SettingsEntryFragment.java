@@ -41,6 +41,7 @@ import androidx.leanback.widget.GuidanceStylist;
 import androidx.leanback.widget.GuidedAction;
 
 import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.data.RecentsIndex;
 import org.mythtv.leanfront.data.VideoDbHelper;
 import org.mythtv.leanfront.model.Settings;
 
@@ -115,6 +116,18 @@ private static final String TAG = "lfe";
     private static final int ID_SPEED = 61;
     private static final int ID_MAX_VIDS = 62;
     private static final int ID_REFRESH_MINS = 63;
+    private static final int ID_HTTP_CONNECT_TIMEOUT = 64;
+    private static final int ID_HTTP_READ_TIMEOUT = 65;
+    private static final int ID_GUIDE_CACHE_HOURS = 66;
+    private static final int ID_GUIDE_DAYS = 67;
+    private static final int ID_PLAYBACK_CACHE_MB = 68;
+    private static final int ID_READAHEAD_SECS = 69;
+    private static final int ID_BUFFER_MIN_SECS = 70;
+    private static final int ID_BUFFER_START_MS = 71;
+    private static final int ID_BUFFER_RESTART_MS = 72;
+    private static final int ID_BACK_BUFFER_SECS = 73;
+    private static final int ID_BUFFER_MEM_MB = 74;
+    private static final int ID_BUFFER_ADAPTIVE = 75;
 
     private static final String KEY_EXPAND = "EXPAND";
 
@@ -352,6 +365,56 @@ private static final String TAG = "lfe";
                     .descriptionEditable(true)
                     .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
                     .build());
+            subActions.add(new GuidedAction.Builder(getActivity())
+                    .id(ID_READAHEAD_SECS + addon)
+                    .title(R.string.pref_readahead_secs)
+                    .description(Settings.getString("pref_readahead_secs", group))
+                    .descriptionEditable(true)
+                    .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                    .build());
+            subActions.add(new GuidedAction.Builder(getActivity())
+                    .id(ID_BUFFER_MIN_SECS + addon)
+                    .title(R.string.pref_buffer_min_secs)
+                    .description(Settings.getString("pref_buffer_min_secs", group))
+                    .descriptionEditable(true)
+                    .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                    .build());
+            subActions.add(new GuidedAction.Builder(getActivity())
+                    .id(ID_BUFFER_START_MS + addon)
+                    .title(R.string.pref_buffer_start_ms)
+                    .description(Settings.getString("pref_buffer_start_ms", group))
+                    .descriptionEditable(true)
+                    .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                    .build());
+            subActions.add(new GuidedAction.Builder(getActivity())
+                    .id(ID_BUFFER_RESTART_MS + addon)
+                    .title(R.string.pref_buffer_restart_ms)
+                    .description(Settings.getString("pref_buffer_restart_ms", group))
+                    .descriptionEditable(true)
+                    .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                    .build());
+            subActions.add(new GuidedAction.Builder(getActivity())
+                    .id(ID_BACK_BUFFER_SECS + addon)
+                    .title(R.string.pref_back_buffer_secs)
+                    .description(Settings.getString("pref_back_buffer_secs", group))
+                    .descriptionEditable(true)
+                    .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                    .build());
+            subActions.add(new GuidedAction.Builder(getActivity())
+                    .id(ID_BUFFER_MEM_MB + addon)
+                    .title(R.string.pref_buffer_mem_mb)
+                    .description(Settings.getString("pref_buffer_mem_mb", group))
+                    .descriptionEditable(true)
+                    .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                    .build());
+            str = Settings.getString("pref_buffer_adaptive", group);
+            subActions.add(new GuidedAction.Builder(getActivity())
+                    .id(ID_BUFFER_ADAPTIVE + addon)
+                    .title(R.string.pref_buffer_adaptive)
+                    .checked("true".equals(str))
+                    .description(R.string.pref_buffer_adaptive_desc)
+                    .checkSetId(GuidedAction.CHECKBOX_CHECK_SET_ID)
+                    .build());
             str = getContext().getString(R.string.pref_title_playback,group);
             actions.add(new GuidedAction.Builder(getActivity())
                     .id(ID_PLAYBACK + addon)
@@ -566,6 +629,13 @@ private static final String TAG = "lfe";
                 .descriptionEditable(true)
                 .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
                 .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_PLAYBACK_CACHE_MB)
+                .title(R.string.pref_playback_cache_mb)
+                .description(Settings.getString("pref_playback_cache_mb"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
         subActions.add(new GuidedAction.Builder(getActivity())
                 .id(ID_IDLE_TIMEOUT)
                 .title(R.string.pref_title_idle_timeout)
@@ -618,6 +688,34 @@ private static final String TAG = "lfe";
                 .descriptionEditable(true)
                 .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
                 .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_HTTP_CONNECT_TIMEOUT)
+                .title(R.string.pref_http_connect_timeout)
+                .description(Settings.getString("pref_http_connect_timeout"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_HTTP_READ_TIMEOUT)
+                .title(R.string.pref_http_read_timeout)
+                .description(Settings.getString("pref_http_read_timeout"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_GUIDE_CACHE_HOURS)
+                .title(R.string.pref_guide_cache_hours)
+                .description(Settings.getString("pref_guide_cache_hours"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_GUIDE_DAYS)
+                .title(R.string.pref_guide_days)
+                .description(Settings.getString("pref_guide_days"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
     }
 
     @Override
@@ -704,6 +802,34 @@ private static final String TAG = "lfe";
                 Settings.putString(editor, "pref_tweak_ts_search_pkts",
                         validateNumber(action, 600, 100000, 2600));
                 break;
+            case ID_PLAYBACK_CACHE_MB:
+                Settings.putString(editor, "pref_playback_cache_mb",
+                        validateNumber(action, 0, 8192, 256));
+                break;
+            case ID_READAHEAD_SECS:
+                Settings.putString(editor, "pref_readahead_secs",group,
+                        validateNumber(action, 15, 600, 50));
+                break;
+            case ID_BUFFER_MIN_SECS:
+                Settings.putString(editor, "pref_buffer_min_secs",group,
+                        validateNumber(action, 5, 600, 50));
+                break;
+            case ID_BUFFER_START_MS:
+                Settings.putString(editor, "pref_buffer_start_ms",group,
+                        validateNumber(action, 0, 30000, 2500));
+                break;
+            case ID_BUFFER_RESTART_MS:
+                Settings.putString(editor, "pref_buffer_restart_ms",group,
+                        validateNumber(action, 0, 30000, 5000));
+                break;
+            case ID_BACK_BUFFER_SECS:
+                Settings.putString(editor, "pref_back_buffer_secs",group,
+                        validateNumber(action, 0, 600, 0));
+                break;
+            case ID_BUFFER_MEM_MB:
+                Settings.putString(editor, "pref_buffer_mem_mb",group,
+                        validateNumber(action, 0, 1024, 0));
+                break;
             case ID_LIVETV_ROWSIZE:
                 Settings.putString(editor, "pref_livetv_rowsize",
                         validateNumber(action, 1, 100, 100));
@@ -745,6 +871,22 @@ private static final String TAG = "lfe";
                 action.setDescription(newVal);
                 Settings.putString(editor, "pref_refresh_mins", newVal);
                 break;
+            case ID_HTTP_CONNECT_TIMEOUT:
+                Settings.putString(editor, "pref_http_connect_timeout",
+                        validateNumber(action, 1, 60, 5));
+                break;
+            case ID_HTTP_READ_TIMEOUT:
+                Settings.putString(editor, "pref_http_read_timeout",
+                        validateNumber(action, 5, 600, 300));
+                break;
+            case ID_GUIDE_CACHE_HOURS:
+                Settings.putString(editor, "pref_guide_cache_hours",
+                        validateNumber(action, 1, 168, 24));
+                break;
+            case ID_GUIDE_DAYS:
+                Settings.putString(editor, "pref_guide_days",
+                        validateNumber(action, 1, 14, 3));
+                break;
             default:
                 return GuidedAction.ACTION_ID_CURRENT;
         }
@@ -807,6 +949,27 @@ private static final String TAG = "lfe";
             case ID_TWEAK_SEARCH_PKTS:
                 action.setDescription(Settings.getString("pref_tweak_ts_search_pkts"));
                 break;
+            case ID_PLAYBACK_CACHE_MB:
+                action.setDescription(Settings.getString("pref_playback_cache_mb"));
+                break;
+            case ID_READAHEAD_SECS:
+                action.setDescription(Settings.getString("pref_readahead_secs",group));
+                break;
+            case ID_BUFFER_MIN_SECS:
+                action.setDescription(Settings.getString("pref_buffer_min_secs",group));
+                break;
+            case ID_BUFFER_START_MS:
+                action.setDescription(Settings.getString("pref_buffer_start_ms",group));
+                break;
+            case ID_BUFFER_RESTART_MS:
+                action.setDescription(Settings.getString("pref_buffer_restart_ms",group));
+                break;
+            case ID_BACK_BUFFER_SECS:
+                action.setDescription(Settings.getString("pref_back_buffer_secs",group));
+                break;
+            case ID_BUFFER_MEM_MB:
+                action.setDescription(Settings.getString("pref_buffer_mem_mb",group));
+                break;
             case ID_LIVETV_ROWSIZE:
                 action.setDescription(Settings.getString("pref_livetv_rowsize"));
                 break;
@@ -834,6 +997,18 @@ private static final String TAG = "lfe";
             case ID_REFRESH_MINS:
                 action.setDescription(Settings.getString("pref_refresh_mins"));
                 break;
+            case ID_HTTP_CONNECT_TIMEOUT:
+                action.setDescription(Settings.getString("pref_http_connect_timeout"));
+                break;
+            case ID_HTTP_READ_TIMEOUT:
+                action.setDescription(Settings.getString("pref_http_read_timeout"));
+                break;
+            case ID_GUIDE_CACHE_HOURS:
+                action.setDescription(Settings.getString("pref_guide_cache_hours"));
+                break;
+            case ID_GUIDE_DAYS:
+                action.setDescription(Settings.getString("pref_guide_days"));
+                break;
         }
     }
 
@@ -990,6 +1165,12 @@ private static final String TAG = "lfe";
                 else
                     Settings.putString(editor, "pref_autoplay", group, "false");
                 break;
+            case ID_BUFFER_ADAPTIVE:
+                if (action.isChecked())
+                    Settings.putString(editor, "pref_buffer_adaptive", group, "true");
+                else
+                    Settings.putString(editor, "pref_buffer_adaptive", group, "false");
+                break;
             case ID_COMMSKIP_OFF:
                 if (action.isChecked())
                     Settings.putString(editor, "pref_commskip", "0");
@@ -1076,7 +1257,11 @@ private static final String TAG = "lfe";
                                     result = lockDatabase();
                                     if (result==null) {
                                         result = copyFile(dbBkup, db);
+                                        // The write-ahead log belongs to the old file
+                                        new File(db.getPath() + "-wal").delete();
+                                        new File(db.getPath() + "-shm").delete();
                                         VideoDbHelper.unlockDatabase();
+                                        RecentsIndex.getInstance().invalidate();
                                     }
                                     break;
                                 default:
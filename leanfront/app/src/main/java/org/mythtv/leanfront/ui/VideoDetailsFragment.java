@@ -40,7 +40,6 @@ import static org.mythtv.leanfront.data.VideoContract.VideoEntry.RECTYPE_CHANNEL
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.RECTYPE_RECORDING;
 import static org.mythtv.leanfront.data.VideoContract.VideoEntry.RECTYPE_VIDEO;
 
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.NotificationManager;
 import android.app.UiModeManager;
@@ -104,6 +103,8 @@ import com.bumptech.glide.request.transition.Transition;
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
 import org.mythtv.leanfront.data.BackendCache;
+import org.mythtv.leanfront.data.DateCodec;
+import org.mythtv.leanfront.data.PlaybackPrefetch;
 import org.mythtv.leanfront.data.VideoContract;
 import org.mythtv.leanfront.data.XmlNode;
 import org.mythtv.leanfront.model.Settings;
@@ -115,16 +116,12 @@ import org.mythtv.leanfront.ui.playback.PlaybackActivity;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 
 /*
  * VideoDetailsFragment extends DetailsFragment, a Wrapper fragment for leanback details screens.
  * It shows a detailed view of video and its metadata plus related videos.
  */
-@SuppressLint("SimpleDateFormat")
 public class VideoDetailsFragment extends DetailsSupportFragment
         implements LoaderManager.LoaderCallbacks<Cursor>,
         AsyncBackendCall.OnBackendCallListener, OnActionClickedListener {
@@ -204,6 +201,8 @@ public class VideoDetailsFragment extends DetailsSupportFragment
                 AsyncBackendCall call = new AsyncBackendCall(getActivity(), this);
                 call.setVideo(mSelectedVideo);
                 call.execute(Video.ACTION_REFRESH);
+                // So that comm skip is ready as soon as playback starts
+                PlaybackPrefetch.start(mSelectedVideo);
             }
 
             // When a Related Video item is clicked.
@@ -512,17 +511,13 @@ public class VideoDetailsFragment extends DetailsSupportFragment
                 actions = new ArrayList<>();
                 boolean busyRecording = false;
                 // Check End Time
-                try {
-                    SimpleDateFormat dbFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'Z");
-                    if (mSelectedVideo.endtime != null) {
-                        Date dateEnd = dbFormat.parse(mSelectedVideo.endtime + "+0000");
-                        long dateMS = dateEnd.getTime();
-                        // If end time is more than 2 mins in the future allow stopping
-                        if (dateMS > System.currentTimeMillis() + 120000)
-                            busyRecording = true;
-                    }
-                } catch (ParseException e) {
-                    Log.e(TAG, CLASS + " Exception parsing endtime.", e);
+                if (mSelectedVideo.endtime != null) {
+                    long dateMS = DateCodec.parseUtc(mSelectedVideo.endtime);
+                    if (dateMS == DateCodec.INVALID)
+                        Log.e(TAG, CLASS + " Invalid endtime " + mSelectedVideo.endtime);
+                    // If end time is more than 2 mins in the future allow stopping
+                    else if (dateMS > System.currentTimeMillis() + 120000)
+                        busyRecording = true;
                 }
                 if (mSelectedVideo.rectype == RECTYPE_RECORDING && !busyRecording) {
                     if ("Deleted".equals(mSelectedVideo.recGroup)) {
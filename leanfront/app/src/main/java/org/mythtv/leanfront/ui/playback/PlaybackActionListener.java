@@ -842,14 +842,11 @@ class PlaybackActionListener implements VideoPlayerGlue.OnActionClickedListener
         long newPosition = 0;
         int mark = 0;
         // Get the last entry that satisfies offset < position
-        for (CommBreakTable.Entry entry : playbackFragment.commBreakTable.entries) {
-            long offsetMs = playbackFragment.commBreakTable.getOffsetMs(entry);
-            if (offsetMs < position - 20000) {
-                newPosition = offsetMs;
-                mark = entry.mark;
-            }
-            else
-                break;
+        CommBreakTable table = playbackFragment.commBreakTable;
+        int ix = table.markBefore(position - 20000);
+        if (ix >= 0) {
+            newPosition = table.getMarkMs(ix);
+            mark = table.getMark(ix);
         }
 
         if (newPosition > 0) {
@@ -870,13 +867,11 @@ class PlaybackActionListener implements VideoPlayerGlue.OnActionClickedListener
         long newPosition = 0;
         int mark = 0;
         // Get the first entry that satisfies offset > position
-        for (CommBreakTable.Entry entry : playbackFragment.commBreakTable.entries) {
-            long offsetMs = playbackFragment.commBreakTable.getOffsetMs(entry);
-            if (offsetMs > position + 5000) {
-                newPosition = offsetMs;
-                mark = entry.mark;
-                break;
-            }
+        CommBreakTable table = playbackFragment.commBreakTable;
+        int ix = table.markAfter(position + 5000);
+        if (ix >= 0) {
+            newPosition = table.getMarkMs(ix);
+            mark = table.getMark(ix);
         }
 
         if (newPosition > 0) {
@@ -914,18 +909,14 @@ class PlaybackActionListener implements VideoPlayerGlue.OnActionClickedListener
             if (position == -1)
                 position = playbackFragment.mPlayerGlue.getCurrentPosition();
             long nextCommBreak = Long.MAX_VALUE;
-            CommBreakTable.Entry startEntry = null;
-            long startOffsetMs = 0;
-            for (CommBreakTable.Entry entry : playbackFragment.commBreakTable.entries) {
-                long offsetMs = playbackFragment.commBreakTable.getOffsetMs(entry);
-                if (entry.mark == CommBreakTable.MARK_CUT_START) {
-                    startEntry = entry;
-                    startOffsetMs = playbackFragment.commBreakTable.getOffsetMs(startEntry);
-                }
-                else {
-                    long possible = startOffsetMs + Settings.getInt("pref_commskip_start") * 1000;
-                    if (position <= offsetMs && entry.mark == CommBreakTable.MARK_CUT_END
-                            && startEntry != null && possible != playbackFragment.priorCommBreak) {
+            long startAdjust = Settings.getInt("pref_commskip_start") * 1000;
+            CommBreakTable table = playbackFragment.commBreakTable;
+            // First break not ended by position, other than the one just handled
+            int ix = table.nextBreak(position);
+            if (ix >= 0) {
+                for (; ix < table.getBreakCount(); ix++) {
+                    long possible = table.getBreakStartMs(ix) + startAdjust;
+                    if (possible != playbackFragment.priorCommBreak) {
                         nextCommBreak = possible;
                         break;
                     }
@@ -998,20 +989,18 @@ class PlaybackActionListener implements VideoPlayerGlue.OnActionClickedListener
         switch (playbackFragment.commBreakOption) {
             case PlaybackFragment.COMMBREAK_SKIP:
             case PlaybackFragment.COMMBREAK_NOTIFY:
-                for (CommBreakTable.Entry entry : playbackFragment.commBreakTable.entries) {
-                    long offsetMs = playbackFragment.commBreakTable.getOffsetMs(entry);
-                    // Skip past earlier entries
-                    if (offsetMs <= nextCommBreakMs)
-                        continue;
-                    // We should now be at the MARK_CUT_END of the selected comm break
-                    // If not or if we are past it, do nothing.
-                    if (position <= offsetMs && entry.mark == CommBreakTable.MARK_CUT_END) {
-                        newPosition = offsetMs + (long)Settings.getInt("pref_commskip_end") * 1000;
-                    }
-                    else
-                        Log.e(TAG, CLASS + " No end commbreak entry for: " + nextCommBreakMs);
-                    break;
+                // Find the comm break that setNextCommBreak selected.
+                // If it is not there or we are past its end, do nothing.
+                CommBreakTable table = playbackFragment.commBreakTable;
+                long startAdjust = Settings.getInt("pref_commskip_start") * 1000;
+                int ix = table.nextBreak(nextCommBreakMs - startAdjust);
+                if (ix >= 0 && table.getBreakStartMs(ix) + startAdjust == nextCommBreakMs
+                        && position <= table.getBreakEndMs(ix)) {
+                    newPosition = table.getBreakEndMs(ix)
+                            + (long)Settings.getInt("pref_commskip_end") * 1000;
                 }
+                else
+                    Log.e(TAG, CLASS + " No end commbreak entry for: " + nextCommBreakMs);
                 break;
             default:
                 return;
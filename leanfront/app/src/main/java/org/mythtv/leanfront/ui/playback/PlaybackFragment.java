@@ -83,11 +83,14 @@ import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
 import org.mythtv.leanfront.data.BackendCache;
 import org.mythtv.leanfront.data.CommBreakTable;
+import org.mythtv.leanfront.data.GrowingFileTracker;
 import org.mythtv.leanfront.data.MythHttpDataSource;
+import org.mythtv.leanfront.data.PlaybackPrefetch;
 import org.mythtv.leanfront.model.Playlist;
 import org.mythtv.leanfront.model.Settings;
 import org.mythtv.leanfront.model.Video;
 import org.mythtv.leanfront.model.VideoCursorMapper;
+import org.mythtv.leanfront.player.AdaptiveLoadControl;
 import org.mythtv.leanfront.player.MyExtractorsFactory;
 import org.mythtv.leanfront.player.VideoPlayerGlue;
 import org.mythtv.leanfront.presenter.CardPresenter;
@@ -162,7 +165,18 @@ public class PlaybackFragment extends VideoSupportFragment
     // 0 or above = enabled track number
     int mTextSelection = -2;
     int mAudioSelection = -2;
-    private long mFileLength = -1;
+    // Read by the data source on the loader thread
+    private volatile long mFileLength = -1;
+    private volatile GrowingFileTracker mFileTracker;
+    private AdaptiveLoadControl mLoadControl;
+    // Rebuffer statistics for this session
+    private int mRebufferCount;
+    private long mRebufferMs;
+    private long mRebufferStart;
+    private String mSubtitle;
+    // Start of the current media, for time to first frame and skip ready
+    private long mPrepareTime;
+    private boolean mFirstFrameLogged;
     private MythHttpDataSource.Factory mDsFactory;
     ProgressiveMediaSource mMediaSource;
     private MythHttpDataSource mDataSource;
@@ -450,6 +464,7 @@ public class PlaybackFragment extends VideoSupportFragment
         }
     }
 
+    @OptIn(markerClass = UnstableApi.class)
     private void initializePlayer(boolean enableControls) {
         Log.i(TAG, CLASS + " Initializing Player for " + mVideo.title + " " + mVideo.videoUrl);
         mTrackSelector = new DefaultTrackSelector(getContext());
@@ -463,6 +478,10 @@ public class PlaybackFragment extends VideoSupportFragment
         rFactory.setEnableDecoderFallback(true);
         ExoPlayer.Builder builder = new ExoPlayer.Builder(getContext(),rFactory);
         builder.setTrackSelector(mTrackSelector);
+        // Buffering from the playgroup settings. What has been read also
+        // stays in SegmentCache for seeking back.
+        mLoadControl = AdaptiveLoadControl.create(mVideo.playGroup, mLoadControl);
+        builder.setLoadControl(mLoadControl);
         mPlayer = builder.build();
 
         mSubtitles = getActivity().findViewById(R.id.leanback_subtitles);
@@ -631,7 +650,8 @@ public class PlaybackFragment extends VideoSupportFragment
                     .append(' ');
         }
         subtitle.append(video.subtitle);
-        mPlayerGlue.setSubtitle(subtitle);
+        mSubtitle = subtitle.toString();
+        showStats();
         prepareMediaForPlaying(Uri.parse(video.videoUrl));
 
         // This is needed to fix jkjsdevelop bad audio where audio track starts late
@@ -645,6 +665,17 @@ public class PlaybackFragment extends VideoSupportFragment
         audioFix(5000, true);
     }
 
+    // Rebuffer statistics are shown after the subtitle in the controls overlay
+    private void showStats() {
+        if (mRebufferCount == 0) {
+            mPlayerGlue.setSubtitle(mSubtitle);
+            return;
+        }
+        String stats = getString(R.string.playback_rebuffers, mRebufferCount,
+                mRebufferMs / 1000.0f, mLoadControl.getScale());
+        mPlayerGlue.setSubtitle(mSubtitle + "  " + stats);
+    }
+
     private void setPlaySettings(String group) {
         // null and Default should be treated as equal
         // This is to reset settings if the next video is a different playgroup.
@@ -858,12 +889,28 @@ public class PlaybackFragment extends VideoSupportFragment
 
     @OptIn(markerClass = UnstableApi.class)
     private void prepareMediaForPlaying(Uri mediaSourceUri) {
+        mPrepareTime = System.currentTimeMillis();
+        mFirstFrameLogged = false;
         mFileLength = -1;
+        if (mFileTracker == null || !mVideo.videoUrl.equals(mFileTracker.getUrl()))
+            mFileTracker = new GrowingFileTracker(mVideo.videoUrl);
         mIsPlayResumable = false;
-        getFileLength(false);
+        // Use what the details page fetched, except when resuming a file
+        // that has grown.
+        PlaybackPrefetch prefetch = null;
+        if (mIsBounded && mOffsetBytes == 0)
+            prefetch = PlaybackPrefetch.get(mVideo.videoUrl);
+        long prefetchLength = prefetch == null ? -1 : prefetch.getFileLength();
+        if (prefetchLength > -1) {
+            mFileLength = prefetchLength;
+            mFileTracker.noteLength(prefetchLength);
+        }
+        else
+            getFileLength(false);
         String userAgent = Util.getUserAgent(getActivity(), "VideoPlayerGlue");
         mDsFactory = new MythHttpDataSource.Factory(userAgent, this);
-        commBreakTable = new CommBreakTable();
+        CommBreakTable prefetchTable = prefetch == null ? null : prefetch.getCommBreakTable();
+        commBreakTable = prefetchTable == null ? new CommBreakTable() : prefetchTable;
         MyExtractorsFactory extFactory = new MyExtractorsFactory();
         ProgressiveMediaSource.Factory pmf = new ProgressiveMediaSource.Factory
                 (mDsFactory,
@@ -875,8 +922,12 @@ public class PlaybackFragment extends VideoSupportFragment
         mPlayer.prepare();
         // Get file length again to see if it is increasing
         getFileLength(true);
-        if (mIsBounded)
-            fillTables();
+        if (mIsBounded) {
+            if (prefetchTable != null)
+                commBreaksReady(true);
+            else
+                fillTables();
+        }
     }
 
 
@@ -1210,6 +1261,7 @@ public class PlaybackFragment extends VideoSupportFragment
         AsyncBackendCall call = new AsyncBackendCall(getActivity(), this);
         call.setVideo(mVideo);
         call.setmValue(priorFileLeng);
+        call.setFileTracker(mFileTracker);
         call.execute(Video.ACTION_FILELENGTH);
     }
 
@@ -1220,6 +1272,14 @@ public class PlaybackFragment extends VideoSupportFragment
         call.execute(Video.ACTION_CUTLIST_LOAD, Video.ACTION_COMMBREAK_LOAD);
     }
 
+    private void commBreaksReady(boolean prefetched) {
+        Log.i(TAG, CLASS + " Time to skip ready " + (System.currentTimeMillis() - mPrepareTime)
+                + " ms, " + commBreakTable.entries.length + " entries"
+                + (prefetched ? ", prefetched" : ""));
+        if (commBreakTable.entries.length > 0)
+            mPlaybackActionListener.setNextCommBreak(-1);
+    }
+
     @Override
     public void onPostExecute(AsyncBackendCall taskRunner) {
         if (getContext() == null)
@@ -1267,8 +1327,7 @@ public class PlaybackFragment extends VideoSupportFragment
                 mToast.show();
                 break;
             case Video.ACTION_CUTLIST_LOAD:
-                if (commBreakTable.entries.length > 0)
-                    mPlaybackActionListener.setNextCommBreak(-1);
+                commBreaksReady(false);
                 break;
             case Video.ACTION_LIVETV:
                 mNextRecordid = taskRunner.getRecordId();
@@ -1384,6 +1443,16 @@ public class PlaybackFragment extends VideoSupportFragment
         return mIsBounded;
     }
 
+    // Shared with the data source, which waits on it at the end of a growing file
+    public GrowingFileTracker getFileTracker() {
+        return mFileTracker;
+    }
+
+    // File length from the last ACTION_FILELENGTH, or -1
+    public long getKnownFileLength() {
+        return mFileLength;
+    }
+
     public long getOffsetBytes() {
         return mOffsetBytes;
     }
@@ -1691,17 +1760,52 @@ public class PlaybackFragment extends VideoSupportFragment
         private static final int DIALOG_EXIT   = 2;
         private static final int DIALOG_RETRY  = 3;
         private long mTimeLastError = 0;
+        private int mLastState = Player.STATE_IDLE;
+        private boolean mSeeking;
 
         @Override
         public void onPositionDiscontinuity(int reason) {
             if (reason == Player.DISCONTINUITY_REASON_SEEK) {
+                mSeeking = true;
                 // disable and enable to fix audio sync
                 audioFix(5000, true);
             }
         }
 
+        // Count the times playback stops to wait for data, other than for a seek
+        private void trackRebuffer(int state) {
+            if (state == Player.STATE_BUFFERING && mLastState == Player.STATE_READY
+                    && !mSeeking && mPlayer.getPlayWhenReady()) {
+                mRebufferStart = System.currentTimeMillis();
+                mRebufferCount++;
+                mLoadControl.onRebuffer();
+            }
+            else if (state != Player.STATE_BUFFERING) {
+                if (mRebufferStart > 0) {
+                    mRebufferMs += System.currentTimeMillis() - mRebufferStart;
+                    mRebufferStart = 0;
+                    Log.i(TAG, CLASS + " Rebuffer count " + mRebufferCount
+                            + ", total ms " + mRebufferMs);
+                    showStats();
+                }
+                if (state == Player.STATE_READY)
+                    mSeeking = false;
+            }
+            mLastState = state;
+        }
+
+        @Override
+        public void onRenderedFirstFrame() {
+            if (mFirstFrameLogged)
+                return;
+            mFirstFrameLogged = true;
+            Log.i(TAG, CLASS + " Time to first frame "
+                    + (System.currentTimeMillis() - mPrepareTime) + " ms");
+        }
+
         @Override
         public void onPlaybackStateChanged(int state) {
+            trackRebuffer(state);
             if (state == Player.STATE_READY && !playWhenPrepared) {
                 if (frameRate < 0.0f) {
                     SampleQueue[] sampleQueues = mMediaSource.getSampleQueues();
@@ -1776,7 +1880,7 @@ public class PlaybackFragment extends VideoSupportFragment
                         }
                     }
                 }
-                commBreakTable.frameratex1000 = (long)(frameRate * 1000.0f);
+                commBreakTable.setFrameRatex1000((long)(frameRate * 1000.0f));
                 if (posBookmark >= 0 && frameRate > 0.0f) {
                     mBookmark = posBookmark * 100000 / (long) (frameRate * 100.0f);
                     posBookmark = -1;